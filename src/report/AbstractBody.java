@@ -0,0 +1,122 @@
+package report;
+
+import java.awt.Color;
+
+import javax.swing.JPanel;
+
+/**
+ * Box と Ball に共通する位置・速度・色・描画先パネル・積分器を持つ基底クラス。
+ */
+public abstract class AbstractBody implements Body {
+    protected double x = 0.0;
+    protected double y = 0.0;
+    protected double vx;
+    protected double vy;
+    protected Color color;
+    protected JPanel panel;
+    protected Integrator integrator = Integrator.Kind.EXPLICIT_EULER.create();
+
+    private static final KeyFrameData.ParamType[] PARAM_TYPES = KeyFrameData.ParamType.values();
+    private final double[] kinematicTarget = new double[PARAM_TYPES.length];
+    /** kinematicTarget のうち設定されたもの(ParamType の ordinal のビット)。 */
+    private int kinematicMask = 0;
+
+    protected AbstractBody(JPanel panel, double vx, double vy, Color color) {
+        this.panel = panel;
+        this.vx = vx;
+        this.vy = vy;
+        this.color = color;
+    }
+
+    @Override
+    public double getX() {
+        return x;
+    }
+
+    @Override
+    public double getY() {
+        return y;
+    }
+
+    @Override
+    public double getVx() {
+        return vx;
+    }
+
+    @Override
+    public double getVy() {
+        return vy;
+    }
+
+    public void setX(double x) {
+        this.x = x;
+    }
+
+    public void setY(double y) {
+        this.y = y;
+    }
+
+    @Override
+    public void setXY(double x, double y) {
+        this.x = x;
+        this.y = y;
+    }
+
+    public void setVx(double vx) {
+        this.vx = vx;
+    }
+
+    public void setVy(double vy) {
+        this.vy = vy;
+    }
+
+    @Override
+    public void setVxVy(double vx, double vy) {
+        this.vx = vx;
+        this.vy = vy;
+    }
+
+    public Color getColor() {
+        return color;
+    }
+
+    public void setColor(Color color) {
+        this.color = color;
+    }
+
+    @Override
+    public Integrator getIntegrator() {
+        return integrator;
+    }
+
+    @Override
+    public void setIntegrator(Integrator integrator) {
+        this.integrator = integrator;
+    }
+
+    @Override
+    public void setKinematicTarget(KeyFrameData.ParamType type, double value) {
+        kinematicTarget[type.ordinal()] = value;
+        kinematicMask |= 1 << type.ordinal();
+    }
+
+    protected void clearKinematicTarget() {
+        kinematicMask = 0;
+    }
+
+    /**
+     * next() の最初に呼ぶ。目標が設定されていればそこへ移して true を返すので、その回は物理を解かない。
+     */
+    protected boolean moveToKinematicTarget() {
+        if (kinematicMask == 0) {
+            return false;
+        }
+        for (KeyFrameData.ParamType type : PARAM_TYPES) {
+            if ((kinematicMask & (1 << type.ordinal())) != 0) {
+                setStateParameter(type, kinematicTarget[type.ordinal()]);
+            }
+        }
+        kinematicMask = 0;
+        return true;
+    }
+}
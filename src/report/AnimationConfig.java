@@ -18,6 +18,11 @@ public class AnimationConfig {
     public static final int TIMELINE_ROW_HEIGHT = 25;
     public static final int TIMELINE_LABEL_WIDTH = 100;
     public static final int TIMELINE_KEYFRAME_SIZE = 10;
+    /** Ctrl+ホイールで縮小できる下限(1フレームあたりのピクセル数)。 */
+    public static final double TIMELINE_MIN_PIXELS_PER_FRAME = 0.0001;
+    public static final double TIMELINE_ZOOM_STEP = 1.25;
+    /** 目盛りラベルの最小間隔(ピクセル)。 */
+    public static final int TIMELINE_LABEL_SPACING = 50;
 
     public static final int POSITION_MIN = 0;
     public static final int POSITION_X_MAX = 800;
@@ -46,6 +51,29 @@ public class AnimationConfig {
     public static final double ANGULAR_VELOCITY_THRESHOLD = 0.01;
     public static final double GROUND_CONTACT_TOLERANCE = 2.0;
 
+    public static final int MAX_SUBSTEPS = 8;
+    public static final int CONTACT_MIN_SUBSTEPS = 2;
+    public static final double SUBSTEP_MAX_TRAVEL_RATIO = 0.25;
+
+    public static final int SOLVER_MAX_ITERATIONS = 10;
+    public static final double SOLVER_TOLERANCE = 1e-4;
+    public static final double CONTACT_MARGIN = 1.0;
+    public static final double RESTITUTION_VELOCITY_THRESHOLD = 1.0;
+
+    public static final long JOURNAL_FLUSH_INTERVAL_MS = 500;
+    public static final long JOURNAL_COMPACT_RECORDS = 10_000;
+    public static final long JOURNAL_CLOSE_TIMEOUT_MS = 5000;
+
+    public static final int RECORDING_KEYFRAME_INTERVAL = 60;
+
+    /** オニオンスキンで前後に描く姿勢の数と、その間隔(フレーム)。 */
+    public static final int ONION_SKIN_POSES = 6;
+    public static final int ONION_SKIN_STRIDE = 4;
+
+    /** 元に戻せる編集の数と、同じキーへの続けての編集を1つにまとめる間隔(ミリ秒)。 */
+    public static final int UNDO_LIMIT = 200;
+    public static final long UNDO_MERGE_MS = 500;
+
     private AnimationConfig() {
     }
 }
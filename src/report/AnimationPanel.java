@@ -4,32 +4,163 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.KeyEvent;
+import java.util.List;
 
 /**
  * 実際に物体を描画し、1フレームごとの物理シミュレーションを行うパネル。
  * SwingのTimerで一定間隔ごとにactionPerformedが呼ばれ、Boxの状態を更新する。
+ * F3 キーで各段階の処理時間(p50/p99/max)のオーバーレイを切り替える。
+ * F4 キーでチェックサムによる再生経路の検証モードを切り替える。
+ * F5 キーでオニオンスキン(前後の姿勢と軌跡)を切り替える。
  */
 public class AnimationPanel extends JPanel implements ActionListener {
     private final Box box;
+    private final World world;
+    private final Scene scene;
     private final Timer timer;
     private int frameCount;
     private KeyFrameTimeline timeline;
+    private ObstacleBvh obstacles;
+    private final FrameTimeMetrics metrics = new FrameTimeMetrics();
+    private final SimulationStats stats = new SimulationStats(this);
+    private final FrameChecksumLog checksumLog = new FrameChecksumLog();
+    private final ParameterHistory history = new ParameterHistory(AnimationConfig.MAX_FRAME);
+    private final OnionSkin onionSkin = new OnionSkin();
+    private int maxFrame = AnimationConfig.MAX_FRAME;
+    private boolean metricsOverlayVisible = false;
 
     public AnimationPanel() {
         this.timer = new Timer(AnimationConfig.FRAME_INTERVAL_MS, this);
         this.box = new Box(this);
+        this.world = new World();
+        this.scene = new Scene(world);
+        scene.addBox("Box 1", box, new KeyFrameData());
+        history.watch(box, KeyFrameData.ParamType.X);
         this.frameCount = 0;
         setBackground(Color.WHITE);
+        setupKeyBindings();
+    }
+
+    private void setupKeyBindings() {
+        getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke(KeyEvent.VK_F3, 0),
+                "toggleMetrics");
+        getActionMap().put("toggleMetrics", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                setMetricsOverlayVisible(!metricsOverlayVisible);
+            }
+        });
+        getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke(KeyEvent.VK_F4, 0),
+                "toggleChecksum");
+        getActionMap().put("toggleChecksum", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                checksumLog.setVerifying(!checksumLog.isVerifying());
+                repaint();
+            }
+        });
+        getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke(KeyEvent.VK_F5, 0),
+                "toggleOnionSkin");
+        getActionMap().put("toggleOnionSkin", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                onionSkin.setEnabled(!onionSkin.isEnabled());
+                repaint();
+            }
+        });
+    }
+
+    public FrameChecksumLog getChecksumLog() {
+        return checksumLog;
+    }
+
+    public ParameterHistory getHistory() {
+        return history;
+    }
+
+    public OnionSkin getOnionSkin() {
+        return onionSkin;
+    }
+
+    public SimulationStats getStats() {
+        return stats;
+    }
+
+    public int getFrameInterval() {
+        return timer.getDelay();
+    }
+
+    public void setFrameInterval(int milliseconds) {
+        timer.setDelay(milliseconds);
+    }
+
+    public int getMaxFrame() {
+        return maxFrame;
+    }
+
+    /**
+     * 再生する最大フレームを変える。タイムラインの長さも合わせる。
+     */
+    public void setMaxFrame(int maxFrame) {
+        this.maxFrame = maxFrame;
+        history.setMaxFrame(maxFrame);
+        if (timeline != null) {
+            timeline.setMaxFrame(maxFrame);
+        }
+    }
+
+    public FrameTimeMetrics getMetrics() {
+        return metrics;
+    }
+
+    public boolean isMetricsOverlayVisible() {
+        return metricsOverlayVisible;
+    }
+
+    public void setMetricsOverlayVisible(boolean visible) {
+        this.metricsOverlayVisible = visible;
+        repaint();
     }
 
     public Box getBox() {
         return box;
     }
 
+    public World getWorld() {
+        return world;
+    }
+
+    public Scene getScene() {
+        return scene;
+    }
+
+    /**
+     * シーンの静的な障害物を設定する。BVH を組み直して World の全 Box に渡す。
+     */
+    public void setObstacles(List<Obstacle> obstacleList) {
+        this.obstacles = new ObstacleBvh(obstacleList);
+        for (int i = 0; i < world.getBoxCount(); i++) {
+            world.getBox(i).setObstacles(obstacles);
+        }
+        if (timeline != null) {
+            timeline.invalidateSeekCache();
+        }
+        repaint();
+    }
+
+    public ObstacleBvh getObstacles() {
+        return obstacles;
+    }
+
     public void setTimeline(KeyFrameTimeline timeline) {
         this.timeline = timeline;
     }
 
+    public KeyFrameTimeline getTimeline() {
+        return timeline;
+    }
+
     public boolean isPlaying() {
         return timer.isRunning();
     }
@@ -42,7 +173,10 @@ public class AnimationPanel extends JPanel implements ActionListener {
 
     public void playFromBeginning() {
         stop();
-        box.goHome();
+        world.goHome();
+        box.resetSubStepStats();
+        box.getContactSolver().resetStats();
+        metrics.reset();
         frameCount = 0;
         if (timeline != null) {
             timeline.setCurrentFrame(0);
@@ -64,18 +198,41 @@ public class AnimationPanel extends JPanel implements ActionListener {
 
     @Override
     protected void paintComponent(Graphics g) {
+        PaintEvent event = new PaintEvent();
+        event.begin();
+        long start = System.nanoTime();
         super.paintComponent(g);
         Graphics2D g2d = (Graphics2D) g;
 
         drawGridAndAxes(g2d);
-        box.draw(g);
+        if (obstacles != null) {
+            g2d.setColor(UIStyles.OBSTACLE_COLOR);
+            obstacles.draw(g2d);
+        }
+        onionSkin.draw(g2d, frameCount, box, scene.getObject(0).getKeyFrameData(), maxFrame);
+        world.draw(g);
         drawStatusInfo(g);
+        if (metricsOverlayVisible) {
+            drawMetricsOverlay(g2d);
+        }
+        metrics.record(FrameTimeMetrics.Phase.PAINT, System.nanoTime() - start);
+        stats.recordPainted();
+        if (event.shouldCommit()) {
+            event.frame = frameCount;
+            event.bodyCount = world.getBodyCount();
+            event.metricsOverlay = metricsOverlayVisible;
+            event.commit();
+        }
     }
 
     private void drawGridAndAxes(Graphics2D g2d) {
-        int width = getWidth();
-        int height = getHeight();
+        drawGridAndAxes(g2d, getWidth(), getHeight());
+    }
 
+    /**
+     * 背景のグリッドと軸を描く。オフスクリーン描画からも使う。
+     */
+    static void drawGridAndAxes(Graphics2D g2d, int width, int height) {
         g2d.setColor(UIStyles.PANEL_BORDER);
         g2d.setStroke(new BasicStroke(1));
         int gridSpacing = 50;
@@ -120,12 +277,60 @@ public class AnimationPanel extends JPanel implements ActionListener {
         g.drawString(String.format("Rotation: %.1f°", Math.toDegrees(box.getAngle())), x, y);
         y += lineHeight;
         g.drawString(String.format("Angular Velocity: %.2f", box.getAngularVelocity()), x, y);
+        y += lineHeight;
+        g.drawString(String.format("Sub-steps: %d (avg %.2f)", box.getLastSubStepCount(),
+                box.getAverageSubStepCount()), x, y);
+        y += lineHeight;
+        ContactSolver solver = box.getContactSolver();
+        g.drawString(String.format("Solver: %d iter (avg %.2f, converged %.0f%%)", solver.getLastIterations(),
+                solver.getAverageIterations(), solver.getConvergenceRate() * 100), x, y);
+
+        if (checksumLog.isVerifying()) {
+            y += lineHeight;
+            g.drawString(String.format("Checksum: %016x", checksumLog.getRollingChecksum(frameCount)), x, y);
+            FrameChecksumLog.Divergence divergence = checksumLog.getDivergence();
+            if (divergence != null) {
+                y += lineHeight;
+                g.setColor(UIStyles.DANGER_COLOR);
+                g.drawString(divergence.toString(), x, y);
+            }
+        }
+    }
+
+    /**
+     * 右上に段階ごとの p50/p99/max をミリ秒で表示する。p99 がフレーム間隔を超えた段階は赤くする。
+     */
+    private void drawMetricsOverlay(Graphics2D g2d) {
+        FrameTimeMetrics.Phase[] phases = FrameTimeMetrics.Phase.values();
+        int lineHeight = 16;
+        int width = 300;
+        int height = (phases.length + 1) * lineHeight + 10;
+        int left = getWidth() - width - 10;
+        int top = 10;
+
+        g2d.setColor(UIStyles.METRICS_OVERLAY_BG);
+        g2d.fillRect(left, top, width, height);
+        g2d.setFont(UIStyles.FONT_MONO);
+        g2d.setColor(UIStyles.TEXT_ON_DARK);
+
+        int x = left + 8;
+        int y = top + lineHeight;
+        g2d.drawString(String.format("%-9s %7s %7s %7s", "ms", "p50", "p99", "max"), x, y);
+        double budget = timer.getDelay();
+        for (FrameTimeMetrics.Phase phase : phases) {
+            y += lineHeight;
+            LatencyHistogram histogram = metrics.getHistogram(phase);
+            double p99 = histogram.getPercentile(99) / 1e6;
+            g2d.setColor(p99 > budget ? UIStyles.DANGER_COLOR : UIStyles.TEXT_ON_DARK);
+            g2d.drawString(String.format("%-9s %7.2f %7.2f %7.2f", phase.getDisplayName(),
+                    histogram.getPercentile(50) / 1e6, p99, histogram.getMax() / 1e6), x, y);
+        }
     }
 
     public void updatePhysicsAndRender() {
-        if (frameCount >= AnimationConfig.MAX_FRAME) {
+        if (frameCount >= maxFrame) {
             stop();
-            box.goHome();
+            world.goHome();
             frameCount = 0;
             if (timeline != null) {
                 timeline.updatePlayButtonText("再生");
@@ -135,17 +340,33 @@ public class AnimationPanel extends JPanel implements ActionListener {
             return;
         }
 
+        long start = System.nanoTime();
         if (timeline != null) {
             timeline.applyKeyFrameData(frameCount);
         }
+        long applied = System.nanoTime();
 
-        box.next();
+        world.step();
         frameCount++;
+        stats.recordFrameSimulated();
+        long stepped = System.nanoTime();
 
         if (timeline != null) {
             timeline.setCurrentFrame(frameCount);
         }
+        long synced = System.nanoTime();
+
+        // 検証・表示用の記録はフェーズごとの計測に含めない。
+        checksumLog.record(frameCount, world, FrameChecksumLog.Source.LIVE);
+        history.record(frameCount);
+        onionSkin.record(frameCount, box);
+
+        metrics.record(FrameTimeMetrics.Phase.KEYFRAME_APPLY, applied - start);
+        metrics.record(FrameTimeMetrics.Phase.PHYSICS, stepped - applied);
+        metrics.record(FrameTimeMetrics.Phase.TIMELINE_SYNC, synced - stepped);
+        metrics.record(FrameTimeMetrics.Phase.UPDATE, synced - start);
 
+        stats.recordRepaintRequested();
         repaint();
     }
 
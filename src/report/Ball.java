@@ -9,93 +9,222 @@ import javax.swing.JPanel;
  * 円形のボールを単純な反射物理で動かすクラス。
  * Boxよりもシンプルなモデルなので、物理更新の流れを練習したいときに役立つ。
  */
-public class Ball {
+public class Ball extends AbstractBody {
     private double radius = 10.0;
-    private double x = 0.0;
-    private double y = 0.0;
-    private double vx = 15.0;
-    private double vy = -15.0;
-    private Color color = Color.BLACK;
     private double gravity = 0.5;
     private double restitutionCoefficient = 0.8;
-    private JPanel panel;
+
+    private double initialVx;
+    private double initialVy;
+
+    /**
+     * シークキャッシュ用に Ball の状態を保持するクラス。
+     */
+    public static class BallState {
+        public double x, y, vx, vy;
+        public double radius, gravity, restitutionCoefficient;
+
+        public BallState(Ball ball) {
+            this.x = ball.x;
+            this.y = ball.y;
+            this.vx = ball.vx;
+            this.vy = ball.vy;
+            this.radius = ball.radius;
+            this.gravity = ball.gravity;
+            this.restitutionCoefficient = ball.restitutionCoefficient;
+        }
+
+        public double getParameter(KeyFrameData.ParamType type) {
+            switch (type) {
+                case X:
+                    return x;
+                case Y:
+                    return y;
+                case VX:
+                    return vx;
+                case VY:
+                    return vy;
+                case WIDTH:
+                case HEIGHT:
+                    return radius * 2;
+                case RESTITUTION:
+                    return restitutionCoefficient;
+                case GRAVITY:
+                    return gravity;
+                default:
+                    return Double.NaN;
+            }
+        }
+    }
 
     public Ball(JPanel panel) {
-        this.panel = panel;
+        super(panel, 15.0, -15.0, Color.BLACK);
+        this.initialVx = this.vx;
+        this.initialVy = this.vy;
     }
 
     public Ball(double radius, double x, double y, double vx, double vy, Color color, JPanel panel) {
+        super(panel, vx, vy, color);
         this.radius = radius;
         this.x = x;
         this.y = y;
-        this.vx = vx;
-        this.vy = vy;
-        this.color = color;
-        this.panel = panel;
+        this.initialVx = vx;
+        this.initialVy = vy;
     }
 
     public double getRadius() {
         return radius;
     }
 
-    public double getX() {
-        return x;
+    public void setRadius(double radius) {
+        this.radius = radius;
     }
 
-    public double getY() {
-        return y;
+    public void setGravity(double gravity) {
+        this.gravity = gravity;
     }
 
-    public double getVx() {
-        return vx;
+    public void setRestitutionCoefficient(double restitutionCoefficient) {
+        this.restitutionCoefficient = restitutionCoefficient;
     }
 
-    public double getVy() {
-        return vy;
+    public double getGravity() {
+        return gravity;
     }
 
-    public void setRadius(double radius) {
-        this.radius = radius;
+    public double getRestitutionCoefficient() {
+        return restitutionCoefficient;
     }
 
-    public void setX(double x) {
-        this.x = x;
+    public BallState saveState() {
+        return new BallState(this);
     }
 
-    public void setY(double y) {
-        this.y = y;
+    public void restoreState(BallState state) {
+        this.x = state.x;
+        this.y = state.y;
+        this.vx = state.vx;
+        this.vy = state.vy;
+        this.radius = state.radius;
+        this.gravity = state.gravity;
+        this.restitutionCoefficient = state.restitutionCoefficient;
     }
 
-    public void setXY(double x, double y) {
-        this.x = x;
-        this.y = y;
+    /**
+     * 配列の先頭 count 個の Ball をまとめて1フレーム進める。
+     */
+    public static void stepAll(Ball[] balls, int count) {
+        for (int i = 0; i < count; i++) {
+            balls[i].next();
+        }
     }
 
-    public void setVx(double vx) {
-        this.vx = vx;
+    /**
+     * Ball が持つのは座標・速度・大きさ(直径)・反発係数・重力のみ。
+     */
+    @Override
+    public boolean hasParameter(KeyFrameData.ParamType type) {
+        switch (type) {
+            case X:
+            case Y:
+            case VX:
+            case VY:
+            case WIDTH:
+            case HEIGHT:
+            case RESTITUTION:
+            case GRAVITY:
+                return true;
+            default:
+                return false;
+        }
     }
 
-    public void setVy(double vy) {
-        this.vy = vy;
+    @Override
+    public double getParameter(KeyFrameData.ParamType type) {
+        switch (type) {
+            case X:
+                return x;
+            case Y:
+                return y;
+            case VX:
+                return vx;
+            case VY:
+                return vy;
+            case WIDTH:
+            case HEIGHT:
+                return radius * 2;
+            case RESTITUTION:
+                return restitutionCoefficient;
+            case GRAVITY:
+                return gravity;
+            default:
+                return Double.NaN;
+        }
     }
 
-    public void setVxVy(double vx, double vy) {
-        this.vx = vx;
-        this.vy = vy;
+    @Override
+    public void setParameter(KeyFrameData.ParamType type, double value) {
+        switch (type) {
+            case X:
+                x = value;
+                break;
+            case Y:
+                y = value;
+                break;
+            case VX:
+                vx = value;
+                break;
+            case VY:
+                vy = value;
+                break;
+            case WIDTH:
+            case HEIGHT:
+                radius = value / 2;
+                break;
+            case RESTITUTION:
+                restitutionCoefficient = value;
+                break;
+            case GRAVITY:
+                gravity = value;
+                break;
+            default:
+                break;
+        }
     }
 
-    public void setGravity(double gravity) {
-        this.gravity = gravity;
+    @Override
+    public int getDegreesOfFreedom() {
+        return 2;
     }
 
-    public void setRestitutionCoefficient(double restitutionCoefficient) {
-        this.restitutionCoefficient = restitutionCoefficient;
+    @Override
+    public void readState(double[] q, double[] v) {
+        q[0] = x;
+        q[1] = y;
+        v[0] = vx;
+        v[1] = vy;
+    }
+
+    @Override
+    public void writeState(double[] q, double[] v) {
+        x = q[0];
+        y = q[1];
+        vx = v[0];
+        vy = v[1];
+    }
+
+    @Override
+    public void computeAcceleration(double[] q, double[] v, double[] a) {
+        a[0] = 0.0;
+        a[1] = gravity;
     }
 
-    public void setColor(Color color) {
-        this.color = color;
+    @Override
+    public void applyDamping(double[] v, double h) {
+        // Ballは減衰なし
     }
 
+    @Override
     public void draw(Graphics graphics) {
         Color prevColor = graphics.getColor();
         graphics.setColor(color);
@@ -103,18 +232,26 @@ public class Ball {
         graphics.setColor(prevColor);
     }
 
+    @Override
     public void goHome() {
         x = radius;
         y = panel.getHeight() - radius;
+        vx = initialVx;
+        vy = initialVy;
+        clearKinematicTarget();
     }
 
     // 座標、速度更新
+    @Override
     public void next() {
+        if (moveToKinematicTarget()) {
+            return;
+        }
         int width = panel.getWidth();
         int height = panel.getHeight();
 
-        x = x + vx;
-        y = y + vy;
+        integrator.integrate(this, 1.0);
+
         if (x < radius) {
             x = radius;
             vx = -vx * restitutionCoefficient;
@@ -134,7 +271,5 @@ public class Ball {
             y = height - radius;
             vy = -vy * restitutionCoefficient;
         }
-
-        vy = vy + gravity;
     }
 }
@@ -0,0 +1,236 @@
+package report;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.Locale;
+
+import javax.swing.JPanel;
+
+/**
+ * 画面を出さずにシーンを N フレーム動かし、全体のスループットを測るベンチマーク。
+ * 1フレームの進め方は AnimationPanel と同じで、各 Box にキーフレームを適用してから World.step() を呼ぶ。
+ * 結果は標準出力に表示し、--json を指定すればバージョン間で比べられるように JSON でも書き出す。
+ *
+ * <pre>
+ * 使い方: java -cp bin report.BenchmarkRunner [--frames N] [--bodies N] [--warmup N]
+ *                                             [--scene プロジェクトファイル | --script キーフレームスクリプト]
+ *                                             [--json 出力ファイル]
+ * </pre>
+ *
+ * キーフレームスクリプトは1行に「ParamType名 フレーム 値」を書いたテキスト。# 以降はコメント。
+ */
+public class BenchmarkRunner {
+    private static final int DEFAULT_FRAMES = 10_000;
+    private static final int DEFAULT_BODIES = 100;
+    private static final int DEFAULT_WARMUP = 2_000;
+
+    private int frames = DEFAULT_FRAMES;
+    private int bodies = DEFAULT_BODIES;
+    private int warmup = DEFAULT_WARMUP;
+    private Path scene;
+    private Path script;
+    private Path json;
+
+    private final JPanel panel = new JPanel();
+    private final KeyFrameData keyFrameData = new KeyFrameData();
+    private final Box template;
+
+    private BenchmarkRunner(String[] args) throws IOException {
+        for (int i = 0; i < args.length; i++) {
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException(args[i] + " に値がありません");
+            }
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--frames":
+                    frames = Integer.parseInt(value);
+                    break;
+                case "--bodies":
+                    bodies = Integer.parseInt(value);
+                    break;
+                case "--warmup":
+                    warmup = Integer.parseInt(value);
+                    break;
+                case "--scene":
+                    scene = Paths.get(value);
+                    break;
+                case "--script":
+                    script = Paths.get(value);
+                    break;
+                case "--json":
+                    json = Paths.get(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("不明なオプションです: " + args[i]);
+            }
+            i++;
+        }
+
+        panel.setSize(AnimationConfig.POSITION_X_MAX, AnimationConfig.POSITION_Y_MAX);
+        template = new Box(panel);
+        if (scene != null) {
+            ProjectFile project = ProjectFile.open(scene);
+            panel.setSize(project.getSceneWidth(), project.getSceneHeight());
+            project.loadInto(keyFrameData, template);
+        } else {
+            keyFrameData.registerAllFromBox(0, template);
+        }
+        if (script != null) {
+            loadScript(script);
+        }
+    }
+
+    private void loadScript(Path path) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                int comment = line.indexOf('#');
+                if (comment >= 0) {
+                    line = line.substring(0, comment);
+                }
+                line = line.trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+                String[] fields = line.split("\\s+");
+                if (fields.length != 3) {
+                    throw new IOException(path + ":" + lineNumber + ": 「ParamType名 フレーム 値」の形式ではありません");
+                }
+                KeyFrameData.ParamType type = KeyFrameData.ParamType.valueOf(fields[0].toUpperCase(Locale.ROOT));
+                keyFrameData.registerKeyFrame(type, Integer.parseInt(fields[1]), Double.parseDouble(fields[2]));
+            }
+        }
+    }
+
+    /**
+     * テンプレートと同じパラメータで初速度だけ少しずつ変えた Box を bodies 個並べる。
+     */
+    private World createWorld() {
+        World world = new World();
+        for (int i = 0; i < bodies; i++) {
+            Box box = new Box(panel);
+            for (KeyFrameData.ParamType type : KeyFrameData.ParamType.values()) {
+                box.setParameter(type, template.getParameter(type));
+            }
+            box.setVxVy(template.getVx() + (i % 17) - 8, template.getVy() - (i % 13));
+            box.goHome();
+            world.addBox(box);
+        }
+        return world;
+    }
+
+    private static void run(World world, KeyFrameData keyFrameData, int frames) {
+        for (int frame = 0; frame < frames; frame++) {
+            for (int i = 0; i < world.getBoxCount(); i++) {
+                keyFrameData.applyToBody(frame, world.getBox(i));
+            }
+            world.step();
+        }
+    }
+
+    private static long gcCount() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, gc.getCollectionCount());
+        }
+        return total;
+    }
+
+    private static long gcMillis() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, gc.getCollectionTime());
+        }
+        return total;
+    }
+
+    /**
+     * 現在のスレッドがこれまでに確保したバイト数。取れない JVM では -1。
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean) threads;
+            if (sunThreads.isThreadAllocatedMemorySupported() && sunThreads.isThreadAllocatedMemoryEnabled()) {
+                return sunThreads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    private void benchmark() throws IOException {
+        run(createWorld(), keyFrameData, warmup);
+
+        World world = createWorld();
+        long gcCountBefore = gcCount();
+        long gcMillisBefore = gcMillis();
+        long allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+
+        run(world, keyFrameData, frames);
+
+        long elapsed = System.nanoTime() - start;
+        long allocated = allocatedBefore < 0 ? -1 : allocatedBytes() - allocatedBefore;
+        long gcCount = gcCount() - gcCountBefore;
+        long gcMillis = gcMillis() - gcMillisBefore;
+
+        double seconds = elapsed / 1e9;
+        double framesPerSecond = frames / seconds;
+        double nsPerStep = (double) elapsed / ((long) frames * bodies);
+        double allocationRate = allocated < 0 ? -1 : allocated / seconds / (1024 * 1024);
+
+        System.out.printf("%d 物体 × %d フレーム (ウォームアップ %d フレーム)%n", bodies, frames, warmup);
+        System.out.printf("フレーム/秒      : %.1f%n", framesPerSecond);
+        System.out.printf("ns/ステップ      : %.1f (1物体1フレームあたり)%n", nsPerStep);
+        System.out.printf("確保速度         : %.2f MB/秒 (%,d バイト)%n", allocationRate, allocated);
+        System.out.printf("GC               : %d 回 (%d ミリ秒)%n", gcCount, gcMillis);
+
+        if (json != null) {
+            try (Writer writer = Files.newBufferedWriter(json, StandardCharsets.UTF_8)) {
+                writer.write("{\n");
+                writer.write(String.format(Locale.ROOT, "  \"timestamp\": \"%s\",%n", Instant.now()));
+                writer.write(String.format(Locale.ROOT, "  \"javaVersion\": \"%s\",%n",
+                        escape(System.getProperty("java.version"))));
+                writer.write(String.format(Locale.ROOT, "  \"os\": \"%s %s\",%n",
+                        escape(System.getProperty("os.name")), escape(System.getProperty("os.arch"))));
+                writer.write(String.format(Locale.ROOT, "  \"processors\": %d,%n",
+                        Runtime.getRuntime().availableProcessors()));
+                writer.write(String.format(Locale.ROOT, "  \"scene\": %s,%n",
+                        scene == null ? "null" : "\"" + escape(scene.toString()) + "\""));
+                writer.write(String.format(Locale.ROOT, "  \"script\": %s,%n",
+                        script == null ? "null" : "\"" + escape(script.toString()) + "\""));
+                writer.write(String.format(Locale.ROOT, "  \"bodies\": %d,%n", bodies));
+                writer.write(String.format(Locale.ROOT, "  \"frames\": %d,%n", frames));
+                writer.write(String.format(Locale.ROOT, "  \"warmupFrames\": %d,%n", warmup));
+                writer.write(String.format(Locale.ROOT, "  \"seconds\": %.6f,%n", seconds));
+                writer.write(String.format(Locale.ROOT, "  \"framesPerSecond\": %.3f,%n", framesPerSecond));
+                writer.write(String.format(Locale.ROOT, "  \"nsPerStep\": %.3f,%n", nsPerStep));
+                writer.write(String.format(Locale.ROOT, "  \"allocatedBytes\": %d,%n", allocated));
+                writer.write(String.format(Locale.ROOT, "  \"allocationRateMBps\": %.3f,%n", allocationRate));
+                writer.write(String.format(Locale.ROOT, "  \"gcCount\": %d,%n", gcCount));
+                writer.write(String.format(Locale.ROOT, "  \"gcMillis\": %d%n", gcMillis));
+                writer.write("}\n");
+            }
+            System.out.println("結果を " + json + " に書き出しました");
+        }
+    }
+
+    private static String escape(String text) {
+        return text.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    public static void main(String[] args) throws IOException {
+        new BenchmarkRunner(args).benchmark();
+    }
+}
@@ -0,0 +1,50 @@
+package report;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * 1フレームを固定長 52 バイトのリトルエンディアンで書く。
+ * frame(int), x, y, angle, vx, vy, angularVelocity(double × 6)。
+ */
+public class BinaryTrajectorySink implements TrajectorySink {
+    public static final int RECORD_BYTES = Integer.BYTES + 6 * Double.BYTES;
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer;
+
+    public BinaryTrajectorySink(WritableByteChannel channel, int bufferSize) {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocateDirect(Math.max(bufferSize, RECORD_BYTES)).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Override
+    public void write(int frame, Box box) throws IOException {
+        if (buffer.remaining() < RECORD_BYTES) {
+            flush();
+        }
+        buffer.putInt(frame)
+                .putDouble(box.getX())
+                .putDouble(box.getY())
+                .putDouble(box.getAngle())
+                .putDouble(box.getVx())
+                .putDouble(box.getVy())
+                .putDouble(box.getAngularVelocity());
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        channel.close();
+    }
+}
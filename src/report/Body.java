@@ -0,0 +1,56 @@
+package report;
+
+import java.awt.Graphics;
+
+/**
+ * シミュレーションで動かす物体の共通インターフェース。
+ * キーフレームのパラメータは ParamType 単位で読み書きし、対応していない種類は hasParameter で判別する。
+ */
+public interface Body extends Integrator.Target {
+    double getX();
+
+    double getY();
+
+    double getVx();
+
+    double getVy();
+
+    void setXY(double x, double y);
+
+    void setVxVy(double vx, double vy);
+
+    Integrator getIntegrator();
+
+    void setIntegrator(Integrator integrator);
+
+    /**
+     * 1フレーム分進める。
+     */
+    void next();
+
+    /**
+     * 初期位置・初速度に戻す。
+     */
+    void goHome();
+
+    void draw(Graphics graphics);
+
+    boolean hasParameter(KeyFrameData.ParamType type);
+
+    double getParameter(KeyFrameData.ParamType type);
+
+    void setParameter(KeyFrameData.ParamType type, double value);
+
+    /**
+     * 再生中の状態としてパラメータを書く。setParameter と違い、goHome で戻る初期値は変えない。
+     */
+    default void setStateParameter(KeyFrameData.ParamType type, double value) {
+        setParameter(type, value);
+    }
+
+    /**
+     * 次の next() で物理を解かずにこの値へ移す(キーフレームで直接動かす再生)。
+     * 1回の next() で消えるので、フレームごとに設定し直す。
+     */
+    void setKinematicTarget(KeyFrameData.ParamType type, double value);
+}
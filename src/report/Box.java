@@ -10,18 +10,12 @@ import javax.swing.JPanel;
 /**
  * 長方形の剛体を模したクラス。位置・速度、角度や角速度も持つ。
  */
-public class Box {
+public class Box extends AbstractBody {
     private double width = 40.0;
     private double height = 40.0;
 
-    private double x = 0.0;
-    private double y = 0.0;
-
-    private double vx = 16.0;
-    private double vy = -30.0;
-
-    private double initialVx = vx;
-    private double initialVy = vy;
+    private double initialVx;
+    private double initialVy;
 
     private double angle = 30.0;
     private double initialAngle = angle;
@@ -29,8 +23,6 @@ public class Box {
     private double angularVelocity = 0.1;
     private double initialAngularVelocity = angularVelocity;
 
-    private Color color = Color.BLUE;
-
     private double g = 0.3;
     private double mass = 1;
     private double restitution = 0.999;
@@ -38,14 +30,46 @@ public class Box {
     private double linearDamping = 0.99;
     private double angularDamping = 0.9;
 
-    private JPanel panel;
     private double timeScale = 1.0;
     private static final double BASE_INTERVAL = 33.0;
 
+    private double linearDampingStep = linearDamping;
+    private double angularDampingStep = angularDamping;
+
+    private static final int WALL_LEFT = 0;
+    private static final int WALL_RIGHT = 1;
+    private static final int WALL_TOP = 2;
+    private static final int WALL_BOTTOM = 3;
+
+    private final ContactSolver contactSolver = new ContactSolver();
+    private final double[] solverQ = new double[3];
+    private final double[] solverV = new double[3];
+
+    private static final int OBSTACLE_KEY_BASE = 16;
+    /** 障害物1つあたりの接触キーの数(Box の頂点4つと障害物の端点)。 */
+    private static final int OBSTACLE_KEY_STRIDE = 4 + Obstacle.MAX_ENDPOINTS;
+    private ObstacleBvh obstacles;
+    private final ObstacleBvh.Hits obstacleHits = new ObstacleBvh.Hits();
+    private final double[] contactScratch = new double[3];
+    private double pushPositiveX;
+    private double pushNegativeX;
+    private double pushPositiveY;
+    private double pushNegativeY;
+
+    private int maxSubSteps = AnimationConfig.MAX_SUBSTEPS;
+    private int lastContactCount = 0;
+    private boolean resting = false;
+    private int lastSubSteps = 1;
+    private long totalSubSteps = 0;
+    private long totalFrames = 0;
+
     public static class BoxState {
         public double x, y, vx, vy, angle, angularVelocity;
         public double width, height;
         public double mass, restitution, friction, linearDamping, angularDamping, g;
+        public int contactCount;
+        public boolean resting;
+        public double[] contactImpulses;
 
         public BoxState(Box box) {
             this.x = box.x;
@@ -62,11 +86,48 @@ public class Box {
             this.linearDamping = box.linearDamping;
             this.angularDamping = box.angularDamping;
             this.g = box.g;
+            this.contactCount = box.lastContactCount;
+            this.resting = box.resting;
+            this.contactImpulses = box.contactSolver.exportCache();
+        }
+
+        public double getParameter(KeyFrameData.ParamType type) {
+            switch (type) {
+                case X:
+                    return x;
+                case Y:
+                    return y;
+                case VX:
+                    return vx;
+                case VY:
+                    return vy;
+                case ANGLE:
+                    return angle;
+                case ANGULAR_VELOCITY:
+                    return angularVelocity;
+                case WIDTH:
+                    return width;
+                case HEIGHT:
+                    return height;
+                case MASS:
+                    return mass;
+                case RESTITUTION:
+                    return restitution;
+                case FRICTION:
+                    return friction;
+                case LINEAR_DAMPING:
+                    return linearDamping;
+                case ANGULAR_DAMPING:
+                    return angularDamping;
+                case GRAVITY:
+                default:
+                    return g;
+            }
         }
     }
 
     public Box(JPanel panel) {
-        this.panel = panel;
+        super(panel, 16.0, -30.0, Color.BLUE);
         this.initialVx = this.vx;
         this.initialVy = this.vy;
         this.initialAngle = this.angle;
@@ -74,18 +135,15 @@ public class Box {
     }
 
     public Box(double width, double height, double x, double y, double vx, double vy, Color color, JPanel panel) {
+        super(panel, vx, vy, color);
         this.width = width;
         this.height = height;
         this.x = x;
         this.y = y;
-        this.vx = vx;
-        this.vy = vy;
         this.initialVx = vx;
         this.initialVy = vy;
         this.initialAngle = this.angle;
         this.initialAngularVelocity = this.angularVelocity;
-        this.color = color;
-        this.panel = panel;
     }
 
     public double getWidth() {
@@ -96,22 +154,6 @@ public class Box {
         return height;
     }
 
-    public double getX() {
-        return x;
-    }
-
-    public double getY() {
-        return y;
-    }
-
-    public double getVx() {
-        return vx;
-    }
-
-    public double getVy() {
-        return vy;
-    }
-
     public double getAngle() {
         return angle;
     }
@@ -128,32 +170,6 @@ public class Box {
         this.height = height;
     }
 
-    public void setX(double x) {
-        this.x = x;
-    }
-
-    public void setY(double y) {
-        this.y = y;
-    }
-
-    public void setXY(double x, double y) {
-        this.x = x;
-        this.y = y;
-    }
-
-    public void setVx(double vx) {
-        this.vx = vx;
-    }
-
-    public void setVy(double vy) {
-        this.vy = vy;
-    }
-
-    public void setVxVy(double vx, double vy) {
-        this.vx = vx;
-        this.vy = vy;
-    }
-
     public void setAngle(double angle) {
         this.angle = angle;
         this.initialAngle = angle;
@@ -172,10 +188,6 @@ public class Box {
         return g;
     }
 
-    public void setColor(Color color) {
-        this.color = color;
-    }
-
     public double getMass() {
         return mass;
     }
@@ -220,7 +232,337 @@ public class Box {
         this.timeScale = intervalMs / BASE_INTERVAL;
     }
 
-    private double getInertia() {
+    @Override
+    public int getDegreesOfFreedom() {
+        return 3;
+    }
+
+    @Override
+    public void readState(double[] q, double[] v) {
+        q[0] = x;
+        q[1] = y;
+        q[2] = angle;
+        v[0] = vx;
+        v[1] = vy;
+        v[2] = angularVelocity;
+    }
+
+    @Override
+    public void writeState(double[] q, double[] v) {
+        x = q[0];
+        y = q[1];
+        angle = q[2];
+        vx = v[0];
+        vy = v[1];
+        angularVelocity = v[2];
+    }
+
+    /**
+     * 重力のみ。静止接触での重力の打ち消しは ContactSolver に任せる。
+     */
+    @Override
+    public void computeAcceleration(double[] q, double[] v, double[] a) {
+        a[0] = 0.0;
+        a[1] = g;
+        a[2] = 0.0;
+    }
+
+    /**
+     * next() が決めたサブステップ数に合わせて配分した減衰率を掛ける。
+     */
+    @Override
+    public void applyDamping(double[] v, double h) {
+        v[0] *= linearDampingStep;
+        v[1] *= linearDampingStep;
+        v[2] *= angularDampingStep;
+    }
+
+    /**
+     * 配列の先頭 count 個の Box をまとめて1フレーム進める。
+     */
+    public static void stepAll(Box[] boxes, int count) {
+        for (int i = 0; i < count; i++) {
+            boxes[i].next();
+        }
+    }
+
+    @Override
+    public boolean hasParameter(KeyFrameData.ParamType type) {
+        return true;
+    }
+
+    @Override
+    public double getParameter(KeyFrameData.ParamType type) {
+        switch (type) {
+            case X:
+                return x;
+            case Y:
+                return y;
+            case VX:
+                return vx;
+            case VY:
+                return vy;
+            case ANGLE:
+                return angle;
+            case ANGULAR_VELOCITY:
+                return angularVelocity;
+            case WIDTH:
+                return width;
+            case HEIGHT:
+                return height;
+            case MASS:
+                return mass;
+            case RESTITUTION:
+                return restitution;
+            case FRICTION:
+                return friction;
+            case LINEAR_DAMPING:
+                return linearDamping;
+            case ANGULAR_DAMPING:
+                return angularDamping;
+            case GRAVITY:
+            default:
+                return g;
+        }
+    }
+
+    /**
+     * 角度と角速度は setAngle / setAngularVelocity と違い、初期値を変えずに今の値だけを書く。
+     */
+    @Override
+    public void setStateParameter(KeyFrameData.ParamType type, double value) {
+        switch (type) {
+            case ANGLE:
+                angle = value;
+                break;
+            case ANGULAR_VELOCITY:
+                angularVelocity = value;
+                break;
+            default:
+                setParameter(type, value);
+                break;
+        }
+    }
+
+    @Override
+    public void setParameter(KeyFrameData.ParamType type, double value) {
+        switch (type) {
+            case X:
+                setX(value);
+                break;
+            case Y:
+                setY(value);
+                break;
+            case VX:
+                setVx(value);
+                break;
+            case VY:
+                setVy(value);
+                break;
+            case ANGLE:
+                setAngle(value);
+                break;
+            case ANGULAR_VELOCITY:
+                setAngularVelocity(value);
+                break;
+            case WIDTH:
+                setWidth(value);
+                break;
+            case HEIGHT:
+                setHeight(value);
+                break;
+            case MASS:
+                setMass(value);
+                break;
+            case RESTITUTION:
+                setRestitution(value);
+                break;
+            case FRICTION:
+                setFriction(value);
+                break;
+            case LINEAR_DAMPING:
+                setLinearDamping(value);
+                break;
+            case ANGULAR_DAMPING:
+                setAngularDamping(value);
+                break;
+            case GRAVITY:
+                setG(value);
+                break;
+        }
+    }
+
+    /**
+     * 衝突判定に使う静的な障害物。null なら壁だけ。
+     */
+    public void setObstacles(ObstacleBvh obstacles) {
+        this.obstacles = obstacles;
+        contactSolver.clearCache();
+    }
+
+    public ObstacleBvh getObstacles() {
+        return obstacles;
+    }
+
+    public ContactSolver getContactSolver() {
+        return contactSolver;
+    }
+
+    public void setMaxSubSteps(int maxSubSteps) {
+        this.maxSubSteps = Math.max(1, maxSubSteps);
+    }
+
+    public int getMaxSubSteps() {
+        return maxSubSteps;
+    }
+
+    /**
+     * 床の上で止まっているとみなしているか。
+     */
+    public boolean isResting() {
+        return resting;
+    }
+
+    /**
+     * 直前のサブステップで解いた接触の数。
+     */
+    public int getLastContactCount() {
+        return lastContactCount;
+    }
+
+    /**
+     * 直前の next() で使ったサブステップ数。
+     */
+    public int getLastSubStepCount() {
+        return lastSubSteps;
+    }
+
+    /**
+     * resetSubStepStats() 以降の1フレームあたり平均サブステップ数。
+     */
+    public double getAverageSubStepCount() {
+        return totalFrames == 0 ? 0.0 : (double) totalSubSteps / totalFrames;
+    }
+
+    public void resetSubStepStats() {
+        totalSubSteps = 0;
+        totalFrames = 0;
+    }
+
+    /**
+     * サブステップの前後の頂点を囲む矩形で BVH に問い合わせ、近くの障害物とだけ接触判定をする。
+     * 頂点は移動前の位置も渡して通り抜けを判定し、障害物の端点は Box の辺に刺さっていないかを
+     * 移動前の姿勢 (prevX, prevY, prevAngle) と合わせて判定する。
+     */
+    private int addObstacleContacts(double[][] prevVertices, double prevX, double prevY, double prevAngle,
+            double[][] vertices, double margin) {
+        double minX = Double.MAX_VALUE;
+        double minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE;
+        double maxY = -Double.MAX_VALUE;
+        for (int i = 0; i < 4; i++) {
+            minX = Math.min(minX, Math.min(vertices[i][0], prevVertices[i][0]));
+            minY = Math.min(minY, Math.min(vertices[i][1], prevVertices[i][1]));
+            maxX = Math.max(maxX, Math.max(vertices[i][0], prevVertices[i][0]));
+            maxY = Math.max(maxY, Math.max(vertices[i][1], prevVertices[i][1]));
+        }
+
+        int found = obstacles.query(minX - margin, minY - margin, maxX + margin, maxY + margin, obstacleHits);
+        int contacts = 0;
+        for (int k = 0; k < found; k++) {
+            int index = obstacleHits.get(k);
+            Obstacle obstacle = obstacles.get(index);
+            boolean hit = false;
+            int keyBase = OBSTACLE_KEY_BASE + index * OBSTACLE_KEY_STRIDE;
+            for (int i = 0; i < 4; i++) {
+                double px = vertices[i][0];
+                double py = vertices[i][1];
+                if (obstacle.findContact(prevVertices[i][0], prevVertices[i][1], px, py, margin, contactScratch)) {
+                    hit |= addContact(keyBase + i, contactScratch[0], contactScratch[1], px, py, contactScratch[2]);
+                }
+            }
+            for (int e = 0; e < obstacle.getEndpointCount(); e++) {
+                double ex = obstacle.getEndpointX(e);
+                double ey = obstacle.getEndpointY(e);
+                if (findEndpointContact(ex, ey, prevX, prevY, prevAngle, margin, contactScratch)) {
+                    hit |= addContact(keyBase + 4 + e, contactScratch[0], contactScratch[1], ex, ey,
+                            contactScratch[2]);
+                }
+            }
+            contacts += hit ? 1 : 0;
+        }
+        return contacts;
+    }
+
+    /**
+     * 障害物の端点 (ex, ey) が Box の辺から margin 未満(内側なら負の距離)にあれば、
+     * 端点が入ってきた辺から Box を離す向きの法線と距離を out に書いて true を返す。
+     * 入ってきた辺は移動前の姿勢で端点が外側にあった辺とする。1回のサブステップで中心を越えるほど
+     * 刺さっても、反対側の辺から押し出さない。
+     */
+    private boolean findEndpointContact(double ex, double ey, double prevX, double prevY, double prevAngle,
+            double margin, double[] out) {
+        double cos = Math.cos(angle);
+        double sin = Math.sin(angle);
+        double rx = ex - x;
+        double ry = ey - y;
+        double localX = rx * cos + ry * sin;
+        double localY = -rx * sin + ry * cos;
+        if (Math.abs(localX) - width / 2.0 >= margin || Math.abs(localY) - height / 2.0 >= margin) {
+            return false;
+        }
+
+        double prevCos = Math.cos(prevAngle);
+        double prevSin = Math.sin(prevAngle);
+        double prevRx = ex - prevX;
+        double prevRy = ey - prevY;
+        double prevLocalX = prevRx * prevCos + prevRy * prevSin;
+        double prevLocalY = -prevRx * prevSin + prevRy * prevCos;
+
+        // 外向きの面の法線(Box の座標系)。端点から離れるように Box はその逆へ動かす。
+        double normalX;
+        double normalY;
+        if (Math.abs(prevLocalX) - width / 2.0 > Math.abs(prevLocalY) - height / 2.0) {
+            normalX = prevLocalX < 0 ? -1.0 : 1.0;
+            normalY = 0.0;
+            out[2] = normalX * localX - width / 2.0;
+        } else {
+            normalX = 0.0;
+            normalY = prevLocalY < 0 ? -1.0 : 1.0;
+            out[2] = normalY * localY - height / 2.0;
+        }
+        out[0] = -(normalX * cos - normalY * sin);
+        out[1] = -(normalX * sin + normalY * cos);
+        return true;
+    }
+
+    /**
+     * 接触点を登録し、めり込んでいれば押し戻し量を軸・向きごとの最大値として覚える。
+     * めり込んでいれば true を返す。
+     */
+    private boolean addContact(int key, double nx, double ny, double px, double py, double distance) {
+        contactSolver.addContact(key, nx, ny, px - x, py - y, Math.max(distance, 0.0));
+        if (distance >= 0) {
+            return false;
+        }
+
+        double depth = -distance;
+        double dx = nx * depth;
+        double dy = ny * depth;
+        if (dx > 0) {
+            pushPositiveX = Math.max(pushPositiveX, dx);
+        } else {
+            pushNegativeX = Math.max(pushNegativeX, -dx);
+        }
+        if (dy > 0) {
+            pushPositiveY = Math.max(pushPositiveY, dy);
+        } else {
+            pushNegativeY = Math.max(pushNegativeY, -dy);
+        }
+        return true;
+    }
+
+    double getInertia() {
         return (1.0 / 12.0) * mass * (width * width + height * height);
     }
 
@@ -248,6 +590,7 @@ public class Box {
         return vertices;
     }
 
+    @Override
     public void draw(Graphics graphics) {
         Graphics2D g2d = (Graphics2D) graphics;
         Color prevColor = g2d.getColor();
@@ -269,6 +612,7 @@ public class Box {
         g2d.setColor(prevColor);
     }
 
+    @Override
     public void goHome() {
         x = width / 2.0 + 10;
         y = panel.getHeight() - height / 2.0 - 10;
@@ -276,6 +620,23 @@ public class Box {
         vy = initialVy;
         angle = initialAngle;
         angularVelocity = initialAngularVelocity;
+        lastContactCount = 0;
+        resting = false;
+        contactSolver.clearCache();
+        clearKinematicTarget();
+    }
+
+    /**
+     * 先読み用の Box に、BoxState に含まれない設定(時間の刻み・サブステップ上限・障害物・積分器)を写す。
+     * 積分器はスクラッチ配列を持つので共有せず、同じ種類の別インスタンスを使う。
+     */
+    void copySettingsFrom(Box other) {
+        this.timeScale = other.timeScale;
+        this.maxSubSteps = other.maxSubSteps;
+        this.obstacles = other.obstacles;
+        if (integrator.getKind() != other.integrator.getKind()) {
+            this.integrator = other.integrator.getKind().create();
+        }
     }
 
     public BoxState saveState() {
@@ -297,209 +658,137 @@ public class Box {
         this.linearDamping = state.linearDamping;
         this.angularDamping = state.angularDamping;
         this.g = state.g;
+        this.lastContactCount = state.contactCount;
+        this.resting = state.resting;
+        this.contactSolver.importCache(state.contactImpulses);
     }
 
+    /**
+     * 1フレーム分進める。速度・角速度・直前フレームの接触数からサブステップ数を決め、
+     * その回数だけ細かく積分する。減衰はフレーム単位の値と一致するようにサブステップへ配分する。
+     */
+    @Override
     public void next() {
+        if (moveToKinematicTarget()) {
+            // キーで動かした回は接触も解かない。次に物理へ戻ったときに前の接触を引きずらないよう消す。
+            lastContactCount = 0;
+            lastSubSteps = 0;
+            resting = false;
+            contactSolver.clearCache();
+            totalFrames++;
+            return;
+        }
         int panelWidth = panel.getWidth();
         int panelHeight = panel.getHeight();
 
-        x = x + vx * timeScale;
-        y = y + vy * timeScale;
-        angle = angle + angularVelocity * timeScale;
+        int subSteps = computeSubSteps();
+        double h = timeScale / subSteps;
+        linearDampingStep = subSteps == 1 ? linearDamping : Math.pow(linearDamping, 1.0 / subSteps);
+        angularDampingStep = subSteps == 1 ? angularDamping : Math.pow(angularDamping, 1.0 / subSteps);
 
-        vx *= linearDamping;
-        vy *= linearDamping;
-        angularVelocity *= angularDamping;
+        int contacts = 0;
+        for (int i = 0; i < subSteps; i++) {
+            contacts += step(h, panelWidth, panelHeight);
+        }
 
-        double[][] vertices = getVertices();
+        lastContactCount = contacts;
+        lastSubSteps = subSteps;
+        totalSubSteps += subSteps;
+        totalFrames++;
+    }
 
-        boolean hitLeft = false;
-        for (int i = 0; i < 4; i++) {
-            if (vertices[i][0] < 0) {
-                hitLeft = true;
-                break;
-            }
+    /**
+     * 1フレームで進む距離(並進+回転による頂点の移動量)がしきい値を超えないようにサブステップ数を決める。
+     * 静止している箱は1、接触中で動いている箱は最低でも CONTACT_MIN_SUBSTEPS になる。
+     */
+    private int computeSubSteps() {
+        if (resting) {
+            return 1;
         }
-        if (hitLeft) {
-            double minX = Double.MAX_VALUE;
-            int contactIndex = 0;
-            for (int i = 0; i < 4; i++) {
-                if (vertices[i][0] < minX) {
-                    minX = vertices[i][0];
-                    contactIndex = i;
-                }
-            }
 
-            double rx = vertices[contactIndex][0] - x;
-            double ry = vertices[contactIndex][1] - y;
+        double radius = 0.5 * Math.sqrt(width * width + height * height);
+        double speed = Math.sqrt(vx * vx + vy * vy);
+        double travel = (speed + Math.abs(angularVelocity) * radius) * timeScale;
+        double maxTravel = Math.min(width, height) * AnimationConfig.SUBSTEP_MAX_TRAVEL_RATIO;
 
-            double contactVelocityX = vx + angularVelocity * ry;
-            double contactVelocityY = vy - angularVelocity * rx;
+        int subSteps = maxTravel > 0 ? (int) Math.ceil(travel / maxTravel) : 1;
+        if (lastContactCount > 0) {
+            subSteps = Math.max(subSteps, AnimationConfig.CONTACT_MIN_SUBSTEPS);
+        }
+        return Math.max(1, Math.min(subSteps, maxSubSteps));
+    }
 
-            if (contactVelocityX < 0) {
-                double normalImpulse = -(1.0 + restitution) * contactVelocityX;
-                double normalK = (1.0 / mass) + (ry * ry / getInertia());
-                double normalJ = normalImpulse / normalK;
+    /**
+     * サブステップ1回分の積分と衝突処理。戻り値はこのステップでめり込んだ壁・障害物の数。
+     * 壁や障害物に触れている頂点をすべて接触点として ContactSolver に渡し、速度を解いてから位置を押し戻す。
+     */
+    private int step(double h, int panelWidth, int panelHeight) {
+        boolean hasObstacles = obstacles != null && obstacles.size() > 0;
+        double[][] prevVertices = hasObstacles ? getVertices() : null;
+        double prevX = x;
+        double prevY = y;
+        double prevAngle = angle;
+        integrator.integrate(this, h);
 
-                double tangentialImpulse = -contactVelocityY * friction;
-                double tangentialK = (1.0 / mass) + (rx * rx / getInertia());
-                double tangentialJ = tangentialImpulse / tangentialK;
+        double[][] vertices = getVertices();
+        double margin = AnimationConfig.CONTACT_MARGIN;
 
-                vx += normalJ / mass;
-                vy += tangentialJ / mass;
-                angularVelocity -= (rx * tangentialJ - ry * normalJ) / getInertia();
-            }
+        pushPositiveX = 0.0;
+        pushNegativeX = 0.0;
+        pushPositiveY = 0.0;
+        pushNegativeY = 0.0;
+        int contacts = 0;
 
-            x = x - minX;
-        }
+        contactSolver.begin();
 
+        boolean hitLeft = false;
         boolean hitRight = false;
+        boolean hitTop = false;
+        boolean hitBottom = false;
         for (int i = 0; i < 4; i++) {
-            if (vertices[i][0] > panelWidth) {
-                hitRight = true;
-                break;
-            }
-        }
-        if (hitRight) {
-            double maxX = -Double.MAX_VALUE;
-            int contactIndex = 0;
-            for (int i = 0; i < 4; i++) {
-                if (vertices[i][0] > maxX) {
-                    maxX = vertices[i][0];
-                    contactIndex = i;
-                }
-            }
-
-            double rx = vertices[contactIndex][0] - x;
-            double ry = vertices[contactIndex][1] - y;
-
-            double vp_x = vx + angularVelocity * ry;
-            double vp_y = vy - angularVelocity * rx;
-
-            if (vp_x > 0) {
-                double impulseN = -(1.0 + restitution) * (-vp_x);
-                double K_normal = (1.0 / mass) + (ry * ry / getInertia());
-                double j_normal = impulseN / K_normal;
+            double px = vertices[i][0];
+            double py = vertices[i][1];
 
-                double impulseTangent = -vp_y * friction;
-                double K_tangent = (1.0 / mass) + (rx * rx / getInertia());
-                double j_tangent = impulseTangent / K_tangent;
-
-                vx -= j_normal / mass;
-                vy += j_tangent / mass;
-                angularVelocity -= (rx * j_tangent + ry * j_normal) / getInertia();
+            if (px < margin) {
+                hitLeft |= addContact(WALL_LEFT * 4 + i, 1.0, 0.0, px, py, px);
             }
-
-            x = x - (maxX - panelWidth);
-        }
-
-        boolean hitTop = false;
-        for (int i = 0; i < 4; i++) {
-            if (vertices[i][1] < 0) {
-                hitTop = true;
-                break;
+            if (px > panelWidth - margin) {
+                hitRight |= addContact(WALL_RIGHT * 4 + i, -1.0, 0.0, px, py, panelWidth - px);
             }
-        }
-        if (hitTop) {
-            double minY = Double.MAX_VALUE;
-            int contactIndex = 0;
-            for (int i = 0; i < 4; i++) {
-                if (vertices[i][1] < minY) {
-                    minY = vertices[i][1];
-                    contactIndex = i;
-                }
+            if (py < margin) {
+                hitTop |= addContact(WALL_TOP * 4 + i, 0.0, 1.0, px, py, py);
             }
-
-            double rx = vertices[contactIndex][0] - x;
-            double ry = vertices[contactIndex][1] - y;
-
-            double vp_x = vx + angularVelocity * ry;
-            double vp_y = vy - angularVelocity * rx;
-
-            if (vp_y < 0) {
-                double impulseN = -(1.0 + restitution) * vp_y;
-                double K_normal = (1.0 / mass) + (rx * rx / getInertia());
-                double j_normal = impulseN / K_normal;
-
-                double impulseTangent = -vp_x * friction;
-                double K_tangent = (1.0 / mass) + (ry * ry / getInertia());
-                double j_tangent = impulseTangent / K_tangent;
-
-                vx += j_tangent / mass;
-                vy += j_normal / mass;
-                angularVelocity -= (rx * j_normal - ry * j_tangent) / getInertia();
+            if (py > panelHeight - margin) {
+                hitBottom |= addContact(WALL_BOTTOM * 4 + i, 0.0, -1.0, px, py, panelHeight - py);
             }
-
-            y = y - minY;
         }
+        contacts += (hitLeft ? 1 : 0) + (hitRight ? 1 : 0) + (hitTop ? 1 : 0) + (hitBottom ? 1 : 0);
 
-        boolean hitBottom = false;
-        for (int i = 0; i < 4; i++) {
-            if (vertices[i][1] > panelHeight) {
-                hitBottom = true;
-                break;
-            }
+        if (hasObstacles) {
+            contacts += addObstacleContacts(prevVertices, prevX, prevY, prevAngle, vertices, margin);
         }
-        if (hitBottom) {
-            double maxY = -Double.MAX_VALUE;
-            int contactIndex = 0;
-            for (int i = 0; i < 4; i++) {
-                if (vertices[i][1] > maxY) {
-                    maxY = vertices[i][1];
-                    contactIndex = i;
-                }
-            }
-
-            double rx = vertices[contactIndex][0] - x;
-            double ry = vertices[contactIndex][1] - y;
-
-            double vp_x = vx + angularVelocity * ry;
-            double vp_y = vy - angularVelocity * rx;
-
-            if (vp_y > 0) {
-                double impulseN = -(1.0 + restitution) * (-vp_y);
-                double K_normal = (1.0 / mass) + (rx * rx / getInertia());
-                double j_normal = impulseN / K_normal;
 
-                double impulseTangent = -vp_x * friction;
-                double K_tangent = (1.0 / mass) + (ry * ry / getInertia());
-                double j_tangent = impulseTangent / K_tangent;
-
-                vx += j_tangent / mass;
-                vy -= j_normal / mass;
-                angularVelocity -= (rx * (-j_normal) - ry * j_tangent) / getInertia();
-            }
-
-            y = y - (maxY - panelHeight);
+        if (contactSolver.getContactCount() > 0) {
+            readState(solverQ, solverV);
+            contactSolver.solve(solverV, 1.0 / mass, 1.0 / getInertia(), restitution, friction, h);
+            writeState(solverQ, solverV);
         }
 
-        double velocityThreshold = 0.2;
-        double angularThreshold = 0.01;
+        x = x + pushPositiveX - pushNegativeX;
+        y = y + pushPositiveY - pushNegativeY;
 
         boolean onGround = false;
         for (int i = 0; i < 4; i++) {
-            if (Math.abs(vertices[i][1] - panelHeight) < 2) {
+            if (Math.abs(vertices[i][1] - panelHeight) < AnimationConfig.GROUND_CONTACT_TOLERANCE) {
                 onGround = true;
                 break;
             }
         }
 
-        boolean isStopped = false;
-        if (onGround) {
-            if (Math.abs(vx) < velocityThreshold && Math.abs(vy) < velocityThreshold) {
-                vx = 0;
-                vy = 0;
-                isStopped = true;
-            }
-
-            if (Math.abs(angularVelocity) < angularThreshold) {
-                angularVelocity = 0;
-            }
-        }
-
-        if (!isStopped) {
-            vy = vy + g * timeScale;
-        }
-
+        resting = onGround
+                && Math.abs(vx) < AnimationConfig.VELOCITY_THRESHOLD
+                && Math.abs(vy) < AnimationConfig.VELOCITY_THRESHOLD
+                && Math.abs(angularVelocity) < AnimationConfig.ANGULAR_VELOCITY_THRESHOLD;
+        return contacts;
     }
 }
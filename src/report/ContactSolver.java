@@ -0,0 +1,282 @@
+package report;
+
+import java.util.Arrays;
+
+/**
+ * 逐次インパルス法による接触ソルバー。
+ * 接触点ごとの累積インパルスを特徴キー(どの壁・どの頂点か)で覚えておき、
+ * 次のステップ(次のフレームを含む)で初期値として使う(ウォームスタート)。
+ * 静止接触では前回のインパルスがほぼそのまま解になるので、数回の反復で収束する。
+ */
+public class ContactSolver {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private int count = 0;
+    private int[] keys = new int[INITIAL_CAPACITY];
+    private double[] normalX = new double[INITIAL_CAPACITY];
+    private double[] normalY = new double[INITIAL_CAPACITY];
+    private double[] armX = new double[INITIAL_CAPACITY];
+    private double[] armY = new double[INITIAL_CAPACITY];
+    private double[] separation = new double[INITIAL_CAPACITY];
+    private double[] normalMass = new double[INITIAL_CAPACITY];
+    private double[] tangentMass = new double[INITIAL_CAPACITY];
+    private double[] bias = new double[INITIAL_CAPACITY];
+    private double[] normalImpulse = new double[INITIAL_CAPACITY];
+    private double[] tangentImpulse = new double[INITIAL_CAPACITY];
+
+    private int cacheCount = 0;
+    private int[] cacheKeys = new int[INITIAL_CAPACITY];
+    private double[] cacheNormal = new double[INITIAL_CAPACITY];
+    private double[] cacheTangent = new double[INITIAL_CAPACITY];
+
+    private int maxIterations = AnimationConfig.SOLVER_MAX_ITERATIONS;
+    private double tolerance = AnimationConfig.SOLVER_TOLERANCE;
+
+    private int lastIterations = 0;
+    private double lastResidual = 0.0;
+    private boolean lastConverged = true;
+    private long totalSolves = 0;
+    private long totalIterations = 0;
+    private long convergedSolves = 0;
+
+    /**
+     * 1ステップ分の接触収集を始める。
+     */
+    public void begin() {
+        count = 0;
+    }
+
+    /**
+     * 接触点を追加する。n は物体を押し出す向きの単位法線、r は重心から接触点へのベクトル。
+     * gap はまだ離れている距離(めり込んでいれば0)。離れている点は、次のステップで
+     * その距離を詰める速度までは近づいてよい制約になる。
+     */
+    public void addContact(int key, double nx, double ny, double rx, double ry, double gap) {
+        if (count == keys.length) {
+            grow();
+        }
+        keys[count] = key;
+        normalX[count] = nx;
+        normalY[count] = ny;
+        armX[count] = rx;
+        armY[count] = ry;
+        separation[count] = gap;
+        count++;
+    }
+
+    public int getContactCount() {
+        return count;
+    }
+
+    /**
+     * v = (vx, vy, angularVelocity) に接触インパルスを加える。
+     */
+    public void solve(double[] v, double invMass, double invInertia, double restitution, double friction,
+            double h) {
+        for (int i = 0; i < count; i++) {
+            double nx = normalX[i];
+            double ny = normalY[i];
+            double tx = -ny;
+            double ty = nx;
+            double rn = armX[i] * ny - armY[i] * nx;
+            double rt = armX[i] * ty - armY[i] * tx;
+            normalMass[i] = 1.0 / (invMass + invInertia * rn * rn);
+            tangentMass[i] = 1.0 / (invMass + invInertia * rt * rt);
+
+            double vn = relativeVelocityX(v, i) * nx + relativeVelocityY(v, i) * ny;
+            if (separation[i] > 0) {
+                bias[i] = -separation[i] / h;
+            } else if (vn < -AnimationConfig.RESTITUTION_VELOCITY_THRESHOLD) {
+                bias[i] = -restitution * vn;
+            } else {
+                bias[i] = 0.0;
+            }
+
+            normalImpulse[i] = 0.0;
+            tangentImpulse[i] = 0.0;
+            for (int c = 0; c < cacheCount; c++) {
+                if (cacheKeys[c] == keys[i]) {
+                    normalImpulse[i] = cacheNormal[c];
+                    tangentImpulse[i] = cacheTangent[c];
+                    break;
+                }
+            }
+            applyImpulse(v, i, normalImpulse[i] * nx + tangentImpulse[i] * tx,
+                    normalImpulse[i] * ny + tangentImpulse[i] * ty, invMass, invInertia);
+        }
+
+        int iterations = 0;
+        double residual = 0.0;
+        boolean converged = count == 0;
+        while (!converged && iterations < maxIterations) {
+            residual = 0.0;
+            for (int i = 0; i < count; i++) {
+                double nx = normalX[i];
+                double ny = normalY[i];
+                double tx = -ny;
+                double ty = nx;
+
+                double vn = relativeVelocityX(v, i) * nx + relativeVelocityY(v, i) * ny;
+                double newNormal = Math.max(normalImpulse[i] + normalMass[i] * (bias[i] - vn), 0.0);
+                double dn = newNormal - normalImpulse[i];
+                normalImpulse[i] = newNormal;
+                applyImpulse(v, i, dn * nx, dn * ny, invMass, invInertia);
+
+                double vt = relativeVelocityX(v, i) * tx + relativeVelocityY(v, i) * ty;
+                double maxFriction = friction * normalImpulse[i];
+                double newTangent = tangentImpulse[i] - tangentMass[i] * vt;
+                newTangent = Math.max(-maxFriction, Math.min(newTangent, maxFriction));
+                double dt = newTangent - tangentImpulse[i];
+                tangentImpulse[i] = newTangent;
+                applyImpulse(v, i, dt * tx, dt * ty, invMass, invInertia);
+
+                residual = Math.max(residual, Math.max(Math.abs(dn), Math.abs(dt)));
+            }
+            iterations++;
+            converged = residual <= tolerance;
+        }
+
+        storeCache();
+
+        lastIterations = iterations;
+        lastResidual = residual;
+        lastConverged = converged;
+        if (count > 0) {
+            totalSolves++;
+            totalIterations += iterations;
+            if (converged) {
+                convergedSolves++;
+            }
+        }
+    }
+
+    private double relativeVelocityX(double[] v, int i) {
+        return v[0] - v[2] * armY[i];
+    }
+
+    private double relativeVelocityY(double[] v, int i) {
+        return v[1] + v[2] * armX[i];
+    }
+
+    private void applyImpulse(double[] v, int i, double px, double py, double invMass, double invInertia) {
+        v[0] += px * invMass;
+        v[1] += py * invMass;
+        v[2] += (armX[i] * py - armY[i] * px) * invInertia;
+    }
+
+    private void storeCache() {
+        if (cacheKeys.length < count) {
+            cacheKeys = new int[keys.length];
+            cacheNormal = new double[keys.length];
+            cacheTangent = new double[keys.length];
+        }
+        System.arraycopy(keys, 0, cacheKeys, 0, count);
+        System.arraycopy(normalImpulse, 0, cacheNormal, 0, count);
+        System.arraycopy(tangentImpulse, 0, cacheTangent, 0, count);
+        cacheCount = count;
+    }
+
+    private void grow() {
+        int capacity = keys.length * 2;
+        keys = Arrays.copyOf(keys, capacity);
+        normalX = Arrays.copyOf(normalX, capacity);
+        normalY = Arrays.copyOf(normalY, capacity);
+        armX = Arrays.copyOf(armX, capacity);
+        armY = Arrays.copyOf(armY, capacity);
+        separation = Arrays.copyOf(separation, capacity);
+        normalMass = Arrays.copyOf(normalMass, capacity);
+        tangentMass = Arrays.copyOf(tangentMass, capacity);
+        bias = Arrays.copyOf(bias, capacity);
+        normalImpulse = Arrays.copyOf(normalImpulse, capacity);
+        tangentImpulse = Arrays.copyOf(tangentImpulse, capacity);
+    }
+
+    /**
+     * ウォームスタート用のキャッシュを hash に畳み込む。exportCache と違い配列を作らない。
+     */
+    long mixCache(long hash) {
+        hash = StateChecksum.mix(hash, cacheCount);
+        for (int c = 0; c < cacheCount; c++) {
+            hash = StateChecksum.mix(hash, cacheKeys[c]);
+            hash = StateChecksum.mix(hash, Double.doubleToLongBits(cacheNormal[c]));
+            hash = StateChecksum.mix(hash, Double.doubleToLongBits(cacheTangent[c]));
+        }
+        return hash;
+    }
+
+    /**
+     * ウォームスタート用のキャッシュを (key, 法線, 接線) の並びで書き出す。
+     */
+    public double[] exportCache() {
+        double[] data = new double[cacheCount * 3];
+        for (int c = 0; c < cacheCount; c++) {
+            data[c * 3] = cacheKeys[c];
+            data[c * 3 + 1] = cacheNormal[c];
+            data[c * 3 + 2] = cacheTangent[c];
+        }
+        return data;
+    }
+
+    public void importCache(double[] data) {
+        int n = data == null ? 0 : data.length / 3;
+        if (cacheKeys.length < n) {
+            cacheKeys = new int[n];
+            cacheNormal = new double[n];
+            cacheTangent = new double[n];
+        }
+        for (int c = 0; c < n; c++) {
+            cacheKeys[c] = (int) data[c * 3];
+            cacheNormal[c] = data[c * 3 + 1];
+            cacheTangent[c] = data[c * 3 + 2];
+        }
+        cacheCount = n;
+    }
+
+    public void clearCache() {
+        cacheCount = 0;
+    }
+
+    public void setMaxIterations(int maxIterations) {
+        this.maxIterations = Math.max(1, maxIterations);
+    }
+
+    public int getMaxIterations() {
+        return maxIterations;
+    }
+
+    public void setTolerance(double tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    public int getLastIterations() {
+        return lastIterations;
+    }
+
+    /**
+     * 最後の反復でのインパルス変化量の最大値。
+     */
+    public double getLastResidual() {
+        return lastResidual;
+    }
+
+    public boolean isLastConverged() {
+        return lastConverged;
+    }
+
+    public double getAverageIterations() {
+        return totalSolves == 0 ? 0.0 : (double) totalIterations / totalSolves;
+    }
+
+    /**
+     * 接触があったステップのうち、反復上限までに収束した割合。
+     */
+    public double getConvergenceRate() {
+        return totalSolves == 0 ? 1.0 : (double) convergedSolves / totalSolves;
+    }
+
+    public void resetStats() {
+        totalSolves = 0;
+        totalIterations = 0;
+        convergedSolves = 0;
+    }
+}
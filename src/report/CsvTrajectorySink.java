@@ -0,0 +1,59 @@
+package report;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * frame,x,y,angle,vx,vy,angularVelocity の CSV をチャネルへ書く。
+ * 行はバッファに ASCII で直接詰め、満杯になったときだけ書き出す。
+ */
+public class CsvTrajectorySink implements TrajectorySink {
+    private static final String HEADER = "frame,x,y,angle,vx,vy,angularVelocity\n";
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer;
+    private final StringBuilder line = new StringBuilder(160);
+
+    public CsvTrajectorySink(WritableByteChannel channel, int bufferSize) throws IOException {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocateDirect(bufferSize);
+        append(HEADER);
+    }
+
+    @Override
+    public void write(int frame, Box box) throws IOException {
+        line.setLength(0);
+        line.append(frame).append(',')
+                .append(box.getX()).append(',')
+                .append(box.getY()).append(',')
+                .append(box.getAngle()).append(',')
+                .append(box.getVx()).append(',')
+                .append(box.getVy()).append(',')
+                .append(box.getAngularVelocity()).append('\n');
+        append(line);
+    }
+
+    private void append(CharSequence text) throws IOException {
+        if (buffer.remaining() < text.length()) {
+            flush();
+        }
+        for (int i = 0; i < text.length(); i++) {
+            buffer.put((byte) text.charAt(i));
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        channel.close();
+    }
+}
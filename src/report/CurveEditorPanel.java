@@ -0,0 +1,365 @@
+package report;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.*;
+import java.awt.geom.Path2D;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 1つの物体の1つの ParamType について、キーフレームの補間値とシミュレーションの実際の値を
+ * グラフで並べて描くパネル。
+ * 1ピクセルに複数フレームが入るときは MinMaxPyramid から列ごとの最小値・最大値を読んで縦線で描くので、
+ * 100万フレームでも描画量はパネルの幅で決まる。
+ * ホイールで拡大縮小、ドラッグで左右に移動、ダブルクリックで全体表示に戻る。
+ */
+public class CurveEditorPanel extends JPanel {
+    private static final long serialVersionUID = 1L;
+
+    private static final int AXIS_WIDTH = 70;
+    private static final int MARGIN = 16;
+    private static final int KEYFRAME_SIZE = AnimationConfig.TIMELINE_KEYFRAME_SIZE;
+
+    private final Scene scene;
+    private final ParameterHistory history;
+    private int objectId = 0;
+    private KeyFrameData.ParamType type = KeyFrameData.ParamType.X;
+    private int currentFrame = 0;
+    private int maxFrame = AnimationConfig.MAX_FRAME;
+
+    /** 補間値。キーフレームが編集されたら次の描画で作り直す。 */
+    private final MinMaxPyramid interpolated = new MinMaxPyramid(AnimationConfig.MAX_FRAME + 1);
+    private boolean interpolatedDirty = true;
+
+    /** 左端のフレームと1ピクセルあたりのフレーム数。fitAll のあいだはパネルの幅に合わせる。 */
+    private double viewStart = 0;
+    private double framesPerPixel = 1;
+    private boolean fitAll = true;
+    private int dragX;
+    private double dragViewStart;
+
+    private final double[] range = new double[2];
+
+    private final KeyFrameData.EditListener editListener = new KeyFrameData.EditListener() {
+            @Override
+            public void keyFrameRegistered(KeyFrameData.ParamType editedType, int frame, double value) {
+                markDirty(editedType);
+            }
+
+            @Override
+            public void keyFrameDeleted(KeyFrameData.ParamType editedType, int frame) {
+                markDirty(editedType);
+            }
+
+            @Override
+            public void keyFramesCleared() {
+                markDirty(type);
+            }
+        };
+
+    public CurveEditorPanel(Scene scene, ParameterHistory history) {
+        this.scene = scene;
+        this.history = history;
+        setBackground(UIStyles.TIMELINE_BG);
+        scene.getObject(objectId).getKeyFrameData().addEditListener(editListener);
+
+        MouseAdapter mouse = new MouseAdapter() {
+            @Override
+            public void mousePressed(MouseEvent e) {
+                dragX = e.getX();
+                dragViewStart = viewStart;
+            }
+
+            @Override
+            public void mouseDragged(MouseEvent e) {
+                fitAll = false;
+                viewStart = clampStart(dragViewStart - (e.getX() - dragX) * framesPerPixel);
+                repaint();
+            }
+
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                if (e.getClickCount() == 2) {
+                    fitAll = true;
+                    repaint();
+                }
+            }
+
+            @Override
+            public void mouseWheelMoved(MouseWheelEvent e) {
+                zoomAround(Math.pow(AnimationConfig.TIMELINE_ZOOM_STEP, e.getPreciseWheelRotation()), e.getX());
+            }
+        };
+        addMouseListener(mouse);
+        addMouseMotionListener(mouse);
+        addMouseWheelListener(mouse);
+    }
+
+    /**
+     * 表示する物体とパラメータを変える。
+     */
+    public void setTarget(int objectId, KeyFrameData.ParamType type) {
+        scene.getObject(this.objectId).getKeyFrameData().removeEditListener(editListener);
+        this.objectId = objectId;
+        this.type = type;
+        scene.getObject(objectId).getKeyFrameData().addEditListener(editListener);
+        interpolatedDirty = true;
+        repaint();
+    }
+
+    public int getObjectId() {
+        return objectId;
+    }
+
+    public KeyFrameData.ParamType getParamType() {
+        return type;
+    }
+
+    public void setCurrentFrame(int frame) {
+        currentFrame = frame;
+        repaint();
+    }
+
+    public void setMaxFrame(int maxFrame) {
+        this.maxFrame = maxFrame;
+        if (interpolated.length() != maxFrame + 1) {
+            interpolated.resize(maxFrame + 1);
+        }
+        interpolatedDirty = true;
+        repaint();
+    }
+
+    private void markDirty(KeyFrameData.ParamType editedType) {
+        if (editedType == type) {
+            interpolatedDirty = true;
+            repaint();
+        }
+    }
+
+    private void zoomAround(double factor, int anchorX) {
+        int plotWidth = Math.max(1, getWidth() - AXIS_WIDTH - MARGIN);
+        double anchorFrame = viewStart + (anchorX - AXIS_WIDTH) * framesPerPixel;
+        double maxFramesPerPixel = (double) maxFrame / plotWidth;
+        double minFramesPerPixel = 1.0 / AnimationConfig.TIMELINE_FRAME_WIDTH;
+        framesPerPixel = Math.max(minFramesPerPixel, Math.min(maxFramesPerPixel, framesPerPixel * factor));
+        fitAll = framesPerPixel >= maxFramesPerPixel;
+        viewStart = clampStart(anchorFrame - (anchorX - AXIS_WIDTH) * framesPerPixel);
+        repaint();
+    }
+
+    private double clampStart(double start) {
+        int plotWidth = Math.max(1, getWidth() - AXIS_WIDTH - MARGIN);
+        return Math.max(0, Math.min(start, maxFrame - plotWidth * framesPerPixel));
+    }
+
+    private double frameToX(double frame) {
+        return AXIS_WIDTH + (frame - viewStart) / framesPerPixel;
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        super.paintComponent(g);
+        Graphics2D g2d = (Graphics2D) g;
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+
+        int plotWidth = Math.max(1, getWidth() - AXIS_WIDTH - MARGIN);
+        int plotTop = MARGIN + 20;
+        int plotHeight = Math.max(1, getHeight() - plotTop - MARGIN);
+        if (fitAll) {
+            viewStart = 0;
+            framesPerPixel = Math.max((double) maxFrame / plotWidth, 1.0 / AnimationConfig.TIMELINE_FRAME_WIDTH);
+        }
+
+        KeyFrameData keyFrameData = scene.getObject(objectId).getKeyFrameData();
+        if (interpolatedDirty) {
+            keyFrameData.fillValues(type, interpolated.samples());
+            interpolated.rebuild();
+            interpolatedDirty = false;
+        }
+        MinMaxPyramid simulated = history.getSamples();
+        boolean showSimulated = history.getBody() == scene.getObject(objectId).getBody()
+                && history.getType() == type;
+
+        // 縦軸は見えている範囲の両方の曲線が収まるように合わせる。
+        int firstFrame = (int) Math.floor(viewStart);
+        int lastFrame = Math.min(maxFrame, (int) Math.ceil(viewStart + plotWidth * framesPerPixel));
+        double low = Double.POSITIVE_INFINITY;
+        double high = Double.NEGATIVE_INFINITY;
+        if (interpolated.query(firstFrame, lastFrame, range)) {
+            low = range[0];
+            high = range[1];
+        }
+        if (showSimulated && simulated.query(firstFrame, lastFrame, range)) {
+            low = Math.min(low, range[0]);
+            high = Math.max(high, range[1]);
+        }
+        if (!(low <= high)) {
+            low = 0;
+            high = 1;
+        }
+        if (high - low < 1e-9) {
+            low -= 1;
+            high += 1;
+        }
+        double padding = (high - low) * 0.05;
+        low -= padding;
+        high += padding;
+        double scale = plotHeight / (high - low);
+        double bottom = plotTop + plotHeight;
+
+        drawAxes(g2d, plotTop, plotHeight, plotWidth, low, high);
+
+        Shape oldClip = g2d.getClip();
+        g2d.clipRect(AXIS_WIDTH, plotTop, plotWidth, plotHeight);
+        // 列ごとの縦線はピクセルに揃っているので、アンチエイリアスをかけずに1ピクセル幅で描く。
+        boolean columns = framesPerPixel > 1;
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                columns ? RenderingHints.VALUE_ANTIALIAS_OFF : RenderingHints.VALUE_ANTIALIAS_ON);
+        g2d.setStroke(new BasicStroke(columns ? 1f : 1.5f));
+        g2d.setColor(UIStyles.CURVE_INTERPOLATED);
+        g2d.draw(buildCurve(interpolated, plotWidth, bottom, low, scale));
+        if (showSimulated) {
+            g2d.setColor(UIStyles.CURVE_SIMULATED);
+            g2d.draw(buildCurve(simulated, plotWidth, bottom, low, scale));
+        }
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        drawKeyFrames(g2d, keyFrameData, firstFrame, lastFrame, bottom, low, scale);
+        drawCurrentFrameLine(g2d, plotTop, plotHeight);
+        g2d.setClip(oldClip);
+
+        drawLegend(g2d, showSimulated);
+    }
+
+    /**
+     * 1本の曲線を1つの Path2D にまとめる。
+     * 1ピクセルに1フレーム以下なら各サンプルを結び、それ以上なら列ごとの最小値から最大値までの縦線にする。
+     * 隣の列と離れているときは縦線を隣の列まで延ばしてつなげる。
+     */
+    private Path2D buildCurve(MinMaxPyramid samples, int plotWidth, double bottom, double low, double scale) {
+        Path2D.Double path = new Path2D.Double();
+        if (framesPerPixel <= 1) {
+            int first = Math.max(0, (int) Math.floor(viewStart));
+            int last = Math.min(samples.length() - 1, (int) Math.ceil(viewStart + plotWidth * framesPerPixel) + 1);
+            boolean drawing = false;
+            for (int frame = first; frame <= last; frame++) {
+                double value = samples.get(frame);
+                if (Double.isNaN(value)) {
+                    drawing = false;
+                    continue;
+                }
+                double x = frameToX(frame);
+                double y = bottom - (value - low) * scale;
+                if (drawing) {
+                    path.lineTo(x, y);
+                } else {
+                    path.moveTo(x, y);
+                    drawing = true;
+                }
+            }
+            return path;
+        }
+
+        boolean hasPrevious = false;
+        double previousMin = 0;
+        double previousMax = 0;
+        for (int column = 0; column < plotWidth; column++) {
+            int from = (int) Math.floor(viewStart + column * framesPerPixel);
+            int to = (int) Math.floor(viewStart + (column + 1) * framesPerPixel) - 1;
+            if (!samples.query(from, Math.max(from, to), range)) {
+                hasPrevious = false;
+                continue;
+            }
+            double min = range[0];
+            double max = range[1];
+            if (hasPrevious) {
+                min = Math.min(min, previousMax);
+                max = Math.max(max, previousMin);
+            }
+            double x = AXIS_WIDTH + column;
+            path.moveTo(x, bottom - (min - low) * scale);
+            path.lineTo(x, bottom - (max - low) * scale);
+            hasPrevious = true;
+            previousMin = range[0];
+            previousMax = range[1];
+        }
+        return path;
+    }
+
+    private void drawKeyFrames(Graphics2D g2d, KeyFrameData keyFrameData, int firstFrame, int lastFrame,
+            double bottom, double low, double scale) {
+        if (framesPerPixel * KEYFRAME_SIZE > 1) {
+            // 菱形が重なる縮小表示では、キーの位置だけを下端に印で示す。
+            g2d.setColor(UIStyles.KEYFRAME_COLOR);
+            KeyFramePyramid pyramid = keyFrameData.getPyramid(type);
+            int level = pyramid.levelFor(framesPerPixel);
+            int lastX = Integer.MIN_VALUE;
+            for (int i = pyramid.lowerBound(level, firstFrame >> level); i < pyramid.size(level); i++) {
+                int bucket = pyramid.bucketAt(level, i);
+                if (bucket > lastFrame >> level) {
+                    break;
+                }
+                int x = (int) Math.round(frameToX(bucket << level));
+                if (x > lastX) {
+                    g2d.fillRect(x - 1, (int) bottom - 6, 3, 6);
+                    lastX = x + 2;
+                }
+            }
+            return;
+        }
+
+        TreeMap<Integer, Double> frames = keyFrameData.getKeyFrames(type);
+        for (Map.Entry<Integer, Double> entry : frames.subMap(firstFrame, true, lastFrame, true).entrySet()) {
+            int x = (int) Math.round(frameToX(entry.getKey()));
+            int y = (int) Math.round(bottom - (entry.getValue() - low) * scale);
+            if (keyFrameData.isSelected(type, entry.getKey())) {
+                g2d.setColor(UIStyles.KEYFRAME_SELECTED);
+            } else {
+                g2d.setColor(UIStyles.KEYFRAME_COLOR);
+            }
+            int[] xPoints = { x, x + KEYFRAME_SIZE / 2, x, x - KEYFRAME_SIZE / 2 };
+            int[] yPoints = { y - KEYFRAME_SIZE / 2, y, y + KEYFRAME_SIZE / 2, y };
+            g2d.fillPolygon(xPoints, yPoints, 4);
+        }
+    }
+
+    private void drawAxes(Graphics2D g2d, int plotTop, int plotHeight, int plotWidth, double low, double high) {
+        g2d.setColor(UIStyles.TIMELINE_LABEL_BG);
+        g2d.fillRect(0, 0, AXIS_WIDTH, getHeight());
+
+        g2d.setFont(UIStyles.FONT_REGULAR);
+        for (int i = 0; i <= 4; i++) {
+            int y = plotTop + plotHeight * i / 4;
+            double value = high - (high - low) * i / 4;
+            g2d.setColor(UIStyles.TIMELINE_GRID);
+            g2d.drawLine(AXIS_WIDTH, y, AXIS_WIDTH + plotWidth, y);
+            g2d.setColor(UIStyles.TEXT_ON_DARK);
+            g2d.drawString(String.format("%.2f", value), 6, y + 4);
+        }
+    }
+
+    private void drawCurrentFrameLine(Graphics2D g2d, int plotTop, int plotHeight) {
+        int x = (int) Math.round(frameToX(currentFrame));
+        g2d.setColor(UIStyles.TIMELINE_CURRENT);
+        g2d.setStroke(new BasicStroke(2));
+        g2d.drawLine(x, plotTop, x, plotTop + plotHeight);
+    }
+
+    private void drawLegend(Graphics2D g2d, boolean showSimulated) {
+        g2d.setFont(UIStyles.FONT_BOLD);
+        int x = AXIS_WIDTH + 8;
+        int y = MARGIN + 4;
+        g2d.setColor(UIStyles.TEXT_ON_DARK);
+        String title = scene.getObject(objectId).getName() + " / " + type.getDisplayName();
+        g2d.drawString(title, x, y);
+        x += g2d.getFontMetrics().stringWidth(title) + 20;
+
+        g2d.setFont(UIStyles.FONT_REGULAR);
+        g2d.setColor(UIStyles.CURVE_INTERPOLATED);
+        g2d.drawString("補間値", x, y);
+        if (showSimulated) {
+            g2d.setColor(UIStyles.CURVE_SIMULATED);
+            g2d.drawString("シミュレーション", x + 60, y);
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package report;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * DeltaTrajectoryWriter で書いた記録を読むクラス。ファイルはメモリマップする。
+ * 連続したフレームは直前の状態に差分を足すだけで読め、離れたフレームへは
+ * 直前のキーフレームまで飛んでから差分をたどる。
+ *
+ * 使い方: java -cp bin report.DeltaTrajectoryReader [物体数] [フレーム数]
+ * (記録を作って圧縮率とデコード速度を表示する)
+ */
+public class DeltaTrajectoryReader {
+    private final MappedByteBuffer buffer;
+    private final int bodyCount;
+    private final int keyFrameInterval;
+    private final double[] quanta = new double[TrajectoryCodec.FIELD_COUNT];
+    private final int frameCount;
+    private final long[] keyFrameOffsets;
+    private final long[] values;
+
+    /** values が表しているフレーム。まだ何も読んでいなければ -1。 */
+    private int decodedFrame = -1;
+
+    private DeltaTrajectoryReader(MappedByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        int limit = buffer.limit();
+        if (limit < TrajectoryCodec.HEADER_BYTES + TrajectoryCodec.TRAILER_BYTES
+                || buffer.getInt(0) != TrajectoryCodec.MAGIC
+                || buffer.getInt(limit - Integer.BYTES) != TrajectoryCodec.MAGIC) {
+            throw new IOException("記録ファイルではないか、書き込みが完了していません");
+        }
+        int version = buffer.getInt(4);
+        if (version > TrajectoryCodec.VERSION) {
+            throw new IOException("未対応のバージョンです: " + version);
+        }
+        bodyCount = buffer.getInt(8);
+        keyFrameInterval = buffer.getInt(12);
+        for (int i = 0; i < TrajectoryCodec.FIELD_COUNT; i++) {
+            quanta[i] = buffer.getDouble(16 + i * Double.BYTES);
+        }
+
+        long indexOffset = buffer.getLong(limit - TrajectoryCodec.TRAILER_BYTES);
+        if (indexOffset < TrajectoryCodec.HEADER_BYTES || indexOffset > limit - TrajectoryCodec.TRAILER_BYTES) {
+            throw new IOException("索引が壊れています");
+        }
+        frameCount = buffer.getInt((int) indexOffset);
+        int keyFrameCount = buffer.getInt((int) indexOffset + Integer.BYTES);
+        keyFrameOffsets = new long[keyFrameCount];
+        for (int i = 0; i < keyFrameCount; i++) {
+            keyFrameOffsets[i] = buffer.getLong((int) indexOffset + Integer.BYTES * 2 + i * Long.BYTES);
+        }
+        values = new long[bodyCount * TrajectoryCodec.FIELD_COUNT];
+    }
+
+    public static DeltaTrajectoryReader open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("2GBを超える記録ファイルには対応していません");
+            }
+            return new DeltaTrajectoryReader(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    public int getBodyCount() {
+        return bodyCount;
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    public long getFileSize() {
+        return buffer.limit();
+    }
+
+    /**
+     * frame の状態を out に書く。out は物体ごとに ParamType 順の14個を並べた配列。
+     */
+    public void readFrame(int frame, double[] out) {
+        if (frame < 0 || frame >= frameCount) {
+            throw new IndexOutOfBoundsException("frame: " + frame);
+        }
+        if (decodedFrame < 0 || frame <= decodedFrame
+                || frame / keyFrameInterval > decodedFrame / keyFrameInterval) {
+            int keyFrame = frame / keyFrameInterval;
+            buffer.position((int) keyFrameOffsets[keyFrame]);
+            decodedFrame = keyFrame * keyFrameInterval - 1;
+        }
+        while (decodedFrame < frame) {
+            decodeNext();
+        }
+
+        for (int body = 0; body < bodyCount; body++) {
+            int base = body * TrajectoryCodec.FIELD_COUNT;
+            for (int i = 0; i < TrajectoryCodec.FIELD_COUNT; i++) {
+                out[base + i] = values[base + i] * quanta[i];
+            }
+        }
+    }
+
+    /**
+     * 1物体分を Body に適用する。goHome で戻る初期値は変えない。
+     */
+    public void applyTo(double[] frameValues, int bodyIndex, Body body) {
+        int base = bodyIndex * TrajectoryCodec.FIELD_COUNT;
+        for (int i = 0; i < TrajectoryCodec.FIELD_COUNT; i++) {
+            if (body.hasParameter(TrajectoryCodec.FIELDS[i])) {
+                body.setStateParameter(TrajectoryCodec.FIELDS[i], frameValues[base + i]);
+            }
+        }
+    }
+
+    private void decodeNext() {
+        int frame = decodedFrame + 1;
+        if (frame % keyFrameInterval == 0) {
+            for (int i = 0; i < values.length; i++) {
+                values[i] = TrajectoryCodec.unZigZag(TrajectoryCodec.getVarLong(buffer));
+            }
+        } else {
+            int body = (int) TrajectoryCodec.getVarLong(buffer);
+            while (body < bodyCount) {
+                int base = body * TrajectoryCodec.FIELD_COUNT;
+                int mask = (int) TrajectoryCodec.getVarLong(buffer);
+                for (int i = 0; i < TrajectoryCodec.FIELD_COUNT; i++) {
+                    if ((mask & (1 << i)) != 0) {
+                        values[base + i] += TrajectoryCodec.unZigZag(TrajectoryCodec.getVarLong(buffer));
+                    }
+                }
+                body += 1 + (int) TrajectoryCodec.getVarLong(buffer);
+            }
+        }
+        decodedFrame = frame;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int bodies = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int frames = args.length > 1 ? Integer.parseInt(args[1]) : AnimationConfig.MAX_FRAME * 10;
+
+        HeadlessSimulation simulation = new HeadlessSimulation(AnimationConfig.POSITION_X_MAX,
+                AnimationConfig.POSITION_Y_MAX);
+        World world = new World();
+        for (int i = 0; i < bodies; i++) {
+            Box box = new Box(simulation.getPanel());
+            box.setVxVy(4.0 + (i % 17), -10.0 - (i % 23));
+            box.goHome();
+            world.addBox(box);
+        }
+
+        Path path = Paths.get(args.length > 2 ? args[2] : "recording.bkt");
+        DeltaTrajectoryWriter writer = new DeltaTrajectoryWriter(
+                FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING),
+                bodies, AnimationConfig.RECORDING_KEYFRAME_INTERVAL, 1 << 20);
+        try {
+            writer.writeFrame(world);
+            for (int i = 1; i < frames; i++) {
+                world.step();
+                writer.writeFrame(world);
+            }
+        } finally {
+            writer.close();
+        }
+
+        DeltaTrajectoryReader reader = open(path);
+        long raw = (long) reader.getFrameCount() * bodies * TrajectoryCodec.RAW_BODY_BYTES;
+        System.out.printf("%d 物体 × %d フレーム: %,d バイト (生データ %,d バイト, 圧縮率 %.1f 倍)%n",
+                bodies, reader.getFrameCount(), reader.getFileSize(), raw, (double) raw / reader.getFileSize());
+
+        double[] out = new double[bodies * TrajectoryCodec.FIELD_COUNT];
+        long start = System.nanoTime();
+        for (int frame = 0; frame < reader.getFrameCount(); frame++) {
+            reader.readFrame(frame, out);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("連続デコード: %.0f フレーム/秒 (%.1f MB/秒 相当の生データ)%n",
+                reader.getFrameCount() / seconds, raw / seconds / 1e6);
+
+        start = System.nanoTime();
+        int seeks = Math.min(1000, reader.getFrameCount());
+        for (int i = 0; i < seeks; i++) {
+            reader.readFrame((int) ((i * 7919L) % reader.getFrameCount()), out);
+        }
+        System.out.printf("ランダムアクセス: %.1f マイクロ秒/フレーム%n", (System.nanoTime() - start) / 1e3 / seeks);
+    }
+}
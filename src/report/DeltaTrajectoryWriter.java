@@ -0,0 +1,181 @@
+package report;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+/**
+ * 物体の状態を量子化した差分で書き出す TrajectorySink。形式は TrajectoryCodec を参照。
+ * 1物体なら TrajectorySink として、複数物体なら writeFrame(World) で使う。
+ */
+public class DeltaTrajectoryWriter implements TrajectorySink {
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer;
+    private final int bodyCount;
+    private final int keyFrameInterval;
+    private final double[] scales = new double[TrajectoryCodec.FIELD_COUNT];
+
+    /** 直前のフレームの量子化済みの値。物体ごとに14個並べる。 */
+    private final long[] previous;
+    private final long[] current = new long[TrajectoryCodec.FIELD_COUNT];
+
+    private long[] keyFrameOffsets = new long[16];
+    private int keyFrameCount = 0;
+    private int frameCount = 0;
+    private long flushedBytes = 0;
+    private int bodyIndex;
+    private int unchanged;
+
+    public DeltaTrajectoryWriter(WritableByteChannel channel, int bodyCount, int keyFrameInterval, int bufferSize)
+            throws IOException {
+        if (bodyCount <= 0 || keyFrameInterval <= 0) {
+            throw new IllegalArgumentException("bodyCount と keyFrameInterval は1以上にしてください");
+        }
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocateDirect(Math.max(bufferSize, TrajectoryCodec.HEADER_BYTES
+                + TrajectoryCodec.MAX_BODY_BYTES)).order(ByteOrder.LITTLE_ENDIAN);
+        this.bodyCount = bodyCount;
+        this.keyFrameInterval = keyFrameInterval;
+        this.previous = new long[bodyCount * TrajectoryCodec.FIELD_COUNT];
+
+        buffer.putInt(TrajectoryCodec.MAGIC)
+                .putInt(TrajectoryCodec.VERSION)
+                .putInt(bodyCount)
+                .putInt(keyFrameInterval);
+        for (int i = 0; i < TrajectoryCodec.FIELD_COUNT; i++) {
+            double quantum = TrajectoryCodec.quantum(TrajectoryCodec.FIELDS[i]);
+            scales[i] = 1.0 / quantum;
+            buffer.putDouble(quantum);
+        }
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * これまでに書いたバイト数(まだバッファにある分も含む)。
+     */
+    public long getWrittenBytes() {
+        return flushedBytes + buffer.position();
+    }
+
+    @Override
+    public void write(int frame, Box box) throws IOException {
+        if (bodyCount != 1) {
+            throw new IllegalStateException("複数物体の記録では writeFrame(World) を使ってください");
+        }
+        beginFrame();
+        writeBody(box);
+        endFrame();
+    }
+
+    /**
+     * World の全物体を Box、Ball の順に1フレーム分書く。
+     */
+    public void writeFrame(World world) throws IOException {
+        if (world.getBodyCount() != bodyCount) {
+            throw new IllegalArgumentException("物体数が記録開始時と違います: " + world.getBodyCount());
+        }
+        beginFrame();
+        for (int i = 0; i < world.getBoxCount(); i++) {
+            writeBody(world.getBox(i));
+        }
+        for (int i = 0; i < world.getBallCount(); i++) {
+            writeBody(world.getBall(i));
+        }
+        endFrame();
+    }
+
+    private boolean isKeyFrame() {
+        return frameCount % keyFrameInterval == 0;
+    }
+
+    private void beginFrame() throws IOException {
+        if (isKeyFrame()) {
+            if (keyFrameCount == keyFrameOffsets.length) {
+                keyFrameOffsets = Arrays.copyOf(keyFrameOffsets, keyFrameCount * 2);
+            }
+            keyFrameOffsets[keyFrameCount++] = getWrittenBytes();
+        }
+        bodyIndex = 0;
+        unchanged = 0;
+    }
+
+    private void writeBody(Body body) throws IOException {
+        if (buffer.remaining() < TrajectoryCodec.MAX_BODY_BYTES) {
+            flush();
+        }
+        int base = bodyIndex * TrajectoryCodec.FIELD_COUNT;
+        int mask = 0;
+        for (int i = 0; i < TrajectoryCodec.FIELD_COUNT; i++) {
+            current[i] = Math.round(body.getParameter(TrajectoryCodec.FIELDS[i]) * scales[i]);
+            if (current[i] != previous[base + i]) {
+                mask |= 1 << i;
+            }
+        }
+
+        if (isKeyFrame()) {
+            for (int i = 0; i < TrajectoryCodec.FIELD_COUNT; i++) {
+                TrajectoryCodec.putVarLong(buffer, TrajectoryCodec.zigZag(current[i]));
+            }
+        } else if (mask == 0) {
+            unchanged++;
+        } else {
+            TrajectoryCodec.putVarLong(buffer, unchanged);
+            TrajectoryCodec.putVarLong(buffer, mask);
+            for (int i = 0; i < TrajectoryCodec.FIELD_COUNT; i++) {
+                if ((mask & (1 << i)) != 0) {
+                    TrajectoryCodec.putVarLong(buffer, TrajectoryCodec.zigZag(current[i] - previous[base + i]));
+                }
+            }
+            unchanged = 0;
+        }
+        System.arraycopy(current, 0, previous, base, TrajectoryCodec.FIELD_COUNT);
+        bodyIndex++;
+    }
+
+    private void endFrame() throws IOException {
+        if (!isKeyFrame()) {
+            if (buffer.remaining() < Long.BYTES) {
+                flush();
+            }
+            TrajectoryCodec.putVarLong(buffer, unchanged);
+        }
+        frameCount++;
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            flushedBytes += channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * キーフレームの索引と末尾を書いて閉じる。
+     */
+    @Override
+    public void close() throws IOException {
+        long indexOffset = getWrittenBytes();
+        if (buffer.remaining() < Integer.BYTES * 2) {
+            flush();
+        }
+        buffer.putInt(frameCount).putInt(keyFrameCount);
+        for (int i = 0; i < keyFrameCount; i++) {
+            if (buffer.remaining() < Long.BYTES) {
+                flush();
+            }
+            buffer.putLong(keyFrameOffsets[i]);
+        }
+        if (buffer.remaining() < TrajectoryCodec.TRAILER_BYTES) {
+            flush();
+        }
+        buffer.putLong(indexOffset).putInt(TrajectoryCodec.MAGIC);
+        flush();
+        channel.close();
+    }
+}
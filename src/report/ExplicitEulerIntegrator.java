@@ -0,0 +1,38 @@
+package report;
+
+/**
+ * 陽的オイラー法。古い速度で位置を進め、そのあと速度を更新する。
+ * 以前 Box.next() に直書きされていた方式と同じで、既定の積分器。
+ */
+public class ExplicitEulerIntegrator implements Integrator {
+    private final double[] q = new double[MAX_DEGREES_OF_FREEDOM];
+    private final double[] v = new double[MAX_DEGREES_OF_FREEDOM];
+    private final double[] a = new double[MAX_DEGREES_OF_FREEDOM];
+
+    @Override
+    public void integrate(Target target, double h) {
+        int n = target.getDegreesOfFreedom();
+        target.readState(q, v);
+        target.computeAcceleration(q, v, a);
+
+        for (int i = 0; i < n; i++) {
+            q[i] += v[i] * h;
+        }
+        target.applyDamping(v, h);
+        for (int i = 0; i < n; i++) {
+            v[i] += a[i] * h;
+        }
+
+        target.writeState(q, v);
+    }
+
+    @Override
+    public String getName() {
+        return Kind.EXPLICIT_EULER.getDisplayName();
+    }
+
+    @Override
+    public Kind getKind() {
+        return Kind.EXPLICIT_EULER;
+    }
+}
@@ -0,0 +1,137 @@
+package report;
+
+import java.util.Arrays;
+
+/**
+ * フレームごとの状態のチェックサムを記録し、再生の経路どうしで結果が一致するかを確かめるクラス。
+ * 通常再生(LIVE)・0フレーム目からの再生し直し(REPLAY)・シークキャッシュからの続き(RESTORED)が
+ * 同じフレームに書いた World 全体のチェックサムを比べ、最初に食い違ったフレームを記録する。
+ * 記録するのは検証モードのときだけで、各フレームの状態も保存して食い違った物体と値の名前まで調べる。
+ * 入力(キーフレーム・初期値・シーン)が変わったら clear() で記録を捨てること。
+ */
+public class FrameChecksumLog {
+    public enum Source {
+        LIVE("live"),
+        REPLAY("replay"),
+        RESTORED("restored");
+
+        private final String displayName;
+
+        Source(String displayName) {
+            this.displayName = displayName;
+        }
+
+        public String getDisplayName() {
+            return displayName;
+        }
+    }
+
+    /**
+     * 最初に見つかった食い違い。
+     */
+    public static class Divergence {
+        private final int frame;
+        private final String field;
+        private final Source expected;
+        private final Source actual;
+
+        Divergence(int frame, String field, Source expected, Source actual) {
+            this.frame = frame;
+            this.field = field;
+            this.expected = expected;
+            this.actual = actual;
+        }
+
+        public int getFrame() {
+            return frame;
+        }
+
+        public String getField() {
+            return field;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Divergence at frame %d: %s (%s vs %s)", frame,
+                    field != null ? field : "?", expected.getDisplayName(), actual.getDisplayName());
+        }
+    }
+
+    private long[] checksums = new long[AnimationConfig.MAX_FRAME + 1];
+    private Source[] sources = new Source[AnimationConfig.MAX_FRAME + 1];
+    private World.State[] states = new World.State[AnimationConfig.MAX_FRAME + 1];
+    private boolean verifying = false;
+    private Divergence divergence;
+
+    public boolean isVerifying() {
+        return verifying;
+    }
+
+    /**
+     * 検証モードを切り替える。切り替えたときは記録を捨てる。
+     */
+    public void setVerifying(boolean verifying) {
+        this.verifying = verifying;
+        clear();
+    }
+
+    public Divergence getDivergence() {
+        return divergence;
+    }
+
+    /**
+     * frame まで進めた直後(次のキーフレームを適用する前)の全物体の状態を記録する。
+     * そのフレームにすでに別の経路の記録があれば比べる。検証モードでなければ何もしない。
+     */
+    public void record(int frame, World world, Source source) {
+        if (!verifying) {
+            return;
+        }
+        if (frame >= checksums.length) {
+            int capacity = Math.max(frame + 1, checksums.length * 2);
+            checksums = Arrays.copyOf(checksums, capacity);
+            sources = Arrays.copyOf(sources, capacity);
+            states = Arrays.copyOf(states, capacity);
+        }
+        long checksum = StateChecksum.of(world, 0);
+        if (sources[frame] == null) {
+            checksums[frame] = checksum;
+            sources[frame] = source;
+            states[frame] = world.saveState();
+            return;
+        }
+        if (divergence == null && checksums[frame] != checksum) {
+            String field = StateChecksum.firstDifferentField(states[frame], world);
+            divergence = new Divergence(frame, field, sources[frame], source);
+        }
+    }
+
+    public boolean hasChecksum(int frame) {
+        return frame >= 0 && frame < sources.length && sources[frame] != null;
+    }
+
+    public long getChecksum(int frame) {
+        return checksums[frame];
+    }
+
+    /**
+     * 1フレーム目から frame までの記録済みチェックサムを順に畳み込んだ値。
+     * 2回の実行がここまで同じだったかを1つの値で比べられる。
+     */
+    public long getRollingChecksum(int frame) {
+        long rolling = 0;
+        int last = Math.min(frame, sources.length - 1);
+        for (int i = 0; i <= last; i++) {
+            if (sources[i] != null) {
+                rolling = StateChecksum.mix(rolling, checksums[i]);
+            }
+        }
+        return rolling;
+    }
+
+    public void clear() {
+        Arrays.fill(sources, null);
+        Arrays.fill(states, null);
+        divergence = null;
+    }
+}
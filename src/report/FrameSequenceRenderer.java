@@ -0,0 +1,162 @@
+package report;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.imageio.ImageIO;
+import javax.swing.JPanel;
+
+/**
+ * 画面を出さずに連番 PNG を書き出すレンダラー。
+ * シミュレーション用スレッドが各フレームの World.State を作り、ワーカーのスレッドプールが
+ * オフスクリーンの BufferedImage へ描画して PNG に符号化し、書き出しは順番どおりに1本のスレッドで行う。
+ * 重いラスタライズと PNG 符号化がワーカー側で並列に進むので、コア数に応じて速くなる。
+ *
+ * 使い方: java -cp bin report.FrameSequenceRenderer 出力ディレクトリ [フレーム数] [幅] [高さ] [スレッド数] [プロジェクトファイル]
+ * 幅・高さを省略するか - にすると、プロジェクトファイルがあればそのシーンの大きさ、なければウィンドウの大きさになる。
+ */
+public class FrameSequenceRenderer {
+    private final int width;
+    private final int height;
+    private final int threads;
+    private final ObstacleBvh obstacles;
+    private final JPanel panel;
+
+    public FrameSequenceRenderer(int width, int height, int threads, ObstacleBvh obstacles) {
+        this.width = width;
+        this.height = height;
+        this.threads = threads;
+        this.obstacles = obstacles;
+        this.panel = new JPanel();
+        panel.setSize(width, height);
+    }
+
+    /**
+     * frames フレーム分を outputDir/frame_00000.png から順に書き出す。World のすべての物体を描く。
+     */
+    public void render(HeadlessSimulation simulation, int frames, Path outputDir)
+            throws IOException, InterruptedException {
+        Files.createDirectories(outputDir);
+        World world = simulation.getWorld();
+        // ワーカーごとの描画用の World。状態は restoreState で毎フレーム差し替える。
+        ThreadLocal<World> drawWorld = ThreadLocal.withInitial(() -> world.copyForDrawing(panel));
+
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        BlockingQueue<Future<byte[]>> pending = new ArrayBlockingQueue<>(threads * 2);
+        Thread producer = new Thread(() -> {
+            try {
+                for (int i = 0; i < frames; i++) {
+                    World.State state = world.saveState();
+                    pending.put(workers.submit(() -> encode(drawWorld.get(), state)));
+                    simulation.step();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Throwable t) {
+                // 書き出し側が take() で待ち続けないよう、失敗を次のフレームとして渡す。
+                try {
+                    pending.put(CompletableFuture.failedFuture(t));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, "render-producer");
+        producer.start();
+
+        try {
+            for (int i = 0; i < frames; i++) {
+                byte[] png = pending.take().get();
+                Files.write(outputDir.resolve(String.format("frame_%05d.png", i)), png);
+            }
+        } catch (ExecutionException e) {
+            throw new IOException("フレームのシミュレーションまたは描画に失敗しました", e.getCause());
+        } finally {
+            producer.interrupt();
+            producer.join();
+            workers.shutdownNow();
+        }
+    }
+
+    private byte[] encode(World drawWorld, World.State state) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = image.createGraphics();
+        try {
+            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g2d.setColor(Color.WHITE);
+            g2d.fillRect(0, 0, width, height);
+            AnimationPanel.drawGridAndAxes(g2d, width, height);
+            if (obstacles != null) {
+                g2d.setColor(UIStyles.OBSTACLE_COLOR);
+                obstacles.draw(g2d);
+            }
+            drawWorld.restoreState(state);
+            drawWorld.draw(g2d);
+        } finally {
+            g2d.dispose();
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256 * 1024);
+        try {
+            ImageIO.write(image, "png", out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 1) {
+            System.err.println("使い方: FrameSequenceRenderer 出力ディレクトリ [フレーム数] [幅] [高さ] [スレッド数] [プロジェクトファイル]");
+            System.exit(1);
+        }
+
+        Path outputDir = Paths.get(args[0]);
+        int frames = args.length > 1 ? Integer.parseInt(args[1]) : AnimationConfig.MAX_FRAME;
+        int threads = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+
+        // 画像の大きさは、指定がなければシミュレーションするシーンの大きさに合わせる。
+        HeadlessSimulation simulation;
+        int width;
+        int height;
+        if (args.length > 5) {
+            simulation = HeadlessSimulation.fromProject(Paths.get(args[5]));
+            width = sizeArg(args, 2, simulation.getPanel().getWidth());
+            height = sizeArg(args, 3, simulation.getPanel().getHeight());
+        } else {
+            width = sizeArg(args, 2, AnimationConfig.WINDOW_WIDTH);
+            height = sizeArg(args, 3, AnimationConfig.WINDOW_HEIGHT);
+            simulation = new HeadlessSimulation(width, height);
+        }
+
+        long start = System.nanoTime();
+        new FrameSequenceRenderer(width, height, threads, null).render(simulation, frames, outputDir);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%d フレームを %s に書き出しました (%dx%d, %.2f 秒, %.1f フレーム/秒, %d スレッド)%n",
+                frames, outputDir, width, height, seconds, frames / seconds, threads);
+    }
+
+    /**
+     * args[index] の幅・高さ。無いか - なら defaultValue。
+     */
+    private static int sizeArg(String[] args, int index, int defaultValue) {
+        if (args.length <= index || args[index].equals("-")) {
+            return defaultValue;
+        }
+        return Integer.parseInt(args[index]);
+    }
+}
@@ -0,0 +1,49 @@
+package report;
+
+import java.util.EnumMap;
+
+/**
+ * updatePhysicsAndRender の各段階と描画にかかった時間をヒストグラムに集めるクラス。
+ * UPDATE は updatePhysicsAndRender 全体で、描画は repaint 後に別に行われるので PAINT に分けて数える。
+ */
+public class FrameTimeMetrics {
+    public enum Phase {
+        KEYFRAME_APPLY("Keyframe"),
+        PHYSICS("Physics"),
+        TIMELINE_SYNC("Timeline"),
+        PAINT("Paint"),
+        UPDATE("Update");
+
+        private final String displayName;
+
+        Phase(String displayName) {
+            this.displayName = displayName;
+        }
+
+        public String getDisplayName() {
+            return displayName;
+        }
+    }
+
+    private final EnumMap<Phase, LatencyHistogram> histograms = new EnumMap<>(Phase.class);
+
+    public FrameTimeMetrics() {
+        for (Phase phase : Phase.values()) {
+            histograms.put(phase, new LatencyHistogram());
+        }
+    }
+
+    public void record(Phase phase, long nanos) {
+        histograms.get(phase).record(nanos);
+    }
+
+    public LatencyHistogram getHistogram(Phase phase) {
+        return histograms.get(phase);
+    }
+
+    public void reset() {
+        for (LatencyHistogram histogram : histograms.values()) {
+            histogram.reset();
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package report;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 基準シーンを決まったフレーム数だけ動かし、各フレームの状態のハッシュを
+ * リポジトリに置いたゴールデンファイルと比べる回帰チェック。
+ * あわせてシーンごとの処理時間と確保バイト数が予算内かも確かめる。
+ * 1つでも外れたら終了コード 1 で終わる。
+ *
+ * <pre>
+ * 使い方: java -cp bin report.GoldenTrajectoryCheck [--update] [ゴールデンファイルのディレクトリ]
+ * </pre>
+ *
+ * --update を付けると現在の結果でゴールデンファイルを書き直す(予算は既存の値を引き継ぐ)。
+ * 物理の変更が意図したものであるときだけ使うこと。
+ */
+public class GoldenTrajectoryCheck {
+    private static final Path DEFAULT_DIRECTORY = Paths.get("src", "resources", "golden");
+    private static final int WARMUP_RUNS = 20;
+    private static final int MEASURE_RUNS = 10;
+
+    /**
+     * 基準シーン。予算はゴールデンファイルがまだないときの初期値。
+     */
+    enum Scene {
+        DEFAULT(AnimationConfig.MAX_FRAME, 0.0, 20, 2L << 20),
+        KEYFRAMES(AnimationConfig.MAX_FRAME, 0.0, 20, 2L << 20),
+        OBSTACLES(AnimationConfig.MAX_FRAME, 0.0, 20, 2L << 20),
+        RK4_SUBSTEPS(AnimationConfig.MAX_FRAME, 0.0, 20, 2L << 20);
+
+        private final int frames;
+        private final double tolerance;
+        private final long budgetMillis;
+        private final long budgetAllocatedBytes;
+
+        Scene(int frames, double tolerance, long budgetMillis, long budgetAllocatedBytes) {
+            this.frames = frames;
+            this.tolerance = tolerance;
+            this.budgetMillis = budgetMillis;
+            this.budgetAllocatedBytes = budgetAllocatedBytes;
+        }
+
+        HeadlessSimulation create() {
+            HeadlessSimulation simulation = new HeadlessSimulation(AnimationConfig.POSITION_X_MAX,
+                    AnimationConfig.POSITION_Y_MAX);
+            Box box = simulation.getBox();
+            KeyFrameData keyFrameData = simulation.getKeyFrameData();
+            switch (this) {
+                case KEYFRAMES:
+                    keyFrameData.registerAllFromBox(0, box);
+                    keyFrameData.registerKeyFrame(KeyFrameData.ParamType.GRAVITY, 120, 1.5);
+                    keyFrameData.registerKeyFrame(KeyFrameData.ParamType.MASS, 200, 3.0);
+                    keyFrameData.registerKeyFrame(KeyFrameData.ParamType.RESTITUTION, 300, 0.9);
+                    keyFrameData.registerKeyFrame(KeyFrameData.ParamType.FRICTION, 400, 0.05);
+                    keyFrameData.registerKeyFrame(KeyFrameData.ParamType.WIDTH, 450, 80);
+                    break;
+                case OBSTACLES:
+                    box.setObstacles(new ObstacleBvh(List.of(
+                            new RectangleObstacle(300, 400, 120, 40),
+                            new SegmentObstacle(500, 300, 700, 450),
+                            new PolygonObstacle(new double[] {150, 250, 200}, new double[] {500, 500, 420}))));
+                    break;
+                case RK4_SUBSTEPS:
+                    box.setIntegrator(Integrator.Kind.RK4.create());
+                    box.setMaxSubSteps(4);
+                    break;
+                case DEFAULT:
+                default:
+                    break;
+            }
+            simulation.reset();
+            return simulation;
+        }
+    }
+
+    /**
+     * シーンを動かし、0フレーム目を含む frames + 1 個のハッシュを返す。
+     */
+    static long[] run(Scene scene) {
+        HeadlessSimulation simulation = scene.create();
+        long[] hashes = new long[scene.frames + 1];
+        hashes[0] = StateChecksum.of(simulation.getBox(), scene.tolerance);
+        for (int i = 1; i <= scene.frames; i++) {
+            simulation.step();
+            hashes[i] = StateChecksum.of(simulation.getBox(), scene.tolerance);
+        }
+        return hashes;
+    }
+
+    private static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean) threads;
+            if (sunThreads.isThreadAllocatedMemorySupported() && sunThreads.isThreadAllocatedMemoryEnabled()) {
+                return sunThreads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * ゴールデンファイルの内容。ヘッダは key=value、その後に「フレーム ハッシュ(16進)」が並ぶ。
+     */
+    static class Golden {
+        long budgetMillis;
+        long budgetAllocatedBytes;
+        double tolerance;
+        long[] hashes;
+
+        static Golden read(Path path) throws IOException {
+            Golden golden = new Golden();
+            long[] hashes = new long[16];
+            int count = 0;
+            try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    line = line.trim();
+                    if (line.isEmpty() || line.startsWith("#")) {
+                        continue;
+                    }
+                    int equals = line.indexOf('=');
+                    if (equals >= 0) {
+                        String key = line.substring(0, equals);
+                        String value = line.substring(equals + 1);
+                        switch (key) {
+                            case "budgetMillis":
+                                golden.budgetMillis = Long.parseLong(value);
+                                break;
+                            case "budgetAllocatedBytes":
+                                golden.budgetAllocatedBytes = Long.parseLong(value);
+                                break;
+                            case "tolerance":
+                                golden.tolerance = Double.parseDouble(value);
+                                break;
+                            default:
+                                break;
+                        }
+                        continue;
+                    }
+                    String[] fields = line.split("\\s+");
+                    int frame = Integer.parseInt(fields[0]);
+                    if (frame != count) {
+                        throw new IOException(path + ": フレーム " + count + " の行がありません");
+                    }
+                    if (count == hashes.length) {
+                        hashes = Arrays.copyOf(hashes, count * 2);
+                    }
+                    hashes[count++] = Long.parseUnsignedLong(fields[1], 16);
+                }
+            }
+            golden.hashes = Arrays.copyOf(hashes, count);
+            return golden;
+        }
+
+        void write(Path path, Scene scene) throws IOException {
+            Files.createDirectories(path.getParent());
+            try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+                writer.write("# GoldenTrajectoryCheck --update で生成。フレームごとの StateChecksum\n");
+                writer.write("scene=" + scene.name() + "\n");
+                writer.write("frames=" + scene.frames + "\n");
+                writer.write("tolerance=" + tolerance + "\n");
+                writer.write("budgetMillis=" + budgetMillis + "\n");
+                writer.write("budgetAllocatedBytes=" + budgetAllocatedBytes + "\n");
+                for (int i = 0; i < hashes.length; i++) {
+                    writer.write(i + " " + String.format("%016x", hashes[i]) + "\n");
+                }
+            }
+        }
+    }
+
+    /**
+     * 1シーンを確かめる。問題がなければ true。
+     */
+    private static boolean check(Scene scene, Path directory, boolean update) throws IOException {
+        Path path = directory.resolve(scene.name().toLowerCase(Locale.ROOT) + ".golden");
+        long[] hashes = run(scene);
+
+        for (int i = 0; i < WARMUP_RUNS; i++) {
+            run(scene);
+        }
+        long bestNanos = Long.MAX_VALUE;
+        long allocated = -1;
+        for (int i = 0; i < MEASURE_RUNS; i++) {
+            long allocatedBefore = allocatedBytes();
+            long start = System.nanoTime();
+            run(scene);
+            bestNanos = Math.min(bestNanos, System.nanoTime() - start);
+            if (allocatedBefore >= 0) {
+                allocated = allocatedBytes() - allocatedBefore;
+            }
+        }
+        double millis = bestNanos / 1e6;
+
+        Golden golden = Files.exists(path) ? Golden.read(path) : null;
+        if (update) {
+            Golden updated = new Golden();
+            updated.budgetMillis = golden != null ? golden.budgetMillis : scene.budgetMillis;
+            updated.budgetAllocatedBytes = golden != null ? golden.budgetAllocatedBytes : scene.budgetAllocatedBytes;
+            updated.tolerance = scene.tolerance;
+            updated.hashes = hashes;
+            updated.write(path, scene);
+            System.out.printf("%-14s 更新しました (%.2f ms, %,d バイト)%n", scene, millis, allocated);
+            return true;
+        }
+        if (golden == null) {
+            System.out.printf("%-14s NG  ゴールデンファイルがありません: %s%n", scene, path);
+            return false;
+        }
+
+        boolean ok = true;
+        if (golden.tolerance != scene.tolerance) {
+            System.out.printf("%-14s NG  許容誤差がゴールデンファイルと違います (%s / %s)%n",
+                    scene, scene.tolerance, golden.tolerance);
+            ok = false;
+        }
+        int frames = Math.min(hashes.length, golden.hashes.length);
+        for (int i = 0; i < frames; i++) {
+            if (hashes[i] != golden.hashes[i]) {
+                System.out.printf("%-14s NG  フレーム %d から軌跡が変わりました%n", scene, i);
+                ok = false;
+                break;
+            }
+        }
+        if (hashes.length != golden.hashes.length) {
+            System.out.printf("%-14s NG  フレーム数が違います (%d / %d)%n", scene, hashes.length, golden.hashes.length);
+            ok = false;
+        }
+        if (millis > golden.budgetMillis) {
+            System.out.printf("%-14s NG  時間が予算を超えました (%.2f ms > %d ms)%n", scene, millis, golden.budgetMillis);
+            ok = false;
+        }
+        if (allocated > golden.budgetAllocatedBytes) {
+            System.out.printf("%-14s NG  確保バイト数が予算を超えました (%,d > %,d)%n",
+                    scene, allocated, golden.budgetAllocatedBytes);
+            ok = false;
+        }
+        if (ok) {
+            System.out.printf("%-14s OK  (%.2f ms / %d ms, %,d / %,d バイト)%n",
+                    scene, millis, golden.budgetMillis, allocated, golden.budgetAllocatedBytes);
+        }
+        return ok;
+    }
+
+    public static void main(String[] args) throws IOException {
+        boolean update = false;
+        Path directory = DEFAULT_DIRECTORY;
+        for (String arg : args) {
+            if (arg.equals("--update")) {
+                update = true;
+            } else {
+                directory = Paths.get(arg);
+            }
+        }
+
+        boolean ok = true;
+        for (Scene scene : Scene.values()) {
+            ok &= check(scene, directory, update);
+        }
+        if (!ok) {
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package report;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import javax.swing.JPanel;
+
+/**
+ * 画面を出さずに World とキーフレームだけでシミュレーションを進めるクラス。
+ * World には最初から Box が1つ入っていて、キーフレームはその Box に適用する。
+ * 1フレームの進め方は AnimationPanel.updatePhysicsAndRender と同じ
+ * (キーフレームを適用してから World.step())。
+ */
+public class HeadlessSimulation {
+    private final JPanel panel;
+    private final Box box;
+    private final World world = new World();
+    private KeyFrameData keyFrameData;
+    private int frame = 0;
+
+    public HeadlessSimulation(int width, int height) {
+        this.panel = new JPanel();
+        panel.setSize(width, height);
+        this.box = new Box(panel);
+        world.addBox(box);
+        this.keyFrameData = new KeyFrameData();
+        reset();
+    }
+
+    /**
+     * プロジェクトファイルのシーンの大きさ・Box のパラメータ・キーフレームで作る。
+     */
+    public static HeadlessSimulation fromProject(Path path) throws IOException {
+        ProjectFile project = ProjectFile.open(path);
+        HeadlessSimulation simulation = new HeadlessSimulation(project.getSceneWidth(), project.getSceneHeight());
+        project.loadInto(simulation.keyFrameData, simulation.box);
+        simulation.reset();
+        return simulation;
+    }
+
+    public void setKeyFrameData(KeyFrameData keyFrameData) {
+        this.keyFrameData = keyFrameData;
+    }
+
+    public KeyFrameData getKeyFrameData() {
+        return keyFrameData;
+    }
+
+    public Box getBox() {
+        return box;
+    }
+
+    public World getWorld() {
+        return world;
+    }
+
+    public JPanel getPanel() {
+        return panel;
+    }
+
+    public int getFrame() {
+        return frame;
+    }
+
+    /**
+     * 0フレーム目に戻す。
+     */
+    public void reset() {
+        world.goHome();
+        keyFrameData.applyToBox(0, box);
+        frame = 0;
+    }
+
+    public void step() {
+        keyFrameData.applyToBox(frame, box);
+        world.step();
+        frame++;
+    }
+}
@@ -0,0 +1,72 @@
+package report;
+
+/**
+ * 1サブステップ分の自由運動(重力などの加速度と減衰)を進める積分器。
+ * 壁との衝突処理は積分のあとに物体側で行う。
+ * 実装はスクラッチ配列を持つので、物体ごとに別インスタンスを使うこと。
+ */
+public interface Integrator {
+    /** Target の自由度の上限(Box の x, y, angle)。 */
+    int MAX_DEGREES_OF_FREEDOM = 3;
+
+    void integrate(Target target, double h);
+
+    String getName();
+
+    /**
+     * 別の物体用に同じ種類の積分器を作るときに使う。
+     */
+    Kind getKind();
+
+    /**
+     * 積分対象。q は位置系(座標・角度)、v は速度系(速度・角速度)。
+     */
+    interface Target {
+        int getDegreesOfFreedom();
+
+        void readState(double[] q, double[] v);
+
+        void writeState(double[] q, double[] v);
+
+        /**
+         * 減衰を除いた加速度(重力など)を求める。
+         */
+        void computeAcceleration(double[] q, double[] v, double[] a);
+
+        /**
+         * 1サブステップ分の乗算型の減衰を v に掛ける。
+         */
+        void applyDamping(double[] v, double h);
+    }
+
+    enum Kind {
+        EXPLICIT_EULER("Explicit Euler"),
+        SEMI_IMPLICIT_EULER("Semi-implicit Euler"),
+        VELOCITY_VERLET("Velocity Verlet"),
+        RK4("Runge-Kutta 4");
+
+        private final String displayName;
+
+        Kind(String displayName) {
+            this.displayName = displayName;
+        }
+
+        public String getDisplayName() {
+            return displayName;
+        }
+
+        public Integrator create() {
+            switch (this) {
+                case SEMI_IMPLICIT_EULER:
+                    return new SemiImplicitEulerIntegrator();
+                case VELOCITY_VERLET:
+                    return new VelocityVerletIntegrator();
+                case RK4:
+                    return new RungeKutta4Integrator();
+                case EXPLICIT_EULER:
+                default:
+                    return new ExplicitEulerIntegrator();
+            }
+        }
+    }
+}
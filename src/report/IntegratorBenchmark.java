@@ -0,0 +1,104 @@
+package report;
+
+import javax.swing.JPanel;
+
+/**
+ * 積分器ごとの 1ステップあたりの処理時間とエネルギーのずれを比べるベンチマーク。
+ * 反発係数1・摩擦0・減衰なしの保存系で Box と Ball を動かし、
+ * 初期エネルギーに対する最大の相対誤差を測る。
+ *
+ * 使い方: java -cp bin report.IntegratorBenchmark [フレーム数] [最大サブステップ数]
+ */
+public class IntegratorBenchmark {
+    private static final int SCENE_WIDTH = 800;
+    private static final int SCENE_HEIGHT = 600;
+    private static final int WARMUP_RUNS = 50;
+    private static final int MEASURE_RUNS = 200;
+
+    public static void main(String[] args) {
+        int frames = args.length > 0 ? Integer.parseInt(args[0]) : AnimationConfig.MAX_FRAME;
+        int maxSubSteps = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+
+        JPanel panel = new JPanel();
+        panel.setSize(SCENE_WIDTH, SCENE_HEIGHT);
+
+        System.out.printf("frames=%d, maxSubSteps=%d%n", frames, maxSubSteps);
+        System.out.printf("%-20s %12s %14s %12s %14s%n",
+                "integrator", "box ns/step", "box drift", "ball ns/step", "ball drift");
+
+        for (Integrator.Kind kind : Integrator.Kind.values()) {
+            double boxDrift = runBox(panel, kind, frames, maxSubSteps);
+            double ballDrift = runBall(panel, kind, frames);
+
+            for (int i = 0; i < WARMUP_RUNS; i++) {
+                runBox(panel, kind, frames, maxSubSteps);
+                runBall(panel, kind, frames);
+            }
+
+            long start = System.nanoTime();
+            for (int i = 0; i < MEASURE_RUNS; i++) {
+                runBox(panel, kind, frames, maxSubSteps);
+            }
+            double boxNsPerStep = (double) (System.nanoTime() - start) / ((long) MEASURE_RUNS * frames);
+
+            start = System.nanoTime();
+            for (int i = 0; i < MEASURE_RUNS; i++) {
+                runBall(panel, kind, frames);
+            }
+            double ballNsPerStep = (double) (System.nanoTime() - start) / ((long) MEASURE_RUNS * frames);
+
+            System.out.printf("%-20s %12.1f %14.3e %12.1f %14.3e%n",
+                    kind.getDisplayName(), boxNsPerStep, boxDrift, ballNsPerStep, ballDrift);
+        }
+    }
+
+    /**
+     * Box を frames フレーム動かし、最大の相対エネルギー誤差を返す。
+     */
+    private static double runBox(JPanel panel, Integrator.Kind kind, int frames, int maxSubSteps) {
+        Box box = new Box(panel);
+        box.setIntegrator(kind.create());
+        box.setMaxSubSteps(maxSubSteps);
+        box.setRestitution(1.0);
+        box.setFriction(0.0);
+        box.setLinearDamping(1.0);
+        box.setAngularDamping(1.0);
+        box.goHome();
+
+        double initial = boxEnergy(box);
+        double maxDrift = 0.0;
+        for (int i = 0; i < frames; i++) {
+            box.next();
+            maxDrift = Math.max(maxDrift, Math.abs(boxEnergy(box) - initial) / initial);
+        }
+        return maxDrift;
+    }
+
+    private static double runBall(JPanel panel, Integrator.Kind kind, int frames) {
+        Ball ball = new Ball(panel);
+        ball.setIntegrator(kind.create());
+        ball.setRestitutionCoefficient(1.0);
+        ball.goHome();
+
+        double initial = ballEnergy(ball);
+        double maxDrift = 0.0;
+        for (int i = 0; i < frames; i++) {
+            ball.next();
+            maxDrift = Math.max(maxDrift, Math.abs(ballEnergy(ball) - initial) / initial);
+        }
+        return maxDrift;
+    }
+
+    private static double boxEnergy(Box box) {
+        double kinetic = 0.5 * box.getMass() * (box.getVx() * box.getVx() + box.getVy() * box.getVy())
+                + 0.5 * box.getInertia() * box.getAngularVelocity() * box.getAngularVelocity();
+        double potential = box.getMass() * box.getG() * (SCENE_HEIGHT - box.getY());
+        return kinetic + potential;
+    }
+
+    private static double ballEnergy(Ball ball) {
+        double kinetic = 0.5 * (ball.getVx() * ball.getVx() + ball.getVy() * ball.getVy());
+        double potential = ball.getGravity() * (SCENE_HEIGHT - ball.getY());
+        return kinetic + potential;
+    }
+}
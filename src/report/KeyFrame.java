@@ -4,6 +4,8 @@ package report;
  * キーフレームクラス。
  * Boxのあらゆる状態を丸ごと保存し、任意のフレームでぴったり同じ姿に戻せるようにする。
  * タイムライン上ではこの KeyFrame の一覧を使って補間を行う。
+ * 再生中に毎フレーム使うときは、使い回す KeyFrame へ書く interpolateInto か、
+ * Box へ直接書く applyInterpolated を使えばオブジェクトを作らない。
  */
 public class KeyFrame {
     private int frameNumber;
@@ -22,6 +24,12 @@ public class KeyFrame {
     private double angularDamping;
     private double gravity;
 
+    /**
+     * interpolateInto や setFromBox の書き込み先として使い回すための空の KeyFrame。
+     */
+    public KeyFrame() {
+    }
+
     public KeyFrame(int frameNumber, double x, double y, double vx, double vy,
             double angle, double angularVelocity, double mass,
             double restitution, double friction, double linearDamping,
@@ -58,6 +66,43 @@ public class KeyFrame {
                 box.getG());
     }
 
+    /**
+     * Box の状態をこの KeyFrame に写す。fromBox と違って新しいオブジェクトを作らない。
+     */
+    public KeyFrame setFromBox(int frameNumber, Box box) {
+        this.frameNumber = frameNumber;
+        this.x = box.getX();
+        this.y = box.getY();
+        this.vx = box.getVx();
+        this.vy = box.getVy();
+        this.angle = box.getAngle();
+        this.angularVelocity = box.getAngularVelocity();
+        this.mass = box.getMass();
+        this.restitution = box.getRestitution();
+        this.friction = box.getFriction();
+        this.linearDamping = box.getLinearDamping();
+        this.angularDamping = box.getAngularDamping();
+        this.gravity = box.getG();
+        return this;
+    }
+
+    public KeyFrame copyFrom(KeyFrame other) {
+        this.frameNumber = other.frameNumber;
+        this.x = other.x;
+        this.y = other.y;
+        this.vx = other.vx;
+        this.vy = other.vy;
+        this.angle = other.angle;
+        this.angularVelocity = other.angularVelocity;
+        this.mass = other.mass;
+        this.restitution = other.restitution;
+        this.friction = other.friction;
+        this.linearDamping = other.linearDamping;
+        this.angularDamping = other.angularDamping;
+        this.gravity = other.gravity;
+        return this;
+    }
+
     public void applyToBox(Box box) {
         box.setXY(x, y);
         box.setVxVy(vx, vy);
@@ -78,23 +123,63 @@ public class KeyFrame {
         if (targetFrame >= kf2.frameNumber) {
             return kf2;
         }
+        return interpolateInto(kf1, kf2, targetFrame, new KeyFrame());
+    }
+
+    /**
+     * interpolate と同じ値を target に書いて返す。範囲外なら端の KeyFrame を写す。
+     * target は kf1・kf2 と同じオブジェクトでもよい。
+     */
+    public static KeyFrame interpolateInto(KeyFrame kf1, KeyFrame kf2, int targetFrame, KeyFrame target) {
+        if (targetFrame <= kf1.frameNumber) {
+            return target.copyFrom(kf1);
+        }
+        if (targetFrame >= kf2.frameNumber) {
+            return target.copyFrom(kf2);
+        }
 
         double t = (double) (targetFrame - kf1.frameNumber) / (kf2.frameNumber - kf1.frameNumber);
+        target.x = lerp(kf1.x, kf2.x, t);
+        target.y = lerp(kf1.y, kf2.y, t);
+        target.vx = lerp(kf1.vx, kf2.vx, t);
+        target.vy = lerp(kf1.vy, kf2.vy, t);
+        target.angle = lerpAngle(kf1.angle, kf2.angle, t);
+        target.angularVelocity = lerp(kf1.angularVelocity, kf2.angularVelocity, t);
+        target.mass = lerp(kf1.mass, kf2.mass, t);
+        target.restitution = lerp(kf1.restitution, kf2.restitution, t);
+        target.friction = lerp(kf1.friction, kf2.friction, t);
+        target.linearDamping = lerp(kf1.linearDamping, kf2.linearDamping, t);
+        target.angularDamping = lerp(kf1.angularDamping, kf2.angularDamping, t);
+        target.gravity = lerp(kf1.gravity, kf2.gravity, t);
+        target.frameNumber = targetFrame;
+        return target;
+    }
+
+    /**
+     * 補間した状態を、途中の KeyFrame を作らずに Box へ直接書く。
+     * interpolate(kf1, kf2, targetFrame).applyToBox(box) と同じ結果になる。
+     */
+    public static void applyInterpolated(KeyFrame kf1, KeyFrame kf2, int targetFrame, Box box) {
+        if (targetFrame <= kf1.frameNumber) {
+            kf1.applyToBox(box);
+            return;
+        }
+        if (targetFrame >= kf2.frameNumber) {
+            kf2.applyToBox(box);
+            return;
+        }
 
-        return new KeyFrame(
-                targetFrame,
-                lerp(kf1.x, kf2.x, t),
-                lerp(kf1.y, kf2.y, t),
-                lerp(kf1.vx, kf2.vx, t),
-                lerp(kf1.vy, kf2.vy, t),
-                lerpAngle(kf1.angle, kf2.angle, t),
-                lerp(kf1.angularVelocity, kf2.angularVelocity, t),
-                lerp(kf1.mass, kf2.mass, t),
-                lerp(kf1.restitution, kf2.restitution, t),
-                lerp(kf1.friction, kf2.friction, t),
-                lerp(kf1.linearDamping, kf2.linearDamping, t),
-                lerp(kf1.angularDamping, kf2.angularDamping, t),
-                lerp(kf1.gravity, kf2.gravity, t));
+        double t = (double) (targetFrame - kf1.frameNumber) / (kf2.frameNumber - kf1.frameNumber);
+        box.setXY(lerp(kf1.x, kf2.x, t), lerp(kf1.y, kf2.y, t));
+        box.setVxVy(lerp(kf1.vx, kf2.vx, t), lerp(kf1.vy, kf2.vy, t));
+        box.setAngle(lerpAngle(kf1.angle, kf2.angle, t));
+        box.setAngularVelocity(lerp(kf1.angularVelocity, kf2.angularVelocity, t));
+        box.setMass(lerp(kf1.mass, kf2.mass, t));
+        box.setRestitution(lerp(kf1.restitution, kf2.restitution, t));
+        box.setFriction(lerp(kf1.friction, kf2.friction, t));
+        box.setLinearDamping(lerp(kf1.linearDamping, kf2.linearDamping, t));
+        box.setAngularDamping(lerp(kf1.angularDamping, kf2.angularDamping, t));
+        box.setG(lerp(kf1.gravity, kf2.gravity, t));
     }
 
     private static double lerp(double a, double b, double t) {
@@ -0,0 +1,26 @@
+package report;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * キーフレームの補間値を物体に適用したときの JFR イベント。既定では無効。
+ */
+@Name("report.KeyFrameApply")
+@Label("Keyframe Apply")
+@Description("キーフレームの補間値を物体に適用した")
+@Category({"BoxKeyFrameAnimation", "Keyframe"})
+@Enabled(false)
+@StackTrace(false)
+class KeyFrameApplyEvent extends Event {
+    @Label("Frame")
+    int frame;
+
+    @Label("Parameters Applied")
+    int parametersApplied;
+}
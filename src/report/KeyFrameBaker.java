@@ -0,0 +1,239 @@
+package report;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * シミュレーション結果を、誤差の上限を守る最小限のキーフレームに焼き込むクラス。
+ * 毎フレームの値を Ramer–Douglas–Peucker 法で間引く。残したキーどうしを線形補間したとき、
+ * 元の値との差がどのフレームでも許容誤差以下になる。トラックどうしは独立なので並列に処理する。
+ * 焼き込んだ KeyFrameData はキー駆動(KeyFrameData.setKinematic)になり、再生ではキーがそのまま動きになる。
+ *
+ * <pre>
+ * 使い方: java -cp bin report.KeyFrameBaker [許容誤差(%)]
+ * </pre>
+ *
+ * 基準シーンを焼き込み、キー駆動で再生し直した軌跡が許容誤差に収まるかを確かめる。外れたら終了コード 1。
+ */
+public class KeyFrameBaker {
+    /** 焼き込むトラック。物理パラメータは元のキーフレームがそのまま答えなので含めない。 */
+    public static final KeyFrameData.ParamType[] STATE_PARAMS = KeyFrameData.STATE_PARAMS.clone();
+
+    /**
+     * 最初に区間をこの長さで区切る。RDP は分け方が偏ると区間の長さの2乗かかるので、
+     * 区切りのキーが少し増える代わりに長いトラックでも時間をフレーム数に比例させる。
+     */
+    static final int WINDOW = 4096;
+
+    private KeyFrameBaker() {
+    }
+
+    /**
+     * values[0..count) を間引いて残すフレームの番号を昇順で返す。最初と最後は必ず残す。
+     * 再帰の代わりに区間のスタックを使うので、100万フレームでも深さで落ちない。
+     * WINDOW ごとの区切りも残す。
+     */
+    public static int[] simplify(double[] values, int count, double tolerance) {
+        if (count <= 2) {
+            int[] all = new int[count];
+            for (int i = 0; i < count; i++) {
+                all[i] = i;
+            }
+            return all;
+        }
+
+        boolean[] keep = new boolean[count];
+        int windows = (count - 2) / WINDOW + 1;
+        int[] stack = new int[Math.max(64, windows * 2 + 64)];
+        int top = 0;
+        for (int start = 0; start < count - 1; start += WINDOW) {
+            int end = Math.min(start + WINDOW, count - 1);
+            keep[start] = true;
+            keep[end] = true;
+            stack[top++] = start;
+            stack[top++] = end;
+        }
+        while (top > 0) {
+            int last = stack[--top];
+            int first = stack[--top];
+            double v0 = values[first];
+            double delta = values[last] - v0;
+            int worst = -1;
+            double worstError = tolerance;
+            for (int i = first + 1; i < last; i++) {
+                // KeyFrameData の線形補間と同じ式で比べる。
+                double t = (double) (i - first) / (last - first);
+                double error = Math.abs(values[i] - (v0 + delta * t));
+                if (error > worstError) {
+                    worstError = error;
+                    worst = i;
+                }
+            }
+            if (worst < 0) {
+                continue;
+            }
+            keep[worst] = true;
+            if (top + 4 > stack.length) {
+                stack = Arrays.copyOf(stack, stack.length * 2);
+            }
+            stack[top++] = first;
+            stack[top++] = worst;
+            stack[top++] = worst;
+            stack[top++] = last;
+        }
+
+        int kept = 0;
+        for (boolean k : keep) {
+            if (k) {
+                kept++;
+            }
+        }
+        int[] frames = new int[kept];
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+            if (keep[i]) {
+                frames[n++] = i;
+            }
+        }
+        return frames;
+    }
+
+    /**
+     * 全トラックを並列に間引く。許容誤差は各トラックの値の幅に対する割合で与える。
+     */
+    public static int[][] simplifyAll(double[][] tracks, int count, double relativeTolerance) {
+        int[][] result = new int[tracks.length][];
+        IntStream.range(0, tracks.length).parallel().forEach(track -> {
+            double tolerance = relativeTolerance * range(tracks[track], count);
+            result[track] = simplify(tracks[track], count, Math.max(tolerance, 1e-12));
+        });
+        return result;
+    }
+
+    private static double range(double[] values, int count) {
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < count; i++) {
+            min = Math.min(min, values[i]);
+            max = Math.max(max, values[i]);
+        }
+        return count == 0 ? 0 : max - min;
+    }
+
+    /**
+     * scene を0フレーム目から再生し、body の STATE_PARAMS を count フレーム分記録する。
+     * 1フレームの進め方はタイムラインの再生と同じ(Scene.applyKeyFrames の後に World.step)。
+     */
+    public static double[][] record(Scene scene, Body body, int count) {
+        double[][] tracks = new double[STATE_PARAMS.length][count];
+        World world = scene.getWorld();
+        world.goHome();
+        scene.applyKeyFrames(0);
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                scene.applyKeyFrames(i - 1);
+                world.step();
+            }
+            for (int track = 0; track < STATE_PARAMS.length; track++) {
+                tracks[track][i] = body.getParameter(STATE_PARAMS[track]);
+            }
+        }
+        return tracks;
+    }
+
+    /**
+     * apply で置き換わる既存のキー(0 から count - 1 フレームの STATE_PARAMS のキー)の数。
+     */
+    public static int countReplaced(KeyFrameData data, int count) {
+        int replaced = 0;
+        for (KeyFrameData.ParamType type : STATE_PARAMS) {
+            replaced += data.getKeyFrames(type).headMap(count).size();
+        }
+        return replaced;
+    }
+
+    /**
+     * 間引いた結果で data の STATE_PARAMS の 0 から count - 1 フレームのキーを置き換え、キー駆動にする。
+     * tracks は STATE_PARAMS の順。範囲の外のキーはそのまま残す。戻り値は登録したキーの数。
+     */
+    public static int apply(KeyFrameData data, double[][] tracks, int[][] kept, int count) {
+        int registered = 0;
+        data.beginBulkEdit();
+        try {
+            for (int track = 0; track < STATE_PARAMS.length; track++) {
+                KeyFrameData.ParamType type = STATE_PARAMS[track];
+                Integer[] existing = data.getKeyFrames(type).headMap(count).keySet().toArray(new Integer[0]);
+                for (Integer frame : existing) {
+                    data.deleteKeyFrame(type, frame);
+                }
+                for (int frame : kept[track]) {
+                    data.registerKeyFrame(type, frame, tracks[track][frame]);
+                    registered++;
+                }
+            }
+            data.setKinematic(true);
+        } finally {
+            data.endBulkEdit();
+        }
+        return registered;
+    }
+
+    public static void main(String[] args) {
+        double percent = args.length > 0 ? Double.parseDouble(args[0]) : 0.5;
+        int count = AnimationConfig.MAX_FRAME + 1;
+
+        // 壁と障害物で跳ね返り、途中で重力と質量が変わる基準シーン。
+        HeadlessSimulation simulation = new HeadlessSimulation(AnimationConfig.POSITION_X_MAX,
+                AnimationConfig.POSITION_Y_MAX);
+        Scene scene = new Scene(new World());
+        Box box = new Box(simulation.getPanel());
+        box.setObstacles(new ObstacleBvh(List.of(
+                new RectangleObstacle(300, 400, 120, 40),
+                new SegmentObstacle(500, 300, 700, 450))));
+        box.goHome();
+        KeyFrameData data = new KeyFrameData();
+        data.registerAllFromBox(0, box);
+        data.registerKeyFrame(KeyFrameData.ParamType.GRAVITY, 120, 1.5);
+        data.registerKeyFrame(KeyFrameData.ParamType.MASS, 200, 3.0);
+        scene.addBox("Box 1", box, data);
+
+        double[][] tracks = record(scene, box, count);
+        int[][] kept = simplifyAll(tracks, count, percent / 100.0);
+        apply(data, tracks, kept, count);
+        double[][] replayed = record(scene, box, count);
+        // キー駆動の再生で goHome の初期値が変わっていないこと: もう一度再生しても同じになり、
+        // キー駆動を切れば焼き込む前の物理の軌跡に戻る。
+        double[][] replayedAgain = record(scene, box, count);
+        data.setKinematic(false);
+        double[][] simulated = record(scene, box, count);
+
+        boolean failed = false;
+        for (int track = 0; track < STATE_PARAMS.length; track++) {
+            double tolerance = Math.max(percent / 100.0 * range(tracks[track], count), 1e-12);
+            double worst = 0;
+            boolean driven = true;
+            boolean repeatable = true;
+            for (int i = 0; i < count; i++) {
+                worst = Math.max(worst, Math.abs(replayed[track][i] - tracks[track][i]));
+                // 物理で動いていないこと: 0フレーム目からキーの補間値そのものになる。
+                if (Double.compare(replayed[track][i], data.getValue(STATE_PARAMS[track], i)) != 0) {
+                    driven = false;
+                }
+                if (Double.compare(replayedAgain[track][i], replayed[track][i]) != 0
+                        || Double.compare(simulated[track][i], tracks[track][i]) != 0) {
+                    repeatable = false;
+                }
+            }
+            // 補間の丸めの分だけ余裕を見る。
+            boolean ok = driven && repeatable && worst <= tolerance * (1 + 1e-9);
+            failed |= !ok;
+            System.out.printf("%-16s %s  キー %4d / %d  最大誤差 %.6g (許容 %.6g)%s%n",
+                    STATE_PARAMS[track].getDisplayName(), ok ? "OK" : "NG", kept[track].length, count,
+                    worst, tolerance, repeatable ? "" : "  再生し直すと変わる");
+        }
+        if (failed) {
+            System.exit(1);
+        }
+    }
+}
@@ -1,10 +1,16 @@
 package report;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.TreeMap;
 
 /**
  * タイムラインの生データを保持するクラス。
- * ParamTypeごとにTreeMap(frame -> value)を持ち、前後の値から線形補間して中間フレームの値を推定する。
+ * ParamTypeごとにTreeMap(frame -> value)を持ち、前後の値から補間して中間フレームの値を推定する。
+ * 補間の方法はキーごとに Interpolation で選べ、そのキーから次のキーまでの区間に使う(既定は線形)。
+ * 再生で使うのは通常は物理パラメータのキーだけで、位置・速度・角度はシミュレーションが決める。
+ * キー駆動(setKinematic)にすると、位置・速度・角度のキーがそのまま物体の動きになる。
  */
 public class KeyFrameData {
     public enum ParamType {
@@ -34,23 +40,187 @@ public class KeyFrameData {
         }
     }
 
+    /**
+     * キーから次のキーまでの区間の補間方法。
+     */
+    public enum Interpolation {
+        STEP("ステップ"),
+        LINEAR("線形"),
+        CATMULL_ROM("Catmull-Rom"),
+        EASE("イーズ");
+
+        private final String displayName;
+
+        Interpolation(String displayName) {
+            this.displayName = displayName;
+        }
+
+        public String getDisplayName() {
+            return displayName;
+        }
+    }
+
+    static final ParamType[] PHYSICS_PARAMS = {
+            ParamType.WIDTH, ParamType.HEIGHT, ParamType.MASS, ParamType.RESTITUTION, ParamType.FRICTION,
+            ParamType.LINEAR_DAMPING, ParamType.ANGULAR_DAMPING, ParamType.GRAVITY
+    };
+
+    /** キー駆動のときにキーで直接動かす状態のパラメータ。 */
+    static final ParamType[] STATE_PARAMS = {
+            ParamType.X, ParamType.Y, ParamType.VX, ParamType.VY, ParamType.ANGLE, ParamType.ANGULAR_VELOCITY
+    };
+
+    /**
+     * キーフレームの追加・削除を受け取るリスナー。編集スレッド(EDT)から呼ばれるので、重い処理はしないこと。
+     */
+    public interface EditListener {
+        void keyFrameRegistered(ParamType type, int frame, double value);
+
+        void keyFrameDeleted(ParamType type, int frame);
+
+        void keyFramesCleared();
+
+        /**
+         * 補間方法が変わった。係数の作り直しは keyFrameRegistered でも知らされるので、
+         * 補間方法そのものを記録したいリスナーだけが実装する。
+         */
+        default void interpolationChanged(ParamType type, int frame, Interpolation mode) {
+        }
+
+        /**
+         * キー駆動かどうかが変わった。キーは変わらないので、再生結果を持つリスナーだけが実装する。
+         */
+        default void kinematicChanged(boolean kinematic) {
+        }
+
+        /**
+         * 焼き込みや読み込みのようにキーをまとめて書き換える操作が始まった。
+         * 操作中の個々の編集もこれまでどおり知らされる。
+         */
+        default void bulkEditStarted() {
+        }
+
+        /**
+         * まとめて書き換える操作が終わった。snapshot は終わった時点の内容。
+         */
+        default void bulkEditFinished(KeyFrameSnapshot snapshot) {
+        }
+    }
+
     private TreeMap<ParamType, TreeMap<Integer, Double>> keyFrames;
+    /** LINEAR 以外の補間方法を持つキーだけを入れる。 */
+    private final TreeMap<ParamType, TreeMap<Integer, Interpolation>> interpolations = new TreeMap<>();
     private ParamType selectedParamType = null;
     private Integer selectedFrame = null;
+    private final List<EditListener> listeners = new ArrayList<>();
+    /** beginBulkEdit の入れ子の深さ。 */
+    private int bulkEditDepth = 0;
+    private final KeyFramePyramid[] pyramids = new KeyFramePyramid[ParamType.values().length];
+    /**
+     * getValue 用の区間の係数。1つのキーの編集では変わった前後の区間だけを直す。
+     * 消去やまとめての書き換えでは印だけ付け、次に使うときにまとめて作り直す。
+     */
+    private final TrackCurve[] curves = new TrackCurve[ParamType.values().length];
+    private final boolean[] curveDirty = new boolean[ParamType.values().length];
+    /** TreeMap と同じ内容を持つ変更できない木。編集ごとに O(log n) で新しい版に差し替え、snapshot() で渡す。 */
+    private final PersistentTrack[] persistentTracks = new PersistentTrack[ParamType.values().length];
+    private boolean kinematic = false;
 
     public KeyFrameData() {
         keyFrames = new TreeMap<>();
         for (ParamType type : ParamType.values()) {
             keyFrames.put(type, new TreeMap<>());
+            interpolations.put(type, new TreeMap<>());
         }
+        Arrays.fill(persistentTracks, PersistentTrack.EMPTY);
+    }
+
+    public void addEditListener(EditListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeEditListener(EditListener listener) {
+        listeners.remove(listener);
     }
 
     public void registerKeyFrame(ParamType type, int frame, double value) {
         keyFrames.get(type).put(frame, value);
+        persistentTracks[type.ordinal()] = persistentTracks[type.ordinal()].put(frame, value,
+                getInterpolation(type, frame));
+        pyramids[type.ordinal()] = null;
+        updateCurve(type, frame);
+        for (EditListener listener : listeners) {
+            listener.keyFrameRegistered(type, frame, value);
+        }
     }
 
     public void deleteKeyFrame(ParamType type, int frame) {
-        keyFrames.get(type).remove(frame);
+        if (keyFrames.get(type).remove(frame) != null) {
+            interpolations.get(type).remove(frame);
+            persistentTracks[type.ordinal()] = persistentTracks[type.ordinal()].remove(frame);
+            pyramids[type.ordinal()] = null;
+            updateCurve(type, frame);
+            for (EditListener listener : listeners) {
+                listener.keyFrameDeleted(type, frame);
+            }
+        }
+    }
+
+    public void clear() {
+        for (TreeMap<Integer, Double> frames : keyFrames.values()) {
+            frames.clear();
+        }
+        for (TreeMap<Integer, Interpolation> modes : interpolations.values()) {
+            modes.clear();
+        }
+        Arrays.fill(persistentTracks, PersistentTrack.EMPTY);
+        Arrays.fill(pyramids, null);
+        Arrays.fill(curveDirty, true);
+        clearSelection();
+        for (EditListener listener : listeners) {
+            listener.keyFramesCleared();
+        }
+    }
+
+    /**
+     * 指定フレーム以外のキーフレームをすべて削除する。
+     */
+    public void deleteAllExcept(int keepFrame) {
+        beginBulkEdit();
+        try {
+            for (ParamType type : ParamType.values()) {
+                Integer[] frames = keyFrames.get(type).keySet().toArray(new Integer[0]);
+                for (Integer frame : frames) {
+                    if (frame != keepFrame) {
+                        deleteKeyFrame(type, frame);
+                    }
+                }
+            }
+        } finally {
+            endBulkEdit();
+        }
+        clearSelection();
+    }
+
+    /**
+     * キーをまとめて書き換える操作の前に呼ぶ。endBulkEdit と対にし、入れ子にしてよい。
+     * ジャーナルのように編集を1件ずつ記録するリスナーは、終わったときの内容をまとめて記録できる。
+     */
+    public void beginBulkEdit() {
+        if (bulkEditDepth++ == 0) {
+            for (EditListener listener : listeners) {
+                listener.bulkEditStarted();
+            }
+        }
+    }
+
+    public void endBulkEdit() {
+        if (--bulkEditDepth == 0) {
+            KeyFrameSnapshot snapshot = snapshot();
+            for (EditListener listener : listeners) {
+                listener.bulkEditFinished(snapshot);
+            }
+        }
     }
 
     public void deleteSelectedKeyFrame() {
@@ -68,35 +238,189 @@ public class KeyFrameData {
             return null;
         }
 
-        if (frames.containsKey(frame)) {
-            return frames.get(frame);
+        return getCurve(type).value(frame);
+    }
+
+    /**
+     * 区間ごとの係数に直したトラック。編集されるまで作り直さない。
+     */
+    TrackCurve getCurve(ParamType type) {
+        int index = type.ordinal();
+        if (curves[index] == null) {
+            curves[index] = new TrackCurve();
+            curveDirty[index] = true;
+        }
+        if (curveDirty[index]) {
+            curves[index].set(keyFrames.get(type), interpolations.get(type));
+            curveDirty[index] = false;
+        }
+        return curves[index];
+    }
+
+    /**
+     * frame のキーが変わったことを係数に伝える。まとめて書き換える間は1件ずつ直すと配列をずらす分だけ
+     * 遅くなるので、印を付けて終わってから作り直す。
+     */
+    private void updateCurve(ParamType type, int frame) {
+        int index = type.ordinal();
+        TrackCurve curve = curves[index];
+        if (curve == null || curveDirty[index]) {
+            return;
+        }
+        if (bulkEditDepth > 0) {
+            curveDirty[index] = true;
+            return;
+        }
+        Double value = keyFrames.get(type).get(frame);
+        if (value == null) {
+            curve.remove(frame);
+        } else {
+            curve.put(frame, value, getInterpolation(type, frame));
+        }
+    }
+
+    /**
+     * frame のキーから次のキーまでの補間方法を変える。キーが無ければ何もしない。
+     * 係数が変わるので、値を変えずにキーを登録し直したものとしてリスナーに知らせる。
+     */
+    public void setInterpolation(ParamType type, int frame, Interpolation mode) {
+        Double value = keyFrames.get(type).get(frame);
+        if (value == null) {
+            return;
+        }
+        if (mode == Interpolation.LINEAR) {
+            interpolations.get(type).remove(frame);
+        } else {
+            interpolations.get(type).put(frame, mode);
+        }
+        persistentTracks[type.ordinal()] = persistentTracks[type.ordinal()].put(frame, value, mode);
+        updateCurve(type, frame);
+        for (EditListener listener : listeners) {
+            listener.keyFrameRegistered(type, frame, value);
+            listener.interpolationChanged(type, frame, mode);
+        }
+    }
+
+    public Interpolation getInterpolation(ParamType type, int frame) {
+        return interpolations.get(type).getOrDefault(frame, Interpolation.LINEAR);
+    }
+
+    TreeMap<Integer, Interpolation> getInterpolations(ParamType type) {
+        return interpolations.get(type);
+    }
+
+    /**
+     * 0 から out.length - 1 フレームまでの getValue の結果を out に入れる。キーがなければ NaN。
+     * キーを順にたどるので、フレームごとに getValue を呼ぶより速い。
+     */
+    void fillValues(ParamType type, double[] out) {
+        if (keyFrames.get(type).isEmpty()) {
+            Arrays.fill(out, Double.NaN);
+            return;
+        }
+        TrackCurve curve = getCurve(type);
+        int first = curve.frameAt(0);
+        int last = curve.frameAt(curve.size() - 1);
+        int segment = 0;
+        for (int frame = 0; frame < out.length; frame++) {
+            if (frame <= first) {
+                out[frame] = curve.valueAt(0);
+            } else if (frame >= last) {
+                out[frame] = curve.valueAt(curve.size() - 1);
+            } else {
+                while (curve.frameAt(segment + 1) <= frame) {
+                    segment++;
+                }
+                out[frame] = curve.evaluate(segment, frame);
+            }
         }
+    }
 
-        Integer prevFrame = frames.floorKey(frame);
-        Integer nextFrame = frames.ceilingKey(frame);
+    /**
+     * 現在のキーフレームの変更できない写し。木を共有するだけなのでコピーせず O(1) で作れ、
+     * このあと編集しても変わらないので、別スレッドへ鍵なしで渡せる。
+     */
+    public KeyFrameSnapshot snapshot() {
+        return new KeyFrameSnapshot(persistentTracks.clone(), kinematic);
+    }
 
-        if (prevFrame != null && nextFrame != null) {
-            return interpolate(frames.get(prevFrame), frames.get(nextFrame),
-                    prevFrame, nextFrame, frame);
-        } else if (prevFrame != null) {
-            return frames.get(prevFrame);
-        } else if (nextFrame != null) {
-            return frames.get(nextFrame);
+    /**
+     * snapshot の frame のキー(値と補間方法)をこのデータに戻す。snapshot にキーが無ければ削除する。
+     * 元に戻す・やり直しで使い、変わったものだけをリスナーに知らせる。
+     */
+    void restoreKeyFrame(KeyFrameSnapshot snapshot, ParamType type, int frame) {
+        PersistentTrack track = snapshot.track(type);
+        if (!track.contains(frame)) {
+            deleteKeyFrame(type, frame);
+            return;
+        }
+        double value = track.keyValue(frame);
+        Double current = keyFrames.get(type).get(frame);
+        if (current == null || Double.compare(current, value) != 0) {
+            registerKeyFrame(type, frame, value);
         }
+        Interpolation mode = track.mode(frame);
+        if (getInterpolation(type, frame) != mode) {
+            setInterpolation(type, frame, mode);
+        }
+    }
 
-        return null;
+    /**
+     * すべてのキーとキー駆動かどうかを snapshot と同じにする。リスナーには消去と登録し直しとして知らせる。
+     */
+    void restoreAll(KeyFrameSnapshot snapshot) {
+        clear();
+        for (ParamType type : ParamType.values()) {
+            snapshot.track(type).forEach((frame, value, mode) -> {
+                registerKeyFrame(type, frame, value);
+                if (mode != Interpolation.LINEAR) {
+                    setInterpolation(type, frame, mode);
+                }
+            });
+        }
+        setKinematic(snapshot.isKinematic());
+    }
+
+    public boolean isKinematic() {
+        return kinematic;
     }
 
-    private double interpolate(double prevValue, double nextValue,
-            int prevFrame, int nextFrame, int currentFrame) {
-        double t = (double) (currentFrame - prevFrame) / (nextFrame - prevFrame);
-        return prevValue + (nextValue - prevValue) * t;
+    /**
+     * キー駆動にするかどうか。キー駆動では再生の1フレームごとに、状態のパラメータを
+     * 次のフレームのキーの補間値へ物理を解かずに移す(Body.setKinematicTarget)。
+     */
+    public void setKinematic(boolean kinematic) {
+        if (this.kinematic == kinematic) {
+            return;
+        }
+        this.kinematic = kinematic;
+        for (EditListener listener : listeners) {
+            listener.kinematicChanged(kinematic);
+        }
     }
 
     public TreeMap<Integer, Double> getKeyFrames(ParamType type) {
         return keyFrames.get(type);
     }
 
+    /**
+     * タイムラインの縮小表示に使うキー位置の索引。編集されるまで作り直さない。
+     */
+    KeyFramePyramid getPyramid(ParamType type) {
+        KeyFramePyramid pyramid = pyramids[type.ordinal()];
+        if (pyramid == null) {
+            TreeMap<Integer, Double> frames = keyFrames.get(type);
+            int[] sorted = new int[frames.size()];
+            int i = 0;
+            for (int frame : frames.keySet()) {
+                sorted[i++] = frame;
+            }
+            pyramid = new KeyFramePyramid(sorted, sorted.length);
+            pyramids[type.ordinal()] = pyramid;
+        }
+        return pyramid;
+    }
+
     public boolean hasKeyFrame(ParamType type, int frame) {
         return keyFrames.get(type).containsKey(frame);
     }
@@ -118,36 +442,51 @@ public class KeyFrameData {
     }
 
     public void registerAllFromBox(int frame, Box box) {
-        registerKeyFrame(ParamType.X, frame, box.getX());
-        registerKeyFrame(ParamType.Y, frame, box.getY());
-        registerKeyFrame(ParamType.VX, frame, box.getVx());
-        registerKeyFrame(ParamType.VY, frame, box.getVy());
-        registerKeyFrame(ParamType.ANGLE, frame, box.getAngle());
-        registerKeyFrame(ParamType.ANGULAR_VELOCITY, frame, box.getAngularVelocity());
-        registerKeyFrame(ParamType.WIDTH, frame, box.getWidth());
-        registerKeyFrame(ParamType.HEIGHT, frame, box.getHeight());
-        registerKeyFrame(ParamType.MASS, frame, box.getMass());
-        registerKeyFrame(ParamType.RESTITUTION, frame, box.getRestitution());
-        registerKeyFrame(ParamType.FRICTION, frame, box.getFriction());
-        registerKeyFrame(ParamType.LINEAR_DAMPING, frame, box.getLinearDamping());
-        registerKeyFrame(ParamType.ANGULAR_DAMPING, frame, box.getAngularDamping());
-        registerKeyFrame(ParamType.GRAVITY, frame, box.getG());
+        registerAllFromBody(frame, box);
+    }
+
+    /**
+     * 物体が持つ全パラメータをこのフレームのキーフレームとして登録する。
+     */
+    public void registerAllFromBody(int frame, Body body) {
+        for (ParamType type : ParamType.values()) {
+            if (body.hasParameter(type)) {
+                registerKeyFrame(type, frame, body.getParameter(type));
+            }
+        }
     }
 
     public void applyToBox(int frame, Box box) {
-        applyIfNotNull(getValue(ParamType.WIDTH, frame), box::setWidth);
-        applyIfNotNull(getValue(ParamType.HEIGHT, frame), box::setHeight);
-        applyIfNotNull(getValue(ParamType.MASS, frame), box::setMass);
-        applyIfNotNull(getValue(ParamType.RESTITUTION, frame), box::setRestitution);
-        applyIfNotNull(getValue(ParamType.FRICTION, frame), box::setFriction);
-        applyIfNotNull(getValue(ParamType.LINEAR_DAMPING, frame), box::setLinearDamping);
-        applyIfNotNull(getValue(ParamType.ANGULAR_DAMPING, frame), box::setAngularDamping);
-        applyIfNotNull(getValue(ParamType.GRAVITY, frame), box::setG);
-    }
-
-    private void applyIfNotNull(Double value, java.util.function.DoubleConsumer setter) {
-        if (value != null) {
-            setter.accept(value);
+        applyToBody(frame, box);
+    }
+
+    /**
+     * 物理パラメータ(大きさ・質量・係数・重力)を補間値で上書きする。
+     * 座標や速度はシミュレーションに任せるが、キー駆動なら次のフレームの値を移動先として渡す。
+     */
+    public void applyToBody(int frame, Body body) {
+        KeyFrameApplyEvent event = new KeyFrameApplyEvent();
+        event.begin();
+        int applied = 0;
+        for (ParamType type : PHYSICS_PARAMS) {
+            // getValue の Double を介さず、係数から直接求めてボクシングを避ける。
+            if (body.hasParameter(type) && !keyFrames.get(type).isEmpty()) {
+                body.setParameter(type, getCurve(type).value(frame));
+                applied++;
+            }
+        }
+        if (kinematic) {
+            for (ParamType type : STATE_PARAMS) {
+                if (body.hasParameter(type) && !keyFrames.get(type).isEmpty()) {
+                    body.setKinematicTarget(type, getCurve(type).value(frame + 1));
+                    applied++;
+                }
+            }
+        }
+        if (event.shouldCommit()) {
+            event.frame = frame;
+            event.parametersApplied = applied;
+            event.commit();
         }
     }
 
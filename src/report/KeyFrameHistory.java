@@ -0,0 +1,205 @@
+package report;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * キーフレーム編集の元に戻す・やり直し。
+ * 1回の操作(同じ EDT イベントの中で起きた編集)ごとに、操作の前後の KeyFrameSnapshot と
+ * 変わったキーの一覧を記録する。スナップショットは変わっていない部分木を共有するので、
+ * 全キーをコピーせずに1回の編集あたり O(log n) のメモリで済む。
+ * 元に戻すときは変わったキーだけを前のスナップショットの値に戻す。
+ */
+public class KeyFrameHistory {
+    private static final class Entry {
+        final Recorder recorder;
+        final KeyFrameSnapshot before;
+        KeyFrameSnapshot after;
+        final KeyFrameData.ParamType[] types;
+        final int[] frames;
+        /** 最後にまとめた編集の時刻。まとめるたびに進めるので、続けている間は間隔だけを見る。 */
+        long time;
+
+        Entry(Recorder recorder, KeyFrameSnapshot before, KeyFrameSnapshot after,
+                KeyFrameData.ParamType[] types, int[] frames, long time) {
+            this.recorder = recorder;
+            this.before = before;
+            this.after = after;
+            this.types = types;
+            this.frames = frames;
+            this.time = time;
+        }
+
+        boolean isSingleKey(Recorder other, KeyFrameData.ParamType type, int frame) {
+            return recorder == other && types.length == 1 && types[0] == type && frames[0] == frame;
+        }
+    }
+
+    /**
+     * 1つの KeyFrameData の編集を受け取るリスナー。最後に確定した操作のあとのスナップショットを持つ。
+     */
+    private final class Recorder implements KeyFrameData.EditListener {
+        final KeyFrameData data;
+        KeyFrameSnapshot committed;
+
+        Recorder(KeyFrameData data) {
+            this.data = data;
+            this.committed = data.snapshot();
+        }
+
+        @Override
+        public void keyFrameRegistered(KeyFrameData.ParamType type, int frame, double value) {
+            changed(this, type, frame);
+        }
+
+        @Override
+        public void keyFrameDeleted(KeyFrameData.ParamType type, int frame) {
+            changed(this, type, frame);
+        }
+
+        @Override
+        public void keyFramesCleared() {
+            // 消えたキーは操作の前のスナップショットから分かる。
+            for (KeyFrameData.ParamType type : KeyFrameData.ParamType.values()) {
+                committed.track(type).forEach((frame, value, mode) -> changed(this, type, frame));
+            }
+        }
+
+        @Override
+        public void kinematicChanged(boolean kinematic) {
+            // キー駆動かどうかは restore で毎回スナップショットに合わせるので、操作を始めるだけでよい。
+            begin(this);
+        }
+    }
+
+    private final ArrayDeque<Entry> undoStack = new ArrayDeque<>();
+    private final ArrayDeque<Entry> redoStack = new ArrayDeque<>();
+
+    /** 確定前の操作。pendingRecorder が null なら無い。 */
+    private Recorder pendingRecorder;
+    private KeyFrameData.ParamType[] pendingTypes = new KeyFrameData.ParamType[16];
+    private int[] pendingFrames = new int[16];
+    private int pendingCount = 0;
+    private boolean applying = false;
+
+    /**
+     * data の編集を記録し始める。今の内容が元に戻せる一番古い状態になる。
+     */
+    public void attach(KeyFrameData data) {
+        data.addEditListener(new Recorder(data));
+    }
+
+    private boolean begin(Recorder recorder) {
+        if (applying) {
+            return false;
+        }
+        if (pendingRecorder != recorder) {
+            commitPending();
+            pendingRecorder = recorder;
+            SwingUtilities.invokeLater(this::commitPending);
+        }
+        return true;
+    }
+
+    private void changed(Recorder recorder, KeyFrameData.ParamType type, int frame) {
+        if (!begin(recorder)) {
+            return;
+        }
+        if (pendingCount == pendingFrames.length) {
+            pendingTypes = Arrays.copyOf(pendingTypes, pendingCount * 2);
+            pendingFrames = Arrays.copyOf(pendingFrames, pendingCount * 2);
+        }
+        pendingTypes[pendingCount] = type;
+        pendingFrames[pendingCount] = frame;
+        pendingCount++;
+    }
+
+    /**
+     * 確定前の操作を1つの履歴にする。同じ1つのキーだけを続けて変えた操作(同じフレームで同じパラメータの
+     * 「登録」を押し直す、タイムラインで同じキーの補間方法を変え直すなど)は、前の編集から
+     * UNDO_MERGE_MS 以内なら直前の履歴にまとめる。スライダーを動かすだけではキーは変わらない。
+     */
+    private void commitPending() {
+        Recorder recorder = pendingRecorder;
+        if (recorder == null) {
+            return;
+        }
+        pendingRecorder = null;
+        KeyFrameSnapshot after = recorder.data.snapshot();
+        KeyFrameSnapshot before = recorder.committed;
+        recorder.committed = after;
+        long now = System.currentTimeMillis();
+        Entry last = undoStack.peekFirst();
+        if (pendingCount == 1 && last != null && now - last.time <= AnimationConfig.UNDO_MERGE_MS
+                && last.isSingleKey(recorder, pendingTypes[0], pendingFrames[0])) {
+            last.after = after;
+            last.time = now;
+        } else {
+            undoStack.addFirst(new Entry(recorder, before, after, Arrays.copyOf(pendingTypes, pendingCount),
+                    Arrays.copyOf(pendingFrames, pendingCount), now));
+            if (undoStack.size() > AnimationConfig.UNDO_LIMIT) {
+                undoStack.removeLast();
+            }
+        }
+        pendingCount = 0;
+        redoStack.clear();
+    }
+
+    public boolean canUndo() {
+        return pendingRecorder != null || !undoStack.isEmpty();
+    }
+
+    public boolean canRedo() {
+        return pendingRecorder == null && !redoStack.isEmpty();
+    }
+
+    /**
+     * 最後の操作を元に戻す。戻せたら true。
+     */
+    public boolean undo() {
+        commitPending();
+        Entry entry = undoStack.pollFirst();
+        if (entry == null) {
+            return false;
+        }
+        restore(entry, entry.before);
+        redoStack.addFirst(entry);
+        return true;
+    }
+
+    /**
+     * 元に戻した操作をやり直す。やり直せたら true。
+     */
+    public boolean redo() {
+        commitPending();
+        Entry entry = redoStack.pollFirst();
+        if (entry == null) {
+            return false;
+        }
+        restore(entry, entry.after);
+        undoStack.addFirst(entry);
+        return true;
+    }
+
+    private void restore(Entry entry, KeyFrameSnapshot target) {
+        KeyFrameData data = entry.recorder.data;
+        applying = true;
+        try {
+            data.setKinematic(target.isKinematic());
+            for (int i = 0; i < entry.frames.length; i++) {
+                data.restoreKeyFrame(target, entry.types[i], entry.frames[i]);
+            }
+        } finally {
+            applying = false;
+        }
+        entry.recorder.committed = data.snapshot();
+    }
+
+    public void clear() {
+        commitPending();
+        undoStack.clear();
+        redoStack.clear();
+    }
+}
@@ -0,0 +1,330 @@
+package report;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * キーフレーム編集の自動保存用ジャーナル。
+ * 編集は EDT からロックなしのキューに積むだけで、ディスクへの書き込みと fsync は
+ * バックグラウンドのスレッドが一定間隔でまとめて行う。ジャーナルが大きくなったら
+ * 現在の内容をスナップショットに書き出してジャーナルを空にする(コンパクション)。
+ * 焼き込みや読み込みのようにまとめて書き換える操作は1件ずつ記録せず、終わったときの内容で
+ * すぐにコンパクションする。
+ *
+ * ファイルはどちらも 14 バイト固定長のレコードの並び:
+ * op(byte) type(byte) frame(int) value(double)。補間方法の変更は value に Interpolation の ordinal を入れる。
+ * キー駆動の切り替えは value が 1(オン)か 0(オフ)。
+ * 正常終了時にはファイルを消すので、起動時に残っていれば前回は異常終了している。
+ */
+public class KeyFrameJournal implements KeyFrameData.EditListener {
+    private static final byte OP_REGISTER = 1;
+    private static final byte OP_DELETE = 2;
+    private static final byte OP_CLEAR = 3;
+    private static final byte OP_INTERPOLATION = 4;
+    private static final byte OP_KINEMATIC = 5;
+    private static final int RECORD_BYTES = 2 + Integer.BYTES + Double.BYTES;
+
+    private static final String JOURNAL_FILE = "autosave.journal";
+    private static final String SNAPSHOT_FILE = "autosave.snapshot";
+
+    private static final class Edit {
+        final byte op;
+        final byte type;
+        final int frame;
+        final double value;
+        /** null でなければ、まとめて書き換えた後の内容。写しをこれに置き換えてコンパクションする。 */
+        final KeyFrameSnapshot snapshot;
+
+        Edit(byte op, int type, int frame, double value) {
+            this.op = op;
+            this.type = (byte) type;
+            this.frame = frame;
+            this.value = value;
+            this.snapshot = null;
+        }
+
+        Edit(KeyFrameSnapshot snapshot) {
+            this.op = 0;
+            this.type = 0;
+            this.frame = 0;
+            this.value = 0.0;
+            this.snapshot = snapshot;
+        }
+    }
+
+    private final Path journalPath;
+    private final Path snapshotPath;
+    private final ConcurrentLinkedQueue<Edit> queue = new ConcurrentLinkedQueue<>();
+    private final ScheduledExecutorService writer;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+
+    /** 書き込みスレッドだけが触る、ジャーナルに書いた内容の写し。コンパクションに使う。 */
+    private final KeyFrameData shadow = new KeyFrameData();
+    private FileChannel journal;
+    private long journalRecords = 0;
+    private boolean recovered = false;
+    /** まとめて書き換える操作の途中なら true。EDT だけが触る。 */
+    private boolean bulkEdit = false;
+
+    private KeyFrameJournal(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        this.journalPath = directory.resolve(JOURNAL_FILE);
+        this.snapshotPath = directory.resolve(SNAPSHOT_FILE);
+        this.writer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "keyframe-journal");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * ジャーナルを開く。前回のファイルが残っていれば、その内容を data に適用してから書き込みを始める。
+     * 写しは適用した後の data から作るので、開く前からあったキーもコンパクションで失われない。
+     * 復元したかどうかは hasRecovered で分かる。
+     */
+    public static KeyFrameJournal open(Path directory, KeyFrameData data) throws IOException {
+        KeyFrameJournal journal = new KeyFrameJournal(directory);
+        journal.recover(data);
+        journal.start();
+        return journal;
+    }
+
+    public boolean hasRecovered() {
+        return recovered;
+    }
+
+    private void recover(KeyFrameData data) throws IOException {
+        boolean hasSnapshot = Files.exists(snapshotPath);
+        boolean hasJournal = Files.exists(journalPath);
+        recovered = hasSnapshot || hasJournal;
+        if (hasSnapshot) {
+            replay(snapshotPath, data);
+        }
+        if (hasJournal) {
+            replay(journalPath, data);
+        }
+        // 書き込みスレッドが始まる前なので、ここでは写しに触ってよい。
+        shadow.restoreAll(data.snapshot());
+    }
+
+    /**
+     * 末尾の書きかけのレコードは無視する。
+     */
+    private static void replay(Path path, KeyFrameData data) throws IOException {
+        KeyFrameData.ParamType[] types = KeyFrameData.ParamType.values();
+        KeyFrameData.Interpolation[] modes = KeyFrameData.Interpolation.values();
+        ByteBuffer records = ByteBuffer.wrap(Files.readAllBytes(path)).order(ByteOrder.LITTLE_ENDIAN);
+        while (records.remaining() >= RECORD_BYTES) {
+            byte op = records.get();
+            int type = records.get();
+            int frame = records.getInt();
+            double value = records.getDouble();
+            if (op == OP_CLEAR) {
+                data.clear();
+            } else if (op == OP_KINEMATIC) {
+                data.setKinematic(value != 0);
+            } else if (type >= 0 && type < types.length) {
+                if (op == OP_REGISTER) {
+                    data.registerKeyFrame(types[type], frame, value);
+                } else if (op == OP_DELETE) {
+                    data.deleteKeyFrame(types[type], frame);
+                } else if (op == OP_INTERPOLATION && value >= 0 && value < modes.length) {
+                    data.setInterpolation(types[type], frame, modes[(int) value]);
+                }
+            }
+        }
+    }
+
+    private void start() throws IOException {
+        journal = FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        journalRecords = journal.size() / RECORD_BYTES;
+        writer.scheduleWithFixedDelay(this::flushQuietly, AnimationConfig.JOURNAL_FLUSH_INTERVAL_MS,
+                AnimationConfig.JOURNAL_FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void keyFrameRegistered(KeyFrameData.ParamType type, int frame, double value) {
+        offer(new Edit(OP_REGISTER, type.ordinal(), frame, value));
+    }
+
+    @Override
+    public void keyFrameDeleted(KeyFrameData.ParamType type, int frame) {
+        offer(new Edit(OP_DELETE, type.ordinal(), frame, 0.0));
+    }
+
+    @Override
+    public void keyFramesCleared() {
+        offer(new Edit(OP_CLEAR, 0, 0, 0.0));
+    }
+
+    @Override
+    public void interpolationChanged(KeyFrameData.ParamType type, int frame, KeyFrameData.Interpolation mode) {
+        offer(new Edit(OP_INTERPOLATION, type.ordinal(), frame, mode.ordinal()));
+    }
+
+    @Override
+    public void kinematicChanged(boolean kinematic) {
+        offer(new Edit(OP_KINEMATIC, 0, 0, kinematic ? 1.0 : 0.0));
+    }
+
+    @Override
+    public void bulkEditStarted() {
+        bulkEdit = true;
+    }
+
+    /**
+     * 操作中の編集は記録していないので、終わった時点の内容で写しを置き換えてすぐにコンパクションする。
+     */
+    @Override
+    public void bulkEditFinished(KeyFrameSnapshot snapshot) {
+        bulkEdit = false;
+        queue.offer(new Edit(snapshot));
+        if (!writer.isShutdown()) {
+            writer.execute(this::flushQuietly);
+        }
+    }
+
+    private void offer(Edit edit) {
+        if (!bulkEdit) {
+            queue.offer(edit);
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * キューに溜まった編集を書き出して fsync する。書き込みスレッドからのみ呼ぶ。
+     */
+    private void flush() throws IOException {
+        if (queue.isEmpty()) {
+            return;
+        }
+
+        KeyFrameData.ParamType[] types = KeyFrameData.ParamType.values();
+        Edit edit;
+        while ((edit = queue.poll()) != null) {
+            if (edit.snapshot != null) {
+                // それより前の記録はスナップショットに含まれるので、書きかけの分は捨ててすぐにコンパクションする。
+                buffer.clear();
+                shadow.restoreAll(edit.snapshot);
+                compact();
+                continue;
+            }
+            if (buffer.remaining() < RECORD_BYTES) {
+                writeBuffer(journal);
+            }
+            putRecord(edit.op, edit.type, edit.frame, edit.value);
+            journalRecords++;
+
+            if (edit.op == OP_REGISTER) {
+                shadow.registerKeyFrame(types[edit.type], edit.frame, edit.value);
+            } else if (edit.op == OP_DELETE) {
+                shadow.deleteKeyFrame(types[edit.type], edit.frame);
+            } else if (edit.op == OP_INTERPOLATION) {
+                shadow.setInterpolation(types[edit.type], edit.frame,
+                        KeyFrameData.Interpolation.values()[(int) edit.value]);
+            } else if (edit.op == OP_KINEMATIC) {
+                shadow.setKinematic(edit.value != 0);
+            } else {
+                shadow.clear();
+            }
+        }
+        writeBuffer(journal);
+        journal.force(false);
+
+        if (journalRecords >= AnimationConfig.JOURNAL_COMPACT_RECORDS) {
+            compact();
+        }
+    }
+
+    /**
+     * 写しの内容をスナップショットとして書き、差し替えてからジャーナルを空にする。
+     * 差し替え後・切り詰め前に落ちても、同じ操作をもう一度適用するだけなので結果は変わらない。
+     */
+    private void compact() throws IOException {
+        Path temp = snapshotPath.resolveSibling(SNAPSHOT_FILE + ".tmp");
+        try (FileChannel snapshot = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (KeyFrameData.ParamType type : KeyFrameData.ParamType.values()) {
+                for (Map.Entry<Integer, Double> entry : shadow.getKeyFrames(type).entrySet()) {
+                    if (buffer.remaining() < RECORD_BYTES) {
+                        writeBuffer(snapshot);
+                    }
+                    putRecord(OP_REGISTER, (byte) type.ordinal(), entry.getKey(), entry.getValue());
+                }
+                for (Map.Entry<Integer, KeyFrameData.Interpolation> entry
+                        : shadow.getInterpolations(type).entrySet()) {
+                    if (buffer.remaining() < RECORD_BYTES) {
+                        writeBuffer(snapshot);
+                    }
+                    putRecord(OP_INTERPOLATION, (byte) type.ordinal(), entry.getKey(), entry.getValue().ordinal());
+                }
+            }
+            if (shadow.isKinematic()) {
+                if (buffer.remaining() < RECORD_BYTES) {
+                    writeBuffer(snapshot);
+                }
+                putRecord(OP_KINEMATIC, (byte) 0, 0, 1.0);
+            }
+            writeBuffer(snapshot);
+            snapshot.force(true);
+        }
+        Files.move(temp, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        journal.truncate(0);
+        journal.force(true);
+        journalRecords = 0;
+    }
+
+    private void putRecord(byte op, byte type, int frame, double value) {
+        buffer.put(op).put(type).putInt(frame).putDouble(value);
+    }
+
+    private void writeBuffer(FileChannel channel) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * 正常終了。残りを書き出してからファイルを削除する。
+     * 書き込みスレッドが時間内に終わらなければ、同時に書かないよう何もせずファイルを残す。
+     * 次の起動で、書けたところまでが復元される。
+     */
+    public void close() {
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(AnimationConfig.JOURNAL_CLOSE_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                return;
+            }
+            flush();
+            journal.close();
+            Files.deleteIfExists(journalPath);
+            Files.deleteIfExists(snapshotPath);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package report;
+
+import java.util.Arrays;
+
+/**
+ * 1本のトラックのキーフレーム位置を多段の解像度でまとめた索引。
+ * 段 k ではフレームを 2^k ずつのバケットに分け、キーを含むバケットの番号と個数だけを昇順に持つ。
+ * 1ピクセルに何フレームも入る縮小表示では、1ピクセル以下の幅の段を選んで見えている範囲の
+ * バケットだけをなめれば済むので、描画量はフレーム数ではなく画面の幅で決まる。
+ */
+class KeyFramePyramid {
+    private final int[][] buckets;
+    private final int[][] counts;
+
+    KeyFramePyramid(int[] sortedFrames, int length) {
+        int levels = 1;
+        if (length > 0) {
+            levels = 33 - Integer.numberOfLeadingZeros(Math.max(sortedFrames[length - 1], 1));
+        }
+        buckets = new int[levels][];
+        counts = new int[levels][];
+
+        int[] previousBuckets = Arrays.copyOf(sortedFrames, length);
+        int[] previousCounts = new int[length];
+        Arrays.fill(previousCounts, 1);
+        buckets[0] = previousBuckets;
+        counts[0] = previousCounts;
+
+        for (int level = 1; level < levels; level++) {
+            int size = previousBuckets.length;
+            int[] levelBuckets = new int[size];
+            int[] levelCounts = new int[size];
+            int n = 0;
+            for (int i = 0; i < size; i++) {
+                int bucket = previousBuckets[i] >> 1;
+                if (n > 0 && levelBuckets[n - 1] == bucket) {
+                    levelCounts[n - 1] += previousCounts[i];
+                } else {
+                    levelBuckets[n] = bucket;
+                    levelCounts[n] = previousCounts[i];
+                    n++;
+                }
+            }
+            previousBuckets = Arrays.copyOf(levelBuckets, n);
+            previousCounts = Arrays.copyOf(levelCounts, n);
+            buckets[level] = previousBuckets;
+            counts[level] = previousCounts;
+        }
+    }
+
+    int getLevelCount() {
+        return buckets.length;
+    }
+
+    /**
+     * バケットの幅が framesPerPixel を超えない一番粗い段。
+     */
+    int levelFor(double framesPerPixel) {
+        if (framesPerPixel < 2) {
+            return 0;
+        }
+        int level = 63 - Long.numberOfLeadingZeros((long) framesPerPixel);
+        return Math.min(level, buckets.length - 1);
+    }
+
+    int size(int level) {
+        return buckets[level].length;
+    }
+
+    /**
+     * level 段で bucket 以上の最初のバケットの位置。
+     */
+    int lowerBound(int level, int bucket) {
+        int found = Arrays.binarySearch(buckets[level], bucket);
+        return found >= 0 ? found : -found - 1;
+    }
+
+    int bucketAt(int level, int index) {
+        return buckets[level][index];
+    }
+
+    int countAt(int level, int index) {
+        return counts[level][index];
+    }
+}
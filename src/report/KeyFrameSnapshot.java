@@ -0,0 +1,69 @@
+package report;
+
+/**
+ * ある時点の KeyFrameData の変更できない写し。KeyFrameData.snapshot() で作る。
+ * トラックは PersistentTrack で、前後の版と変わっていない部分木を共有するので、
+ * 編集のたびに作っても増えるメモリは O(log n)。どのスレッドからも鍵なしで読める。
+ */
+public final class KeyFrameSnapshot {
+    private final PersistentTrack[] tracks;
+    private final boolean kinematic;
+
+    KeyFrameSnapshot(PersistentTrack[] tracks, boolean kinematic) {
+        this.tracks = tracks;
+        this.kinematic = kinematic;
+    }
+
+    public boolean isKinematic() {
+        return kinematic;
+    }
+
+    PersistentTrack track(KeyFrameData.ParamType type) {
+        return tracks[type.ordinal()];
+    }
+
+    public int getKeyCount(KeyFrameData.ParamType type) {
+        return track(type).size();
+    }
+
+    public boolean hasKeyFrame(KeyFrameData.ParamType type, int frame) {
+        return track(type).contains(frame);
+    }
+
+    /**
+     * frame のキーの値。キーが無ければ NaN。
+     */
+    public double getKeyValue(KeyFrameData.ParamType type, int frame) {
+        return track(type).keyValue(frame);
+    }
+
+    public KeyFrameData.Interpolation getInterpolation(KeyFrameData.ParamType type, int frame) {
+        return track(type).mode(frame);
+    }
+
+    /**
+     * KeyFrameData.getValue と同じ補間値。キーが無ければ NaN。
+     */
+    public double getValue(KeyFrameData.ParamType type, int frame) {
+        return track(type).value(frame);
+    }
+
+    /**
+     * KeyFrameData.applyToBody と同じ規則で適用する。物理パラメータは補間値で上書きし、
+     * キー駆動なら状態のパラメータを次のフレームの移動先として渡す。
+     */
+    public void applyToBody(int frame, Body body) {
+        for (KeyFrameData.ParamType type : KeyFrameData.PHYSICS_PARAMS) {
+            if (body.hasParameter(type) && !track(type).isEmpty()) {
+                body.setParameter(type, track(type).value(frame));
+            }
+        }
+        if (kinematic) {
+            for (KeyFrameData.ParamType type : KeyFrameData.STATE_PARAMS) {
+                if (body.hasParameter(type) && !track(type).isEmpty()) {
+                    body.setKinematicTarget(type, track(type).value(frame + 1));
+                }
+            }
+        }
+    }
+}
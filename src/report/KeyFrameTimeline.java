@@ -2,6 +2,7 @@ package report;
 
 import java.awt.*;
 import java.awt.event.*;
+import java.io.IOException;
 import javax.swing.*;
 
 /**
@@ -11,10 +12,15 @@ public class KeyFrameTimeline {
     private int currentFrame = 0;
     private int maxFrame = AnimationConfig.MAX_FRAME;
     private final KeyFrameData keyFrameData;
+    private final KeyFrameHistory editHistory = new KeyFrameHistory();
 
     private JLabel frameLabel;
     private TimelinePanel timelinePanel;
+    private CurveEditorPanel curveEditorPanel;
+    private JComboBox<String> curveObjectBox;
+    private JComboBox<KeyFrameData.ParamType> curveTypeBox;
     private JButton playButton;
+    private JCheckBox kinematicBox;
 
     private final Box box;
     private final AnimationPanel animationPanel;
@@ -27,15 +33,27 @@ public class KeyFrameTimeline {
 
     private boolean updatingSliders = false;
 
+    /** replaySimulationToFrame が最後に再現したフレームとその時点の全物体の状態。 */
+    private World.State seekCacheState;
+    private int seekCacheFrame = -1;
+
     private JPanel timelineViewPanel;
     private JPanel parameterPanel;
 
     public KeyFrameTimeline(Box box, AnimationPanel animationPanel) {
         this.box = box;
         this.animationPanel = animationPanel;
-        this.keyFrameData = new KeyFrameData();
+        this.keyFrameData = animationPanel.getScene().getObject(0).getKeyFrameData();
 
         keyFrameData.registerAllFromBox(0, box);
+        keyFrameData.addEditListener(seekCacheInvalidator);
+        editHistory.attach(keyFrameData);
+        animationPanel.addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentResized(ComponentEvent e) {
+                invalidateSeekCache();
+            }
+        });
 
         createTimelineViewPanel();
         createParameterPanel();
@@ -43,6 +61,31 @@ public class KeyFrameTimeline {
         updateSlidersFromBox();
     }
 
+    /**
+     * キーフレームの編集でシークキャッシュを捨てるリスナー。シーンの全物体に付ける。
+     */
+    private final KeyFrameData.EditListener seekCacheInvalidator = new KeyFrameData.EditListener() {
+            @Override
+            public void keyFrameRegistered(KeyFrameData.ParamType type, int frame, double value) {
+                invalidateSeekCache();
+            }
+
+            @Override
+            public void keyFrameDeleted(KeyFrameData.ParamType type, int frame) {
+                invalidateSeekCache();
+            }
+
+            @Override
+            public void keyFramesCleared() {
+                invalidateSeekCache();
+            }
+
+            @Override
+            public void kinematicChanged(boolean kinematic) {
+                invalidateSeekCache();
+            }
+        };
+
     public JPanel getTimelineViewPanel() {
         return timelineViewPanel;
     }
@@ -56,7 +99,7 @@ public class KeyFrameTimeline {
         UIStyles.stylePanel(timelineViewPanel, "タイムライン");
 
         timelineViewPanel.add(createControlPanel(), BorderLayout.NORTH);
-        timelinePanel = new TimelinePanel(keyFrameData);
+        timelinePanel = new TimelinePanel(animationPanel.getScene());
         timelinePanel.addPropertyChangeListener("currentFrame", evt -> {
             int frame = timelinePanel.getCurrentFrame();
             setCurrentFrame(frame);
@@ -66,11 +109,59 @@ public class KeyFrameTimeline {
 
         timelineScroll.setInputMap(JComponent.WHEN_ANCESTOR_OF_FOCUSED_COMPONENT, null);
 
-        timelineViewPanel.add(timelineScroll, BorderLayout.CENTER);
+        JTabbedPane tabs = new JTabbedPane();
+        tabs.addTab("トラック", timelineScroll);
+        tabs.addTab("カーブ", createCurveEditorPanel());
+        timelineViewPanel.add(tabs, BorderLayout.CENTER);
 
         setupKeyBindings();
     }
 
+    /**
+     * 物体とパラメータを選ぶコンボボックスとカーブエディタ。
+     * 選び直すとシミュレーションの記録を取り直すため、現在のフレームまで再生し直す。
+     */
+    private JPanel createCurveEditorPanel() {
+        Scene scene = animationPanel.getScene();
+        curveEditorPanel = new CurveEditorPanel(scene, animationPanel.getHistory());
+
+        curveObjectBox = new JComboBox<>();
+        for (int id = 0; id < scene.getObjectCount(); id++) {
+            curveObjectBox.addItem(scene.getObject(id).getName());
+        }
+        curveTypeBox = new JComboBox<>(KeyFrameData.ParamType.values());
+        curveTypeBox.setRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index,
+                    boolean isSelected, boolean cellHasFocus) {
+                Object label = value instanceof KeyFrameData.ParamType
+                        ? ((KeyFrameData.ParamType) value).getDisplayName()
+                        : value;
+                return super.getListCellRendererComponent(list, label, index, isSelected, cellHasFocus);
+            }
+        });
+        ActionListener targetChanged = e -> {
+            int id = Math.max(0, curveObjectBox.getSelectedIndex());
+            KeyFrameData.ParamType type = (KeyFrameData.ParamType) curveTypeBox.getSelectedItem();
+            curveEditorPanel.setTarget(id, type);
+            animationPanel.getHistory().watch(scene.getObject(id).getBody(), type);
+            invalidateSeekCache();
+            setCurrentFrame(currentFrame);
+        };
+        curveObjectBox.addActionListener(targetChanged);
+        curveTypeBox.addActionListener(targetChanged);
+
+        JPanel selector = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        selector.setBackground(UIStyles.PANEL_BACKGROUND);
+        selector.add(curveObjectBox);
+        selector.add(curveTypeBox);
+
+        JPanel panel = new JPanel(new BorderLayout());
+        panel.add(selector, BorderLayout.NORTH);
+        panel.add(curveEditorPanel, BorderLayout.CENTER);
+        return panel;
+    }
+
     private void setupKeyBindings() {
         InputMap inputMap = timelinePanel.getInputMap(JComponent.WHEN_FOCUSED);
         ActionMap actionMap = timelinePanel.getActionMap();
@@ -94,6 +185,44 @@ public class KeyFrameTimeline {
                 }
             }
         });
+
+        // 元に戻す・やり直しはスライダーの入力欄にフォーカスがあっても効くようにする。
+        InputMap windowInputMap = timelineViewPanel.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW);
+        ActionMap windowActionMap = timelineViewPanel.getActionMap();
+        windowInputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_Z, InputEvent.CTRL_DOWN_MASK), "undo");
+        windowActionMap.put("undo", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                undo();
+            }
+        });
+
+        windowInputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_Y, InputEvent.CTRL_DOWN_MASK), "redo");
+        windowInputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_Z,
+                InputEvent.CTRL_DOWN_MASK | InputEvent.SHIFT_DOWN_MASK), "redo");
+        windowActionMap.put("redo", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                redo();
+            }
+        });
+    }
+
+    /**
+     * 最後のキーフレーム編集を元に戻し、現在のフレームを再現し直す。
+     */
+    private void undo() {
+        if (!animationPanel.isPlaying() && editHistory.undo()) {
+            timelinePanel.repaint();
+            setCurrentFrame(currentFrame);
+        }
+    }
+
+    private void redo() {
+        if (!animationPanel.isPlaying() && editHistory.redo()) {
+            timelinePanel.repaint();
+            setCurrentFrame(currentFrame);
+        }
     }
 
     private void createParameterPanel() {
@@ -137,7 +266,7 @@ public class KeyFrameTimeline {
         navigationPanel.add(nextButton);
         navigationPanel.add(lastButton);
 
-        JPanel buttonPanel = new JPanel(new GridLayout(2, 3, 5, 5));
+        JPanel buttonPanel = new JPanel(new GridLayout(2, 4, 5, 5));
 
         JButton registerAllButton = new JButton("全登録");
         registerAllButton.addActionListener(e -> {
@@ -175,15 +304,76 @@ public class KeyFrameTimeline {
             }
         });
 
+        JButton saveButton = new JButton("保存");
+        saveButton.addActionListener(e -> {
+            if (!animationPanel.isPlaying()) {
+                saveProject();
+            }
+        });
+        UIStyles.styleButton(saveButton);
+
+        JButton loadButton = new JButton("読込");
+        loadButton.addActionListener(e -> {
+            if (!animationPanel.isPlaying()) {
+                loadProject();
+            }
+        });
+        UIStyles.styleButton(loadButton);
+
         buttonPanel.add(registerAllButton);
         buttonPanel.add(deleteButton);
         buttonPanel.add(clearButton);
         buttonPanel.add(playButton);
+        JButton addObjectButton = new JButton("物体追加");
+        addObjectButton.addActionListener(e -> {
+            if (!animationPanel.isPlaying()) {
+                addObject();
+            }
+        });
+        UIStyles.styleButton(addObjectButton);
+
+        JButton addBallButton = new JButton("ボール追加");
+        addBallButton.addActionListener(e -> {
+            if (!animationPanel.isPlaying()) {
+                addBall();
+            }
+        });
+        UIStyles.styleButton(addBallButton);
+
+        JButton bakeButton = new JButton("焼き込み");
+        bakeButton.addActionListener(e -> {
+            if (!animationPanel.isPlaying()) {
+                bakeToKeys();
+            }
+        });
+        UIStyles.styleButton(bakeButton);
+
+        buttonPanel.add(saveButton);
+        buttonPanel.add(loadButton);
+        buttonPanel.add(addObjectButton);
+        buttonPanel.add(addBallButton);
+        buttonPanel.add(bakeButton);
+
+        // 焼き込むとオンになる。オフなら位置・速度・角度のキーは再生に使われず、物理で動く。
+        kinematicBox = new JCheckBox("位置・速度・角度をキーで動かす(キー駆動)");
+        kinematicBox.setFont(UIStyles.FONT_REGULAR);
+        kinematicBox.setForeground(UIStyles.TEXT_PRIMARY);
+        kinematicBox.setBackground(UIStyles.PANEL_BACKGROUND);
+        kinematicBox.setAlignmentX(Component.CENTER_ALIGNMENT);
+        kinematicBox.addActionListener(e -> {
+            if (animationPanel.isPlaying()) {
+                kinematicBox.setSelected(keyFrameData.isKinematic());
+                return;
+            }
+            keyFrameData.setKinematic(kinematicBox.isSelected());
+            setCurrentFrame(currentFrame);
+        });
 
         panel.add(javax.swing.Box.createVerticalStrut(5));
         panel.add(navigationPanel);
         panel.add(javax.swing.Box.createVerticalStrut(5));
         panel.add(buttonPanel);
+        panel.add(kinematicBox);
 
         return panel;
     }
@@ -201,6 +391,7 @@ public class KeyFrameTimeline {
                 AnimationConfig.POSITION_MIN, AnimationConfig.POSITION_X_MAX, 0, 1.0,
                 val -> {
                     if (!updatingSliders && !animationPanel.isPlaying()) {
+                        invalidateSeekCache();
                         box.setX(val);
                         animationPanel.repaint();
                     }
@@ -210,6 +401,7 @@ public class KeyFrameTimeline {
                 AnimationConfig.POSITION_MIN, AnimationConfig.POSITION_Y_MAX, 0, 1.0,
                 val -> {
                     if (!updatingSliders && !animationPanel.isPlaying()) {
+                        invalidateSeekCache();
                         box.setY(val);
                         animationPanel.repaint();
                     }
@@ -223,6 +415,7 @@ public class KeyFrameTimeline {
                 AnimationConfig.VELOCITY_MIN, AnimationConfig.VELOCITY_MAX, 0, 1.0,
                 val -> {
                     if (!updatingSliders && !animationPanel.isPlaying()) {
+                        invalidateSeekCache();
                         box.setVx(val);
                     }
                 });
@@ -231,6 +424,7 @@ public class KeyFrameTimeline {
                 AnimationConfig.VELOCITY_MIN, AnimationConfig.VELOCITY_MAX, 0, 1.0,
                 val -> {
                     if (!updatingSliders && !animationPanel.isPlaying()) {
+                        invalidateSeekCache();
                         box.setVy(val);
                     }
                 });
@@ -243,6 +437,7 @@ public class KeyFrameTimeline {
                 AnimationConfig.ANGLE_MIN, AnimationConfig.ANGLE_MAX, 30, 1.0,
                 val -> {
                     if (!updatingSliders && !animationPanel.isPlaying()) {
+                        invalidateSeekCache();
                         box.setAngle(Math.toRadians(val));
                         animationPanel.repaint();
                     }
@@ -252,6 +447,7 @@ public class KeyFrameTimeline {
                 AnimationConfig.ANGULAR_VELOCITY_MIN, AnimationConfig.ANGULAR_VELOCITY_MAX, 10, 100.0,
                 val -> {
                     if (!updatingSliders && !animationPanel.isPlaying()) {
+                        invalidateSeekCache();
                         box.setAngularVelocity(val);
                     }
                 });
@@ -330,6 +526,7 @@ public class KeyFrameTimeline {
             java.util.function.Consumer<Double> setter, KeyFrameData.ParamType paramType, JPanel parentPanel) {
         ParameterSlider slider = new ParameterSlider(name, min, max, init, scale, val -> {
             if (!updatingSliders && !animationPanel.isPlaying()) {
+                invalidateSeekCache();
                 setter.accept(val);
             }
         });
@@ -339,51 +536,7 @@ public class KeyFrameTimeline {
         UIStyles.styleButton(registerButton);
         registerButton.addActionListener(e -> {
             if (!animationPanel.isPlaying()) {
-                double value = 0;
-                switch (paramType) {
-                    case X:
-                        value = box.getX();
-                        break;
-                    case Y:
-                        value = box.getY();
-                        break;
-                    case VX:
-                        value = box.getVx();
-                        break;
-                    case VY:
-                        value = box.getVy();
-                        break;
-                    case ANGLE:
-                        value = box.getAngle();
-                        break;
-                    case ANGULAR_VELOCITY:
-                        value = box.getAngularVelocity();
-                        break;
-                    case WIDTH:
-                        value = box.getWidth();
-                        break;
-                    case HEIGHT:
-                        value = box.getHeight();
-                        break;
-                    case MASS:
-                        value = box.getMass();
-                        break;
-                    case RESTITUTION:
-                        value = box.getRestitution();
-                        break;
-                    case FRICTION:
-                        value = box.getFriction();
-                        break;
-                    case LINEAR_DAMPING:
-                        value = box.getLinearDamping();
-                        break;
-                    case ANGULAR_DAMPING:
-                        value = box.getAngularDamping();
-                        break;
-                    case GRAVITY:
-                        value = box.getG();
-                        break;
-                }
+                double value = box.getParameter(paramType);
                 registerParameter(paramType, value);
             }
         });
@@ -421,7 +574,9 @@ public class KeyFrameTimeline {
 
         currentFrame = frame;
         frameLabel.setText("現在のフレーム: " + currentFrame);
+        kinematicBox.setSelected(keyFrameData.isKinematic());
         timelinePanel.setCurrentFrame(currentFrame);
+        curveEditorPanel.setCurrentFrame(currentFrame);
 
         if (!animationPanel.isPlaying()) {
             replaySimulationToFrame(frame);
@@ -433,7 +588,61 @@ public class KeyFrameTimeline {
     }
 
     public void applyKeyFrameData(int frame) {
-        keyFrameData.applyToBox(frame, box);
+        animationPanel.getScene().applyKeyFrames(frame);
+    }
+
+    /**
+     * 最初の Box と同じ大きさで、初速度だけ変えた Box をシーンに追加する。
+     */
+    private void addObject() {
+        Scene scene = animationPanel.getScene();
+        int id = scene.getObjectCount();
+        Box added = new Box(box.getWidth(), box.getHeight(), box.getX(), box.getY(),
+                box.getVx() + 3 * id, box.getVy() - 2 * id, objectColor(id), animationPanel);
+        added.setObstacles(animationPanel.getObstacles());
+        added.goHome();
+        scene.addBox("Box " + (id + 1), added, createObjectKeyFrames(added));
+        objectAdded(id);
+    }
+
+    /**
+     * 最初の Box の半分の幅を直径とし、初速度だけ変えた Ball をシーンに追加する。
+     */
+    private void addBall() {
+        Scene scene = animationPanel.getScene();
+        int id = scene.getObjectCount();
+        Ball added = new Ball(box.getWidth() / 4.0, box.getX(), box.getY(),
+                box.getVx() + 3 * id, box.getVy() - 2 * id, objectColor(id), animationPanel);
+        added.goHome();
+        scene.addBall("Ball " + (id + 1), added, createObjectKeyFrames(added));
+        objectAdded(id);
+    }
+
+    private static Color objectColor(int id) {
+        return UIStyles.OBJECT_COLORS[id % UIStyles.OBJECT_COLORS.length];
+    }
+
+    /**
+     * 追加する物体のキーフレーム。0フレーム目に物体が持つ全パラメータのキーを登録し、
+     * シークキャッシュと元に戻す履歴につなぐ。
+     */
+    private KeyFrameData createObjectKeyFrames(Body body) {
+        KeyFrameData data = new KeyFrameData();
+        data.registerAllFromBody(0, body);
+        data.addEditListener(seekCacheInvalidator);
+        editHistory.attach(data);
+        return data;
+    }
+
+    /**
+     * シーンに追加した物体をタイムラインには折りたたんだグループで出す。
+     */
+    private void objectAdded(int id) {
+        timelinePanel.rebuildRows();
+        timelinePanel.setCollapsed(id, true);
+        curveObjectBox.addItem(animationPanel.getScene().getObject(id).getName());
+        invalidateSeekCache();
+        setCurrentFrame(currentFrame);
     }
 
     public void updatePlayButtonText(String text) {
@@ -443,21 +652,77 @@ public class KeyFrameTimeline {
     }
 
     /**
-     * Boxを0フレーム目から順番に再生して、ターゲットフレームの状態を再現する。
+     * キーフレーム・初期値・シーンが変わったときに呼ぶ。次のシークは0フレーム目から再生し直す。
+     */
+    public void invalidateSeekCache() {
+        seekCacheState = null;
+        seekCacheFrame = -1;
+        animationPanel.getChecksumLog().clear();
+        animationPanel.getHistory().clear();
+        animationPanel.getOnionSkin().invalidate();
+    }
+
+    public void setMaxFrame(int maxFrame) {
+        this.maxFrame = maxFrame;
+        timelinePanel.setMaxFrame(maxFrame);
+        curveEditorPanel.setMaxFrame(maxFrame);
+        if (currentFrame > maxFrame) {
+            setCurrentFrame(maxFrame);
+        }
+    }
+
+    /**
+     * シーンを再生して、ターゲットフレームの状態を再現する。
+     * 前回再現したフレーム以降へのシークなら、その時点の状態から続きを再生する(シークキャッシュ)。
+     * それ以外は0フレーム目から再生し直す。
      */
     private void replaySimulationToFrame(int targetFrame) {
-        box.goHome();
-        keyFrameData.applyToBox(0, box);
+        ReplayEvent event = new ReplayEvent();
+        event.begin();
+
+        World world = animationPanel.getWorld();
+        int startFrame = 0;
+        boolean cacheHit = seekCacheState != null && seekCacheFrame <= targetFrame
+                && seekCacheState.getBodyCount() == world.getBodyCount();
+        if (cacheHit) {
+            world.restoreState(seekCacheState);
+            startFrame = seekCacheFrame;
+        } else {
+            world.goHome();
+            applyKeyFrameData(0);
+            animationPanel.getHistory().record(0);
+            animationPanel.getOnionSkin().record(0, box);
+        }
 
-        for (int i = 0; i < targetFrame; i++) {
-            keyFrameData.applyToBox(i, box);
-            box.next();
+        FrameChecksumLog checksumLog = animationPanel.getChecksumLog();
+        FrameChecksumLog.Source source = cacheHit
+                ? FrameChecksumLog.Source.RESTORED
+                : FrameChecksumLog.Source.REPLAY;
+        for (int i = startFrame; i < targetFrame; i++) {
+            applyKeyFrameData(i);
+            world.step();
+            checksumLog.record(i + 1, world, source);
+            animationPanel.getHistory().record(i + 1);
+            animationPanel.getOnionSkin().record(i + 1, box);
         }
 
-        keyFrameData.applyToBox(targetFrame, box);
+        applyKeyFrameData(targetFrame);
+        seekCacheState = world.saveState();
+        seekCacheFrame = targetFrame;
+        animationPanel.getStats().recordReplay(startFrame, targetFrame, cacheHit);
+
+        if (event.shouldCommit()) {
+            event.startFrame = startFrame;
+            event.targetFrame = targetFrame;
+            event.stepsReplayed = targetFrame - startFrame;
+            event.bodyCount = world.getBodyCount();
+            event.commit();
+        }
     }
 
     private void updateSlidersFromBox() {
+        SliderUpdateEvent event = new SliderUpdateEvent();
+        event.begin();
         updatingSliders = true;
 
         xSlider.setValue(box.getX());
@@ -476,6 +741,56 @@ public class KeyFrameTimeline {
         gravitySlider.setValue(box.getG());
 
         updatingSliders = false;
+        if (event.shouldCommit()) {
+            event.frame = currentFrame;
+            event.sliderCount = KeyFrameData.ParamType.values().length;
+            event.commit();
+        }
+    }
+
+    /**
+     * 0フレーム目から最後まで再生して Box の位置・速度・角度を毎フレーム記録し、
+     * 許容誤差(値の幅に対する%)に収まる最小限のキーに間引いて、その範囲のキーフレームと置き換える。
+     * 置き換わる既存のキーがあれば確認する。焼き込み後はキー駆動になり、キーの編集がそのまま動きに出る。
+     * 物理パラメータのトラックと、範囲より後ろのキーはそのまま残る。元に戻すで焼き込み前に戻せる。
+     */
+    private void bakeToKeys() {
+        String input = JOptionPane.showInputDialog(timelineViewPanel,
+                "許容誤差(各パラメータの値の幅に対する%)", "0.5");
+        if (input == null) {
+            return;
+        }
+        double percent;
+        try {
+            percent = Double.parseDouble(input.trim());
+        } catch (NumberFormatException ex) {
+            JOptionPane.showMessageDialog(timelineViewPanel, "数値を入力してください",
+                    "エラー", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+
+        int count = maxFrame + 1;
+        int replaced = KeyFrameBaker.countReplaced(keyFrameData, count);
+        if (replaced > 0) {
+            int result = JOptionPane.showConfirmDialog(timelineViewPanel,
+                    String.format("0〜%d フレームの位置・速度・角度のキー %,d 個を焼き込み結果で置き換えます。"
+                            + "よろしいですか?", maxFrame, replaced),
+                    "焼き込み", JOptionPane.YES_NO_OPTION);
+            if (result != JOptionPane.YES_OPTION) {
+                return;
+            }
+        }
+
+        KeyFrameData.ParamType[] types = KeyFrameBaker.STATE_PARAMS;
+        double[][] tracks = KeyFrameBaker.record(animationPanel.getScene(), box, count);
+        int[][] kept = KeyFrameBaker.simplifyAll(tracks, count, Math.max(percent, 0) / 100.0);
+        int registered = KeyFrameBaker.apply(keyFrameData, tracks, kept, count);
+
+        timelinePanel.repaint();
+        setCurrentFrame(currentFrame);
+        JOptionPane.showMessageDialog(timelineViewPanel,
+                String.format("%,d 個のサンプルを %,d 個のキーに焼き込みました(キー駆動で再生します)",
+                        count * types.length, registered));
     }
 
     private void registerAllKeyFrames() {
@@ -492,9 +807,11 @@ public class KeyFrameTimeline {
     }
 
     private void deleteSelectedKeyFrame() {
-        if (keyFrameData.getSelectedParamType() != null && keyFrameData.getSelectedFrame() != null) {
-            String paramName = keyFrameData.getSelectedParamType().getDisplayName();
-            int frame = keyFrameData.getSelectedFrame();
+        Scene.SceneObject selected = animationPanel.getScene().getSelectedObject();
+        if (selected != null && selected.getKeyFrameData().getSelectedFrame() != null) {
+            KeyFrameData selectedData = selected.getKeyFrameData();
+            String paramName = selectedData.getSelectedParamType().getDisplayName();
+            int frame = selectedData.getSelectedFrame();
 
             if (frame == 0) {
                 JOptionPane.showMessageDialog(timelineViewPanel,
@@ -504,11 +821,11 @@ public class KeyFrameTimeline {
             }
 
             int result = JOptionPane.showConfirmDialog(timelineViewPanel,
-                    "フレーム " + frame + " の " + paramName + " を削除しますか?",
+                    selected.getName() + " のフレーム " + frame + " の " + paramName + " を削除しますか?",
                     "キーフレーム削除", JOptionPane.YES_NO_OPTION);
 
             if (result == JOptionPane.YES_OPTION) {
-                keyFrameData.deleteSelectedKeyFrame();
+                selectedData.deleteSelectedKeyFrame();
                 timelinePanel.repaint();
             }
         } else {
@@ -524,16 +841,49 @@ public class KeyFrameTimeline {
                 "全削除", JOptionPane.YES_NO_OPTION);
 
         if (result == JOptionPane.YES_OPTION) {
-            for (KeyFrameData.ParamType type : KeyFrameData.ParamType.values()) {
-                var frames = keyFrameData.getKeyFrames(type);
-                frames.entrySet().removeIf(entry -> entry.getKey() != 0);
-            }
-            keyFrameData.clearSelection();
+            keyFrameData.deleteAllExcept(0);
             timelinePanel.repaint();
             JOptionPane.showMessageDialog(timelineViewPanel, "0フレーム目以外のキーフレームを削除しました");
         }
     }
 
+    private void saveProject() {
+        JFileChooser chooser = new JFileChooser();
+        if (chooser.showSaveDialog(timelineViewPanel) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+
+        try {
+            ProjectFile.save(chooser.getSelectedFile().toPath(), keyFrameData, box,
+                    animationPanel.getWidth(), animationPanel.getHeight());
+        } catch (IOException ex) {
+            JOptionPane.showMessageDialog(timelineViewPanel,
+                    "保存に失敗しました: " + ex.getMessage(),
+                    "エラー", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    private void loadProject() {
+        JFileChooser chooser = new JFileChooser();
+        if (chooser.showOpenDialog(timelineViewPanel) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+
+        try {
+            ProjectFile project = ProjectFile.open(chooser.getSelectedFile().toPath());
+            project.loadInto(keyFrameData, box);
+            invalidateSeekCache();
+        } catch (IOException ex) {
+            JOptionPane.showMessageDialog(timelineViewPanel,
+                    "読み込みに失敗しました: " + ex.getMessage(),
+                    "エラー", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+
+        timelinePanel.repaint();
+        setCurrentFrame(0);
+    }
+
     public int getCurrentFrame() {
         return currentFrame;
     }
@@ -541,4 +891,11 @@ public class KeyFrameTimeline {
     public KeyFrameData getKeyFrameData() {
         return keyFrameData;
     }
+
+    /**
+     * 元に戻す履歴を空にする。自動保存からの復元のように、元に戻せる操作にしない変更のあとに呼ぶ。
+     */
+    public void clearEditHistory() {
+        editHistory.clear();
+    }
 }
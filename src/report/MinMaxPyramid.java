@@ -0,0 +1,146 @@
+package report;
+
+import java.util.Arrays;
+
+/**
+ * 1フレーム1サンプルの値の列と、その最小値・最大値を 2^k フレームごとにまとめた段の組。
+ * 1ピクセルに何フレームも入るときは、列の範囲を 2 のべき乗のブロックに分けて段から読むので、
+ * 1列あたり O(log n) で最小値・最大値がわかり、描画量はサンプル数ではなく画面の幅で決まる。
+ * まだ値のないフレームは NaN で、最小値・最大値からは除く。
+ */
+class MinMaxPyramid {
+    private double[] samples = new double[0];
+    /** 段 k (k >= 1) の最小値・最大値。添字 0 は使わない(段 0 は samples そのもの)。 */
+    private double[][] mins = new double[1][];
+    private double[][] maxs = new double[1][];
+
+    MinMaxPyramid(int length) {
+        resize(length);
+    }
+
+    int length() {
+        return samples.length;
+    }
+
+    /**
+     * 長さを変える。値はすべて消える。
+     */
+    void resize(int length) {
+        samples = new double[length];
+        int levels = length <= 1 ? 1 : 33 - Integer.numberOfLeadingZeros(length - 1);
+        mins = new double[levels][];
+        maxs = new double[levels][];
+        for (int level = 1; level < levels; level++) {
+            int size = ((length - 1) >> level) + 1;
+            mins[level] = new double[size];
+            maxs[level] = new double[size];
+        }
+        clear();
+    }
+
+    void clear() {
+        Arrays.fill(samples, Double.NaN);
+        for (int level = 1; level < mins.length; level++) {
+            Arrays.fill(mins[level], Double.POSITIVE_INFINITY);
+            Arrays.fill(maxs[level], Double.NEGATIVE_INFINITY);
+        }
+    }
+
+    double get(int index) {
+        return samples[index];
+    }
+
+    /**
+     * 1サンプルを書き換え、含まれるブロックを上の段へ順に更新する。
+     */
+    void set(int index, double value) {
+        if (index < 0 || index >= samples.length) {
+            return;
+        }
+        samples[index] = value;
+        for (int level = 1; level < mins.length; level++) {
+            index >>= 1;
+            updateBlock(level, index);
+        }
+    }
+
+    /**
+     * samples をまとめて書き換えたあと、全段を下から作り直す。
+     */
+    void rebuild() {
+        for (int level = 1; level < mins.length; level++) {
+            for (int i = 0; i < mins[level].length; i++) {
+                updateBlock(level, i);
+            }
+        }
+    }
+
+    /**
+     * rebuild の前にまとめて書き込むための元の配列。
+     */
+    double[] samples() {
+        return samples;
+    }
+
+    private void updateBlock(int level, int index) {
+        int left = index << 1;
+        int right = left + 1;
+        double min;
+        double max;
+        if (level == 1) {
+            min = minOf(samples[left]);
+            max = maxOf(samples[left]);
+            if (right < samples.length) {
+                min = Math.min(min, minOf(samples[right]));
+                max = Math.max(max, maxOf(samples[right]));
+            }
+        } else {
+            double[] lowerMins = mins[level - 1];
+            double[] lowerMaxs = maxs[level - 1];
+            min = lowerMins[left];
+            max = lowerMaxs[left];
+            if (right < lowerMins.length) {
+                min = Math.min(min, lowerMins[right]);
+                max = Math.max(max, lowerMaxs[right]);
+            }
+        }
+        mins[level][index] = min;
+        maxs[level][index] = max;
+    }
+
+    private static double minOf(double sample) {
+        return Double.isNaN(sample) ? Double.POSITIVE_INFINITY : sample;
+    }
+
+    private static double maxOf(double sample) {
+        return Double.isNaN(sample) ? Double.NEGATIVE_INFINITY : sample;
+    }
+
+    /**
+     * from から to まで(両端を含む)の最小値と最大値を out[0], out[1] に入れる。
+     * 値が1つもなければ false。
+     */
+    boolean query(int from, int to, double[] out) {
+        from = Math.max(from, 0);
+        to = Math.min(to, samples.length - 1);
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        while (from <= to) {
+            // from から始まり to を越えない一番大きいブロックを取る。
+            int level = from == 0 ? 31 : Integer.numberOfTrailingZeros(from);
+            int span = 32 - Integer.numberOfLeadingZeros(to - from + 1) - 1;
+            level = Math.min(Math.min(level, span), mins.length - 1);
+            if (level == 0) {
+                min = Math.min(min, minOf(samples[from]));
+                max = Math.max(max, maxOf(samples[from]));
+            } else {
+                min = Math.min(min, mins[level][from >> level]);
+                max = Math.max(max, maxs[level][from >> level]);
+            }
+            from += 1 << level;
+        }
+        out[0] = min;
+        out[1] = max;
+        return min <= max;
+    }
+}
@@ -0,0 +1,78 @@
+package report;
+
+import java.awt.Graphics2D;
+
+/**
+ * 動かない障害物の基底クラス。外接矩形(AABB)を持ち、点との接触判定を行う。
+ * 判定は壁と同じく Box の頂点単位で行う。端点を持つ障害物は、端点が Box の辺に刺さる判定にも使う。
+ */
+public abstract class Obstacle {
+    /** getEndpointCount が返せる最大の数。 */
+    public static final int MAX_ENDPOINTS = 2;
+
+    protected double minX;
+    protected double minY;
+    protected double maxX;
+    protected double maxY;
+
+    public double getMinX() {
+        return minX;
+    }
+
+    public double getMinY() {
+        return minY;
+    }
+
+    public double getMaxX() {
+        return maxX;
+    }
+
+    public double getMaxY() {
+        return maxY;
+    }
+
+    /**
+     * 点 (px, py) が障害物から margin 未満の距離にあれば接触とみなし、
+     * out に {法線x, 法線y, 距離} を書いて true を返す。
+     * 法線は点を押し出す向き、距離はめり込んでいれば負の値。
+     */
+    public abstract boolean findContact(double px, double py, double margin, double[] out);
+
+    /**
+     * サブステップの初めに (prevX, prevY) にあった点が (px, py) へ動いたときの接触判定。
+     * 既定は動いた後の点だけで判定する。厚みのない障害物は、1回で通り抜けた点を見逃さないよう上書きする。
+     */
+    public boolean findContact(double prevX, double prevY, double px, double py, double margin, double[] out) {
+        return findContact(px, py, margin, out);
+    }
+
+    /**
+     * Box の辺に刺さりうる端点の数。既定は0。
+     */
+    public int getEndpointCount() {
+        return 0;
+    }
+
+    public double getEndpointX(int index) {
+        throw new IndexOutOfBoundsException("endpoint: " + index);
+    }
+
+    public double getEndpointY(int index) {
+        throw new IndexOutOfBoundsException("endpoint: " + index);
+    }
+
+    public abstract void draw(Graphics2D g2d);
+
+    protected void updateBounds(double[] xs, double[] ys) {
+        minX = Double.MAX_VALUE;
+        minY = Double.MAX_VALUE;
+        maxX = -Double.MAX_VALUE;
+        maxY = -Double.MAX_VALUE;
+        for (int i = 0; i < xs.length; i++) {
+            minX = Math.min(minX, xs[i]);
+            minY = Math.min(minY, ys[i]);
+            maxX = Math.max(maxX, xs[i]);
+            maxY = Math.max(maxY, ys[i]);
+        }
+    }
+}
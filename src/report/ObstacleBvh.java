@@ -0,0 +1,162 @@
+package report;
+
+import java.awt.Graphics2D;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 静的な障害物をまとめた境界ボリューム階層(BVH)。
+ * 構築時に外接矩形の長い軸で中央値分割し、ノードは配列にまとめて持つ。
+ * 問い合わせは矩形と重なる葉だけをたどるので、障害物 n 個に対しておよそ O(log n)。
+ */
+public class ObstacleBvh {
+    private static final int LEAF_SIZE = 4;
+
+    private final Obstacle[] obstacles;
+
+    private int nodeCount = 0;
+    private double[] nodeMinX;
+    private double[] nodeMinY;
+    private double[] nodeMaxX;
+    private double[] nodeMaxY;
+    /** 内部ノードなら子の番号、葉なら -1。 */
+    private int[] nodeLeft;
+    private int[] nodeRight;
+    private int[] nodeStart;
+    private int[] nodeSize;
+
+    public ObstacleBvh(List<Obstacle> obstacles) {
+        this.obstacles = obstacles.toArray(new Obstacle[0]);
+        int capacity = Math.max(1, 2 * this.obstacles.length);
+        nodeMinX = new double[capacity];
+        nodeMinY = new double[capacity];
+        nodeMaxX = new double[capacity];
+        nodeMaxY = new double[capacity];
+        nodeLeft = new int[capacity];
+        nodeRight = new int[capacity];
+        nodeStart = new int[capacity];
+        nodeSize = new int[capacity];
+        if (this.obstacles.length > 0) {
+            build(0, this.obstacles.length);
+        }
+    }
+
+    private int build(int start, int end) {
+        int node = nodeCount++;
+        double minX = Double.MAX_VALUE;
+        double minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE;
+        double maxY = -Double.MAX_VALUE;
+        for (int i = start; i < end; i++) {
+            minX = Math.min(minX, obstacles[i].getMinX());
+            minY = Math.min(minY, obstacles[i].getMinY());
+            maxX = Math.max(maxX, obstacles[i].getMaxX());
+            maxY = Math.max(maxY, obstacles[i].getMaxY());
+        }
+        nodeMinX[node] = minX;
+        nodeMinY[node] = minY;
+        nodeMaxX[node] = maxX;
+        nodeMaxY[node] = maxY;
+
+        if (end - start <= LEAF_SIZE) {
+            nodeLeft[node] = -1;
+            nodeRight[node] = -1;
+            nodeStart[node] = start;
+            nodeSize[node] = end - start;
+            return node;
+        }
+
+        Comparator<Obstacle> order = maxX - minX >= maxY - minY
+                ? Comparator.comparingDouble(o -> o.getMinX() + o.getMaxX())
+                : Comparator.comparingDouble(o -> o.getMinY() + o.getMaxY());
+        Arrays.sort(obstacles, start, end, order);
+
+        int mid = (start + end) >>> 1;
+        nodeLeft[node] = build(start, mid);
+        nodeRight[node] = build(mid, end);
+        return node;
+    }
+
+    public int size() {
+        return obstacles.length;
+    }
+
+    /**
+     * 障害物の番号は構築後の並び順で、問い合わせ結果や接触キャッシュのキーに使う。
+     */
+    public Obstacle get(int index) {
+        return obstacles[index];
+    }
+
+    /**
+     * 矩形と外接矩形が重なる障害物の番号を hits に詰め、その個数を返す。
+     */
+    public int query(double minX, double minY, double maxX, double maxY, Hits hits) {
+        hits.count = 0;
+        if (nodeCount == 0) {
+            return 0;
+        }
+
+        int[] stack = hits.stack;
+        int top = 0;
+        stack[top++] = 0;
+        while (top > 0) {
+            int node = stack[--top];
+            if (nodeMaxX[node] < minX || nodeMinX[node] > maxX
+                    || nodeMaxY[node] < minY || nodeMinY[node] > maxY) {
+                continue;
+            }
+
+            if (nodeLeft[node] < 0) {
+                int start = nodeStart[node];
+                int end = start + nodeSize[node];
+                for (int i = start; i < end; i++) {
+                    Obstacle o = obstacles[i];
+                    if (o.getMaxX() < minX || o.getMinX() > maxX || o.getMaxY() < minY || o.getMinY() > maxY) {
+                        continue;
+                    }
+                    hits.add(i);
+                }
+            } else {
+                if (top + 2 > stack.length) {
+                    stack = Arrays.copyOf(stack, stack.length * 2);
+                    hits.stack = stack;
+                }
+                stack[top++] = nodeLeft[node];
+                stack[top++] = nodeRight[node];
+            }
+        }
+        return hits.count;
+    }
+
+    public void draw(Graphics2D g2d) {
+        for (Obstacle obstacle : obstacles) {
+            obstacle.draw(g2d);
+        }
+    }
+
+    /**
+     * 問い合わせ結果と走査用スタック。呼び出し側ごとに1つ持って使い回す。
+     */
+    public static class Hits {
+        private int[] indices = new int[16];
+        private int[] stack = new int[64];
+        private int count = 0;
+
+        public int get(int i) {
+            return indices[i];
+        }
+
+        public int size() {
+            return count;
+        }
+
+        private void add(int index) {
+            if (count == indices.length) {
+                indices = Arrays.copyOf(indices, indices.length * 2);
+            }
+            indices[count++] = index;
+        }
+    }
+}
@@ -0,0 +1,406 @@
+package report;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * 記録した軌跡をヒープの外に置くストア。1フレーム・1物体あたり ParamType 順の double × 14 を
+ * 固定長で並べるので、フレーム番号と物体番号から位置が直接決まる。
+ * 領域はフレーム単位のチャンクに分け、記録が伸びて必要になったときに確保する。
+ * 既定はファイルをメモリマップしたバッファで、OS がページングするので記録の長さによらず
+ * ヒープと GC の負荷は変わらず、-XX:MaxDirectMemorySize の上限も受けない。
+ * ダイレクトバッファ(allocate)は短い記録向けで、記録した分だけダイレクトメモリを使う。
+ * どちらも close() で解放・アンマップする。
+ *
+ * <pre>
+ * ファイル: magic(int) version(int) bodyCount(int) frameCount(int) の後にフレームが並ぶ
+ * </pre>
+ *
+ * 使い方: java -cp bin report.OffHeapTrajectoryStore [物体数] [フレーム数] [ファイル]
+ */
+public class OffHeapTrajectoryStore implements TrajectorySink {
+    public static final int MAGIC = 0x53544B42; // "BKTS"
+    public static final int VERSION = 1;
+
+    private static final int HEADER_BYTES = Integer.BYTES * 4;
+    private static final int FIELD_COUNT = KeyFrameData.ParamType.values().length;
+    private static final int BODY_BYTES = FIELD_COUNT * Double.BYTES;
+    private static final long MAX_FRAME_BYTES = 1L << 30;
+    /**
+     * 1つのチャンクの目安の大きさ。1フレームがこれより大きければ1フレームずつ。
+     * ダイレクトバッファは使った分だけ上限に数えられるので小さく区切る。
+     */
+    private static final long MAPPED_CHUNK_BYTES = 64L << 20;
+    private static final long DIRECT_CHUNK_BYTES = 1L << 20;
+
+    /** close() で領域をすぐ解放するための sun.misc.Unsafe.invokeCleaner。無ければ null。 */
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> type = Class.forName("sun.misc.Unsafe");
+            Field field = type.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            invokeCleaner = type.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            unsafe = null;
+            invokeCleaner = null;
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    private final int bodyCount;
+    private final int frameBytes;
+    private final int framesPerChunk;
+    private ByteBuffer[] chunks = new ByteBuffer[0];
+    private final MappedByteBuffer header;
+    private final FileChannel channel;
+    private int frameCount;
+    private boolean closed = false;
+
+    private OffHeapTrajectoryStore(int bodyCount, int frameCount, FileChannel channel) throws IOException {
+        if (bodyCount <= 0) {
+            throw new IllegalArgumentException("bodyCount は1以上にしてください");
+        }
+        if ((long) bodyCount * BODY_BYTES > MAX_FRAME_BYTES) {
+            throw new IllegalArgumentException("1フレームが大きすぎます: " + bodyCount + " 物体");
+        }
+        this.bodyCount = bodyCount;
+        this.frameBytes = bodyCount * BODY_BYTES;
+        long chunkBytes = channel == null ? DIRECT_CHUNK_BYTES : MAPPED_CHUNK_BYTES;
+        this.framesPerChunk = (int) Math.max(1, chunkBytes / frameBytes);
+        this.channel = channel;
+        this.frameCount = frameCount;
+
+        if (channel == null) {
+            header = null;
+        } else {
+            header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, bodyCount).putInt(12, frameCount);
+        }
+    }
+
+    /**
+     * ダイレクトバッファに確保する。記録した分のダイレクトメモリを使うので、長い記録には create を使うこと。
+     */
+    public static OffHeapTrajectoryStore allocate(int bodyCount) throws IOException {
+        return new OffHeapTrajectoryStore(bodyCount, 0, null);
+    }
+
+    /**
+     * ファイルを作り直してメモリマップする。
+     */
+    public static OffHeapTrajectoryStore create(Path path, int bodyCount) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            return new OffHeapTrajectoryStore(bodyCount, 0, channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 既存のファイルをメモリマップして開く。記録済みのフレームの後ろに追記すると、ファイルも伸びる。
+     */
+    public static OffHeapTrajectoryStore open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            ByteBuffer head = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            while (head.hasRemaining() && channel.read(head, head.position()) >= 0) {
+                // ヘッダを読み切るまで繰り返す
+            }
+            if (head.hasRemaining() || head.getInt(0) != MAGIC) {
+                throw new IOException("軌跡ファイルではありません");
+            }
+            if (head.getInt(4) > VERSION) {
+                throw new IOException("未対応のバージョンです: " + head.getInt(4));
+            }
+            int bodyCount = head.getInt(8);
+            int frameCount = head.getInt(12);
+            if (bodyCount <= 0 || frameCount < 0
+                    || HEADER_BYTES + (long) frameCount * bodyCount * BODY_BYTES > channel.size()) {
+                throw new IOException("軌跡ファイルが壊れています");
+            }
+            return new OffHeapTrajectoryStore(bodyCount, frameCount, channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public int getBodyCount() {
+        return bodyCount;
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * いま確保しているチャンクに入るフレーム数。
+     */
+    public int getFrameCapacity() {
+        return chunks.length * framesPerChunk;
+    }
+
+    /**
+     * 読み出し用。記録済みのフレームだけを受け付ける。
+     */
+    private ByteBuffer chunk(int frame) {
+        if (frame < 0 || frame >= frameCount) {
+            throw new IndexOutOfBoundsException("frame: " + frame);
+        }
+        return chunkFor(frame);
+    }
+
+    /**
+     * frame を含むチャンク。まだ無ければ確保する(ファイルならマップした分だけファイルが伸びる)。
+     */
+    private ByteBuffer chunkFor(int frame) {
+        if (closed) {
+            throw new IllegalStateException("閉じたストアです");
+        }
+        int index = frame / framesPerChunk;
+        if (index >= chunks.length) {
+            chunks = Arrays.copyOf(chunks, Math.max(index + 1, chunks.length * 2));
+        }
+        ByteBuffer buffer = chunks[index];
+        if (buffer == null) {
+            long size = (long) framesPerChunk * frameBytes;
+            try {
+                if (channel == null) {
+                    buffer = ByteBuffer.allocateDirect((int) size);
+                } else {
+                    long position = HEADER_BYTES + (long) index * framesPerChunk * frameBytes;
+                    buffer = channel.map(FileChannel.MapMode.READ_WRITE, position, size);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            chunks[index] = buffer;
+        }
+        return buffer;
+    }
+
+    private int offset(int frame, int body) {
+        if (body < 0 || body >= bodyCount) {
+            throw new IndexOutOfBoundsException("body: " + body);
+        }
+        return (frame % framesPerChunk) * frameBytes + body * BODY_BYTES;
+    }
+
+    /**
+     * frame の body 番目に Body の現在の状態を書く。frameCount はここまで伸びる。
+     */
+    public void write(int frame, int body, Body source) {
+        if (frame < 0) {
+            throw new IndexOutOfBoundsException("frame: " + frame);
+        }
+        ByteBuffer buffer = chunkFor(frame);
+        int offset = offset(frame, body);
+        for (KeyFrameData.ParamType type : TrajectoryCodec.FIELDS) {
+            buffer.putDouble(offset, source.getParameter(type));
+            offset += Double.BYTES;
+        }
+        if (frame >= frameCount) {
+            setFrameCount(frame + 1);
+        }
+    }
+
+    @Override
+    public void write(int frame, Box box) {
+        write(frame, 0, box);
+    }
+
+    /**
+     * World の全物体を Box、Ball の順に末尾のフレームとして書く。
+     */
+    public void append(World world) {
+        if (world.getBodyCount() != bodyCount) {
+            throw new IllegalArgumentException("物体数がストアと違います: " + world.getBodyCount());
+        }
+        int frame = frameCount;
+        int body = 0;
+        for (int i = 0; i < world.getBoxCount(); i++) {
+            write(frame, body++, world.getBox(i));
+        }
+        for (int i = 0; i < world.getBallCount(); i++) {
+            write(frame, body++, world.getBall(i));
+        }
+    }
+
+    public double get(int frame, int body, KeyFrameData.ParamType type) {
+        return chunk(frame).getDouble(offset(frame, body) + type.ordinal() * Double.BYTES);
+    }
+
+    /**
+     * frame の body 番目を ParamType 順に out へ読む。
+     */
+    public void read(int frame, int body, double[] out) {
+        ByteBuffer buffer = chunk(frame);
+        int offset = offset(frame, body);
+        for (int i = 0; i < FIELD_COUNT; i++) {
+            out[i] = buffer.getDouble(offset + i * Double.BYTES);
+        }
+    }
+
+    /**
+     * frame の body 番目の状態を Body に適用する。goHome で戻る初期値は変えない。
+     */
+    public void applyTo(int frame, int body, Body target) {
+        ByteBuffer buffer = chunk(frame);
+        int offset = offset(frame, body);
+        for (KeyFrameData.ParamType type : TrajectoryCodec.FIELDS) {
+            if (target.hasParameter(type)) {
+                target.setStateParameter(type, buffer.getDouble(offset + type.ordinal() * Double.BYTES));
+            }
+        }
+    }
+
+    private void setFrameCount(int frameCount) {
+        this.frameCount = frameCount;
+        if (header != null) {
+            header.putInt(12, frameCount);
+        }
+    }
+
+    /**
+     * ファイルに置いている場合は内容をディスクに書き出し、記録した長さに切り詰めてから閉じる。
+     * チャンクはここで解放・アンマップするので、閉じたあとは読み書きできない。
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (channel != null) {
+                for (ByteBuffer chunk : chunks) {
+                    if (chunk != null) {
+                        ((MappedByteBuffer) chunk).force();
+                    }
+                }
+                header.force();
+            }
+        } finally {
+            for (ByteBuffer chunk : chunks) {
+                release(chunk);
+            }
+            chunks = new ByteBuffer[0];
+            if (channel != null) {
+                release(header);
+                try {
+                    channel.truncate(HEADER_BYTES + (long) frameCount * frameBytes);
+                } finally {
+                    channel.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * ダイレクトバッファ・マップしたバッファの領域を GC を待たずに解放する。
+     * 使えない環境では何もせず、回収されたときに解放される。
+     */
+    private static void release(ByteBuffer buffer) {
+        if (buffer == null || UNSAFE == null) {
+            return;
+        }
+        try {
+            INVOKE_CLEANER.invoke(UNSAFE, buffer);
+        } catch (ReflectiveOperationException e) {
+            // 解放は GC に任せる
+        }
+    }
+
+    private static long totalGcMillis() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, gc.getCollectionTime());
+        }
+        return total;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    public static void main(String[] args) throws IOException {
+        int bodies = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int frames = args.length > 1 ? Integer.parseInt(args[1]) : AnimationConfig.MAX_FRAME * 10;
+
+        HeadlessSimulation simulation = new HeadlessSimulation(AnimationConfig.POSITION_X_MAX,
+                AnimationConfig.POSITION_Y_MAX);
+        World world = new World();
+        for (int i = 0; i < bodies; i++) {
+            Box box = new Box(simulation.getPanel());
+            box.setVxVy(4.0 + (i % 17), -10.0 - (i % 23));
+            box.goHome();
+            world.addBox(box);
+        }
+
+        System.gc();
+        long heapBefore = usedHeap();
+        long gcBefore = totalGcMillis();
+        long start = System.nanoTime();
+
+        // 既定ではヒープの設定に関係なく動くよう、一時ファイルにマップする。
+        Path path = args.length > 2 ? Paths.get(args[2]) : Files.createTempFile("trajectory", ".bkts");
+        OffHeapTrajectoryStore store = create(path, bodies);
+        try {
+            store.append(world);
+            for (int i = 1; i < frames; i++) {
+                world.step();
+                store.append(world);
+            }
+
+            double seconds = (System.nanoTime() - start) / 1e9;
+            long bytes = (long) store.getFrameCount() * store.frameBytes;
+            System.out.printf("%d 物体 × %d フレーム (%,d バイト) を %.2f 秒で記録%n",
+                    bodies, store.getFrameCount(), bytes, seconds);
+            System.out.printf("ヒープ増加: %,d バイト, GC 時間: %d ミリ秒%n",
+                    usedHeap() - heapBefore, totalGcMillis() - gcBefore);
+
+            double[] out = new double[FIELD_COUNT];
+            start = System.nanoTime();
+            double sum = 0;
+            for (int frame = 0; frame < store.getFrameCount(); frame++) {
+                for (int body = 0; body < bodies; body++) {
+                    store.read(frame, body, out);
+                    sum += out[0];
+                }
+            }
+            seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("読み出し: %.1f MB/秒 (検算 %.3f)%n", bytes / seconds / 1e6, sum);
+        } finally {
+            store.close();
+            if (args.length <= 2) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package report;
+
+import java.awt.*;
+import java.awt.geom.Path2D;
+
+/**
+ * 現在の Box の前後の姿勢を薄く重ねて描くオニオンスキンと、中心の軌跡(モーショントレイル)。
+ * 過去の姿勢は再生・シークの再現で進めたフレームを PoseRingBuffer に記録したもの。
+ * 未来の姿勢は現在の状態を Box.saveState() で写した先読み用の Box を画面に出さずに進めて求める。
+ * 過去・未来・軌跡はそれぞれ1つの Path2D にまとめて1回で描く。
+ * キーフレームや初期値が変わったら invalidate() で記録を捨てること。
+ */
+public class OnionSkin {
+    private static final int POSES = AnimationConfig.ONION_SKIN_POSES;
+    private static final int STRIDE = AnimationConfig.ONION_SKIN_STRIDE;
+
+    private final PoseRingBuffer past = new PoseRingBuffer(POSES * STRIDE + 1);
+    private final PoseRingBuffer future = new PoseRingBuffer(POSES * STRIDE);
+    private Box lookAhead;
+    /** future を求めたときの現在フレーム。-1 なら作り直す。 */
+    private int futureFrame = -1;
+    private boolean enabled = false;
+
+    private final Path2D.Double pastPath = new Path2D.Double();
+    private final Path2D.Double futurePath = new Path2D.Double();
+    private final Path2D.Double trailPath = new Path2D.Double();
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        futureFrame = -1;
+    }
+
+    /**
+     * 1フレーム進めたあとの姿勢を記録する。
+     */
+    public void record(int frame, Box box) {
+        past.push(frame, box);
+    }
+
+    public void invalidate() {
+        past.clear();
+        futureFrame = -1;
+    }
+
+    /**
+     * 現在の状態から先の姿勢を求める。1フレームの進め方は通常の再生と同じ
+     * (そのフレームのキーフレームを適用してから Box.next())。
+     */
+    private void updateFuture(int frame, Box box, KeyFrameData keyFrameData, int maxFrame) {
+        if (futureFrame == frame) {
+            return;
+        }
+        if (lookAhead == null) {
+            lookAhead = new Box(box.panel);
+        }
+        lookAhead.copySettingsFrom(box);
+        lookAhead.restoreState(box.saveState());
+        future.clear();
+        int last = Math.min(maxFrame, frame + future.capacity());
+        for (int f = frame; f < last; f++) {
+            keyFrameData.applyToBody(f, lookAhead);
+            lookAhead.next();
+            future.push(f + 1, lookAhead);
+        }
+        futureFrame = frame;
+    }
+
+    public void draw(Graphics2D g2d, int frame, Box box, KeyFrameData keyFrameData, int maxFrame) {
+        if (!enabled) {
+            return;
+        }
+        updateFuture(frame, box, keyFrameData, maxFrame);
+
+        pastPath.reset();
+        futurePath.reset();
+        trailPath.reset();
+        boolean trailStarted = false;
+        for (int i = 0; i < past.size(); i++) {
+            int poseFrame = past.frameAt(i);
+            if (poseFrame > frame) {
+                break;
+            }
+            if (poseFrame < frame && (frame - poseFrame) % STRIDE == 0) {
+                appendOutline(pastPath, past.xAt(i), past.yAt(i), past.angleAt(i), past.widthAt(i), past.heightAt(i));
+            }
+            trailStarted = appendTrailPoint(trailStarted, past.xAt(i), past.yAt(i));
+        }
+        trailStarted = appendTrailPoint(trailStarted, box.getX(), box.getY());
+        for (int i = 0; i < future.size(); i++) {
+            if ((future.frameAt(i) - frame) % STRIDE == 0) {
+                appendOutline(futurePath, future.xAt(i), future.yAt(i), future.angleAt(i),
+                        future.widthAt(i), future.heightAt(i));
+            }
+            trailStarted = appendTrailPoint(trailStarted, future.xAt(i), future.yAt(i));
+        }
+
+        Color prevColor = g2d.getColor();
+        Stroke prevStroke = g2d.getStroke();
+        g2d.setStroke(new BasicStroke(1));
+        g2d.setColor(UIStyles.MOTION_TRAIL);
+        g2d.draw(trailPath);
+        g2d.setColor(UIStyles.ONION_PAST);
+        g2d.fill(pastPath);
+        g2d.draw(pastPath);
+        g2d.setColor(UIStyles.ONION_FUTURE);
+        g2d.fill(futurePath);
+        g2d.draw(futurePath);
+        g2d.setStroke(prevStroke);
+        g2d.setColor(prevColor);
+    }
+
+    private boolean appendTrailPoint(boolean started, double x, double y) {
+        if (started) {
+            trailPath.lineTo(x, y);
+        } else {
+            trailPath.moveTo(x, y);
+        }
+        return true;
+    }
+
+    private static void appendOutline(Path2D.Double path, double x, double y, double angle,
+            double width, double height) {
+        double cos = Math.cos(angle);
+        double sin = Math.sin(angle);
+        double hw = width / 2;
+        double hh = height / 2;
+        path.moveTo(x + (-hw * cos + hh * sin), y + (-hw * sin - hh * cos));
+        path.lineTo(x + (hw * cos + hh * sin), y + (hw * sin - hh * cos));
+        path.lineTo(x + (hw * cos - hh * sin), y + (hw * sin + hh * cos));
+        path.lineTo(x + (-hw * cos - hh * sin), y + (-hw * sin + hh * cos));
+        path.closePath();
+    }
+}
@@ -0,0 +1,29 @@
+package report;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * AnimationPanel.paintComponent 1回分の JFR イベント。既定では無効。
+ */
+@Name("report.Paint")
+@Label("Paint")
+@Description("アニメーションパネルを描画した")
+@Category({"BoxKeyFrameAnimation", "Rendering"})
+@Enabled(false)
+@StackTrace(false)
+class PaintEvent extends Event {
+    @Label("Frame")
+    int frame;
+
+    @Label("Body Count")
+    int bodyCount;
+
+    @Label("Metrics Overlay")
+    boolean metricsOverlay;
+}
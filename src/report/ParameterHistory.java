@@ -0,0 +1,52 @@
+package report;
+
+/**
+ * シミュレーションが実際に出した1つのパラメータの値をフレームごとに記録するクラス。
+ * カーブエディタが補間値と並べて描く。再生とシークの再現の両方から記録する。
+ */
+public class ParameterHistory {
+    private final MinMaxPyramid samples;
+    private Body body;
+    private KeyFrameData.ParamType type = KeyFrameData.ParamType.X;
+
+    public ParameterHistory(int maxFrame) {
+        samples = new MinMaxPyramid(maxFrame + 1);
+    }
+
+    /**
+     * 記録する物体とパラメータを変える。今までの記録は消える。
+     */
+    public void watch(Body body, KeyFrameData.ParamType type) {
+        this.body = body;
+        this.type = type;
+        samples.clear();
+    }
+
+    public Body getBody() {
+        return body;
+    }
+
+    public KeyFrameData.ParamType getType() {
+        return type;
+    }
+
+    public void record(int frame) {
+        if (body != null && body.hasParameter(type)) {
+            samples.set(frame, body.getParameter(type));
+        }
+    }
+
+    public void setMaxFrame(int maxFrame) {
+        if (samples.length() != maxFrame + 1) {
+            samples.resize(maxFrame + 1);
+        }
+    }
+
+    public void clear() {
+        samples.clear();
+    }
+
+    MinMaxPyramid getSamples() {
+        return samples;
+    }
+}
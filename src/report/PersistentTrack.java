@@ -0,0 +1,243 @@
+package report;
+
+/**
+ * 1本のトラックのキー(フレーム → 値と補間方法)を持つ変更できない AVL 木。
+ * put・remove は根からの経路のノードだけを作り直して新しい木を返し、残りの部分木は前の版と共有する。
+ * 1回の編集は O(log n) の時間とメモリで済み、古い版はそのまま残るので、
+ * 元に戻す履歴や別スレッドへの受け渡しにコピーなしで使える。
+ */
+final class PersistentTrack {
+    static final PersistentTrack EMPTY = new PersistentTrack(null);
+
+    /**
+     * forEach に渡すキーの訪問先。
+     */
+    interface KeyVisitor {
+        void visit(int frame, double value, KeyFrameData.Interpolation mode);
+    }
+
+    private static final class Node {
+        final int frame;
+        final double value;
+        final KeyFrameData.Interpolation mode;
+        final Node left;
+        final Node right;
+        final int height;
+        final int size;
+
+        Node(int frame, double value, KeyFrameData.Interpolation mode, Node left, Node right) {
+            this.frame = frame;
+            this.value = value;
+            this.mode = mode;
+            this.left = left;
+            this.right = right;
+            this.height = Math.max(height(left), height(right)) + 1;
+            this.size = size(left) + size(right) + 1;
+        }
+
+        Node with(Node newLeft, Node newRight) {
+            return new Node(frame, value, mode, newLeft, newRight);
+        }
+    }
+
+    private final Node root;
+
+    private PersistentTrack(Node root) {
+        this.root = root;
+    }
+
+    private static int height(Node node) {
+        return node == null ? 0 : node.height;
+    }
+
+    private static int size(Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    int size() {
+        return size(root);
+    }
+
+    boolean isEmpty() {
+        return root == null;
+    }
+
+    private Node find(int frame) {
+        Node node = root;
+        while (node != null) {
+            if (frame < node.frame) {
+                node = node.left;
+            } else if (frame > node.frame) {
+                node = node.right;
+            } else {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    boolean contains(int frame) {
+        return find(frame) != null;
+    }
+
+    /**
+     * frame のキーの値。キーが無ければ NaN。
+     */
+    double keyValue(int frame) {
+        Node node = find(frame);
+        return node == null ? Double.NaN : node.value;
+    }
+
+    KeyFrameData.Interpolation mode(int frame) {
+        Node node = find(frame);
+        return node == null ? KeyFrameData.Interpolation.LINEAR : node.mode;
+    }
+
+    PersistentTrack put(int frame, double value, KeyFrameData.Interpolation mode) {
+        return new PersistentTrack(insert(root, frame, value, mode));
+    }
+
+    PersistentTrack remove(int frame) {
+        Node newRoot = delete(root, frame);
+        return newRoot == root ? this : new PersistentTrack(newRoot);
+    }
+
+    private static Node insert(Node node, int frame, double value, KeyFrameData.Interpolation mode) {
+        if (node == null) {
+            return new Node(frame, value, mode, null, null);
+        }
+        if (frame < node.frame) {
+            return balance(node.with(insert(node.left, frame, value, mode), node.right));
+        }
+        if (frame > node.frame) {
+            return balance(node.with(node.left, insert(node.right, frame, value, mode)));
+        }
+        return new Node(frame, value, mode, node.left, node.right);
+    }
+
+    private static Node delete(Node node, int frame) {
+        if (node == null) {
+            return null;
+        }
+        if (frame < node.frame) {
+            Node left = delete(node.left, frame);
+            return left == node.left ? node : balance(node.with(left, node.right));
+        }
+        if (frame > node.frame) {
+            Node right = delete(node.right, frame);
+            return right == node.right ? node : balance(node.with(node.left, right));
+        }
+        if (node.left == null) {
+            return node.right;
+        }
+        if (node.right == null) {
+            return node.left;
+        }
+        Node successor = node.right;
+        while (successor.left != null) {
+            successor = successor.left;
+        }
+        return balance(new Node(successor.frame, successor.value, successor.mode,
+                node.left, delete(node.right, successor.frame)));
+    }
+
+    private static Node balance(Node node) {
+        int diff = height(node.left) - height(node.right);
+        if (diff > 1) {
+            Node left = node.left;
+            if (height(left.left) < height(left.right)) {
+                left = rotateLeft(left);
+            }
+            return rotateRight(node.with(left, node.right));
+        }
+        if (diff < -1) {
+            Node right = node.right;
+            if (height(right.right) < height(right.left)) {
+                right = rotateRight(right);
+            }
+            return rotateLeft(node.with(node.left, right));
+        }
+        return node;
+    }
+
+    private static Node rotateRight(Node node) {
+        Node left = node.left;
+        return left.with(left.left, node.with(left.right, node.right));
+    }
+
+    private static Node rotateLeft(Node node) {
+        Node right = node.right;
+        return right.with(node.with(node.left, right.left), right.right);
+    }
+
+    private Node floor(int frame) {
+        Node node = root;
+        Node found = null;
+        while (node != null) {
+            if (frame < node.frame) {
+                node = node.left;
+            } else {
+                found = node;
+                node = node.right;
+            }
+        }
+        return found;
+    }
+
+    private Node ceiling(int frame) {
+        Node node = root;
+        Node found = null;
+        while (node != null) {
+            if (frame > node.frame) {
+                node = node.right;
+            } else {
+                found = node;
+                node = node.left;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * KeyFrameData.getValue と同じ規則での frame の値。区間の係数は TrackCurve と同じ計算で、配列を作らずにその場で求める。
+     * キーが無ければ NaN。
+     */
+    double value(int frame) {
+        Node prev = floor(frame);
+        Node next = ceiling(frame);
+        if (prev == null && next == null) {
+            return Double.NaN;
+        }
+        if (prev == null) {
+            return next.value;
+        }
+        if (next == null || prev == next) {
+            return prev.value;
+        }
+        Node before = floor(prev.frame - 1);
+        Node after = ceiling(next.frame + 1);
+        if (before == null) {
+            before = prev;
+        }
+        if (after == null) {
+            after = next;
+        }
+        return TrackCurve.segmentValue(prev.mode, before.frame, before.value, prev.frame, prev.value,
+                next.frame, next.value, after.frame, after.value, frame);
+    }
+
+    /**
+     * キーをフレームの昇順に訪ねる。
+     */
+    void forEach(KeyVisitor visitor) {
+        visit(root, visitor);
+    }
+
+    private static void visit(Node node, KeyVisitor visitor) {
+        while (node != null) {
+            visit(node.left, visitor);
+            visitor.visit(node.frame, node.value, node.mode);
+            node = node.right;
+        }
+    }
+}
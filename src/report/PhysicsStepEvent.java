@@ -0,0 +1,39 @@
+package report;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * World.step() 1回分の JFR イベント。既定では無効で、無効のときは記録のコストがかからない。
+ * 有効にするには起動時に次のように指定する(他のイベントも同様)。
+ *
+ * <pre>
+ * java -XX:StartFlightRecording:filename=rec.jfr,+report.PhysicsStep#enabled=true,+report.Replay#enabled=true ...
+ * </pre>
+ */
+@Name("report.PhysicsStep")
+@Label("Physics Step")
+@Description("World の全物体を1フレーム進めた")
+@Category({"BoxKeyFrameAnimation", "Simulation"})
+@Enabled(false)
+@StackTrace(false)
+class PhysicsStepEvent extends Event {
+    @Label("Body Count")
+    int bodyCount;
+
+    @Label("Sub-steps")
+    @Description("全 Box のサブステップ数の合計")
+    int subSteps;
+
+    @Label("Contacts")
+    @Description("解いた接触の数")
+    int contacts;
+
+    @Label("Solver Iterations")
+    int solverIterations;
+}
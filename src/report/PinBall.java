@@ -1,6 +1,11 @@
 package report;
 
 import javax.swing.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 /**
  * エントリーポイント
@@ -23,6 +28,7 @@ public class PinBall {
 class ApplicationFrame extends JFrame {
     private final AnimationPanel animationPanel;
     private final KeyFrameTimeline timeline;
+    private KeyFrameJournal journal;
 
     public ApplicationFrame() {
         super("Box KeyFrame Animation");
@@ -36,6 +42,41 @@ class ApplicationFrame extends JFrame {
 
         setupLayout();
         initializeBoxPosition();
+        openJournal();
+        animationPanel.getStats().register();
+    }
+
+    /**
+     * 自動保存のジャーナルを開く。前回異常終了していれば、その編集内容を復元する。
+     */
+    private void openJournal() {
+        Path directory = Paths.get(System.getProperty("user.home"), ".boxkeyframe");
+        KeyFrameData keyFrameData = timeline.getKeyFrameData();
+        try {
+            journal = KeyFrameJournal.open(directory, keyFrameData);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        keyFrameData.addEditListener(journal);
+
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                journal.close();
+            }
+        });
+
+        if (journal.hasRecovered()) {
+            // 復元した内容を元に戻せる1回の操作にしない。
+            timeline.clearEditHistory();
+            SwingUtilities.invokeLater(() -> {
+                timeline.setCurrentFrame(0);
+                JOptionPane.showMessageDialog(this,
+                        "前回の編集内容を自動保存から復元しました",
+                        "自動保存", JOptionPane.INFORMATION_MESSAGE);
+            });
+        }
     }
 
     private void setupLayout() {
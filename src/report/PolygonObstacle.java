@@ -0,0 +1,75 @@
+package report;
+
+import java.awt.Graphics2D;
+import java.awt.geom.Path2D;
+
+/**
+ * 凸多角形の障害物。頂点は時計回り・反時計回りのどちらで与えてもよい。
+ */
+public class PolygonObstacle extends Obstacle {
+    private final double[] xs;
+    private final double[] ys;
+    private final double[] normalX;
+    private final double[] normalY;
+
+    public PolygonObstacle(double[] xs, double[] ys) {
+        if (xs.length != ys.length || xs.length < 3) {
+            throw new IllegalArgumentException("多角形には3つ以上の頂点が必要です");
+        }
+        this.xs = xs.clone();
+        this.ys = ys.clone();
+        this.normalX = new double[xs.length];
+        this.normalY = new double[xs.length];
+        updateBounds(this.xs, this.ys);
+
+        double area = 0.0;
+        for (int i = 0; i < xs.length; i++) {
+            int j = (i + 1) % xs.length;
+            area += xs[i] * ys[j] - xs[j] * ys[i];
+        }
+        double sign = area >= 0 ? 1.0 : -1.0;
+        for (int i = 0; i < xs.length; i++) {
+            int j = (i + 1) % xs.length;
+            double ex = xs[j] - xs[i];
+            double ey = ys[j] - ys[i];
+            double length = Math.sqrt(ex * ex + ey * ey);
+            normalX[i] = sign * ey / length;
+            normalY[i] = -sign * ex / length;
+        }
+    }
+
+    /**
+     * 各辺の外向き距離のうち最大のものを使う。負なら内側(めり込み)で、その辺から押し出す。
+     */
+    @Override
+    public boolean findContact(double px, double py, double margin, double[] out) {
+        double maxDistance = -Double.MAX_VALUE;
+        int edge = 0;
+        for (int i = 0; i < xs.length; i++) {
+            double distance = (px - xs[i]) * normalX[i] + (py - ys[i]) * normalY[i];
+            if (distance > maxDistance) {
+                maxDistance = distance;
+                edge = i;
+            }
+        }
+        if (maxDistance >= margin) {
+            return false;
+        }
+
+        out[0] = normalX[edge];
+        out[1] = normalY[edge];
+        out[2] = maxDistance;
+        return true;
+    }
+
+    @Override
+    public void draw(Graphics2D g2d) {
+        Path2D.Double path = new Path2D.Double();
+        path.moveTo(xs[0], ys[0]);
+        for (int i = 1; i < xs.length; i++) {
+            path.lineTo(xs[i], ys[i]);
+        }
+        path.closePath();
+        g2d.fill(path);
+    }
+}
@@ -0,0 +1,98 @@
+package report;
+
+/**
+ * 直近の Box の姿勢(位置・角度・大きさ)を決まった個数だけ持つリングバッファ。
+ * 値はプリミティブ配列に直接書くので、1フレームごとに記録してもオブジェクトを作らない。
+ * フレームは連続している前提で、飛んだら古い記録を捨てる。
+ */
+class PoseRingBuffer {
+    private final int[] frames;
+    private final double[] xs;
+    private final double[] ys;
+    private final double[] angles;
+    private final double[] widths;
+    private final double[] heights;
+    /** 次に書く位置。 */
+    private int head = 0;
+    private int size = 0;
+
+    PoseRingBuffer(int capacity) {
+        frames = new int[capacity];
+        xs = new double[capacity];
+        ys = new double[capacity];
+        angles = new double[capacity];
+        widths = new double[capacity];
+        heights = new double[capacity];
+    }
+
+    int capacity() {
+        return frames.length;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        head = 0;
+        size = 0;
+    }
+
+    /**
+     * frame の姿勢を足す。直前と同じフレームなら書き直し、連続していなければ記録を捨ててから足す。
+     */
+    void push(int frame, Box box) {
+        if (size > 0) {
+            int last = lastFrame();
+            if (frame == last) {
+                head = (head - 1 + frames.length) % frames.length;
+                size--;
+            } else if (frame != last + 1) {
+                clear();
+            }
+        }
+        frames[head] = frame;
+        xs[head] = box.getX();
+        ys[head] = box.getY();
+        angles[head] = box.getAngle();
+        widths[head] = box.getWidth();
+        heights[head] = box.getHeight();
+        head = (head + 1) % frames.length;
+        size = Math.min(size + 1, frames.length);
+    }
+
+    int lastFrame() {
+        return frames[(head - 1 + frames.length) % frames.length];
+    }
+
+    /**
+     * 古い順に i 番目の要素が入っている配列上の位置。
+     */
+    private int slot(int i) {
+        return (head - size + i + frames.length) % frames.length;
+    }
+
+    int frameAt(int i) {
+        return frames[slot(i)];
+    }
+
+    double xAt(int i) {
+        return xs[slot(i)];
+    }
+
+    double yAt(int i) {
+        return ys[slot(i)];
+    }
+
+    double angleAt(int i) {
+        return angles[slot(i)];
+    }
+
+    double widthAt(int i) {
+        return widths[slot(i)];
+    }
+
+    double heightAt(int i) {
+        return heights[slot(i)];
+    }
+}
@@ -0,0 +1,279 @@
+package report;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.TreeMap;
+
+/**
+ * プロジェクト(キーフレーム・キー駆動かどうか・Box のパラメータ・シーンの大きさ)のバイナリ形式。
+ *
+ * <pre>
+ * ヘッダ   : magic(int) version(int) sceneWidth(int) sceneHeight(int)
+ * Box      : ParamType 順の double × 14
+ * トラック表: trackCount(int) の後に ParamType ごとに ordinal(int) keyCount(int) offset(long)
+ * フラグ   : flags(int)(バージョン3から。ビット0 がキー駆動)
+ * データ   : トラックごとに frame(int) × keyCount、value(double) × keyCount、
+ *            interpolation(byte) × keyCount(バージョン2から。Interpolation の ordinal)
+ * </pre>
+ *
+ * バージョン1のファイルは補間方法を持たず、すべて線形として読む。
+ *
+ * バイト順はリトルエンディアン。読み込みはファイルをメモリマップし、
+ * キーフレームは必要になった分だけマップ上から直接読む。
+ */
+public class ProjectFile {
+    public static final int MAGIC = 0x504B4642; // "BFKP"
+    public static final int VERSION = 3;
+
+    private static final int HEADER_BYTES = 16;
+    private static final int PARAM_COUNT = KeyFrameData.ParamType.values().length;
+    private static final int BOX_BYTES = PARAM_COUNT * Double.BYTES;
+    private static final int TRACK_ENTRY_BYTES = Integer.BYTES * 2 + Long.BYTES;
+    private static final int FLAG_KINEMATIC = 1;
+
+    private final MappedByteBuffer buffer;
+    private final int version;
+    private final int sceneWidth;
+    private final int sceneHeight;
+    private final int flags;
+    private final int[] keyCounts = new int[PARAM_COUNT];
+    private final long[] offsets = new long[PARAM_COUNT];
+    /** getValue で区間の係数を求めるための作業用。 */
+    private final double[] coefficients = new double[4];
+
+    private ProjectFile(MappedByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        if (buffer.limit() < HEADER_BYTES + BOX_BYTES + Integer.BYTES || buffer.getInt(0) != MAGIC) {
+            throw new IOException("プロジェクトファイルではありません");
+        }
+        version = buffer.getInt(4);
+        if (version > VERSION) {
+            throw new IOException("未対応のバージョンです: " + version);
+        }
+        sceneWidth = buffer.getInt(8);
+        sceneHeight = buffer.getInt(12);
+
+        int tableStart = HEADER_BYTES + BOX_BYTES;
+        int trackCount = buffer.getInt(tableStart);
+        long flagsPosition = tableStart + Integer.BYTES + (long) trackCount * TRACK_ENTRY_BYTES;
+        if (version >= 3) {
+            if (trackCount < 0 || flagsPosition + Integer.BYTES > buffer.limit()) {
+                throw new IOException("トラック表が壊れています");
+            }
+            flags = buffer.getInt((int) flagsPosition);
+        } else {
+            flags = 0;
+        }
+        for (int i = 0; i < trackCount; i++) {
+            int entry = tableStart + Integer.BYTES + i * TRACK_ENTRY_BYTES;
+            int ordinal = buffer.getInt(entry);
+            if (ordinal < 0 || ordinal >= PARAM_COUNT) {
+                continue;
+            }
+            keyCounts[ordinal] = buffer.getInt(entry + Integer.BYTES);
+            offsets[ordinal] = buffer.getLong(entry + Integer.BYTES * 2);
+            long end = offsets[ordinal] + (long) keyCounts[ordinal] * keyBytes(version);
+            if (keyCounts[ordinal] < 0 || offsets[ordinal] < 0 || end > buffer.limit()) {
+                throw new IOException("トラックのデータが壊れています: " + KeyFrameData.ParamType.values()[ordinal]);
+            }
+        }
+    }
+
+    private static int keyBytes(int version) {
+        return version >= 2 ? Integer.BYTES + Double.BYTES + 1 : Integer.BYTES + Double.BYTES;
+    }
+
+    /**
+     * ファイルをメモリマップして開く。ヘッダとトラック表だけを読む。
+     */
+    public static ProjectFile open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("2GBを超えるプロジェクトファイルには対応していません");
+            }
+            return new ProjectFile(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    public static void save(Path path, KeyFrameData data, Box box, int sceneWidth, int sceneHeight)
+            throws IOException {
+        KeyFrameData.ParamType[] types = KeyFrameData.ParamType.values();
+
+        int tableBytes = Integer.BYTES + types.length * TRACK_ENTRY_BYTES + Integer.BYTES;
+        ByteBuffer head = ByteBuffer.allocate(HEADER_BYTES + BOX_BYTES + tableBytes)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        head.putInt(MAGIC).putInt(VERSION).putInt(sceneWidth).putInt(sceneHeight);
+        for (KeyFrameData.ParamType type : types) {
+            head.putDouble(box.getParameter(type));
+        }
+
+        head.putInt(types.length);
+        long offset = head.capacity();
+        for (KeyFrameData.ParamType type : types) {
+            int count = data.getKeyFrames(type).size();
+            head.putInt(type.ordinal()).putInt(count).putLong(offset);
+            offset += (long) count * keyBytes(VERSION);
+        }
+        head.putInt(data.isKinematic() ? FLAG_KINEMATIC : 0);
+        head.flip();
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(channel, head);
+
+            ByteBuffer chunk = ByteBuffer.allocateDirect(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+            for (KeyFrameData.ParamType type : types) {
+                TreeMap<Integer, Double> frames = data.getKeyFrames(type);
+                for (Integer frame : frames.keySet()) {
+                    if (chunk.remaining() < Integer.BYTES) {
+                        chunk.flip();
+                        writeFully(channel, chunk);
+                        chunk.clear();
+                    }
+                    chunk.putInt(frame);
+                }
+                for (Double value : frames.values()) {
+                    if (chunk.remaining() < Double.BYTES) {
+                        chunk.flip();
+                        writeFully(channel, chunk);
+                        chunk.clear();
+                    }
+                    chunk.putDouble(value);
+                }
+                for (Integer frame : frames.keySet()) {
+                    if (!chunk.hasRemaining()) {
+                        chunk.flip();
+                        writeFully(channel, chunk);
+                        chunk.clear();
+                    }
+                    chunk.put((byte) data.getInterpolation(type, frame).ordinal());
+                }
+            }
+            chunk.flip();
+            writeFully(channel, chunk);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public int getSceneWidth() {
+        return sceneWidth;
+    }
+
+    public int getSceneHeight() {
+        return sceneHeight;
+    }
+
+    public boolean isKinematic() {
+        return (flags & FLAG_KINEMATIC) != 0;
+    }
+
+    public double getBoxParameter(KeyFrameData.ParamType type) {
+        return buffer.getDouble(HEADER_BYTES + type.ordinal() * Double.BYTES);
+    }
+
+    public int getKeyCount(KeyFrameData.ParamType type) {
+        return keyCounts[type.ordinal()];
+    }
+
+    public int getFrame(KeyFrameData.ParamType type, int index) {
+        return buffer.getInt((int) (offsets[type.ordinal()] + (long) index * Integer.BYTES));
+    }
+
+    public double getKeyValue(KeyFrameData.ParamType type, int index) {
+        long valuesStart = offsets[type.ordinal()] + (long) keyCounts[type.ordinal()] * Integer.BYTES;
+        return buffer.getDouble((int) (valuesStart + (long) index * Double.BYTES));
+    }
+
+    public KeyFrameData.Interpolation getInterpolation(KeyFrameData.ParamType type, int index) {
+        if (version < 2) {
+            return KeyFrameData.Interpolation.LINEAR;
+        }
+        int count = keyCounts[type.ordinal()];
+        long modesStart = offsets[type.ordinal()] + (long) count * (Integer.BYTES + Double.BYTES);
+        int ordinal = buffer.get((int) (modesStart + index));
+        KeyFrameData.Interpolation[] modes = KeyFrameData.Interpolation.values();
+        return ordinal >= 0 && ordinal < modes.length ? modes[ordinal] : KeyFrameData.Interpolation.LINEAR;
+    }
+
+    /**
+     * KeyFrameData.getValue と同じ規則で、マップ上のキーを二分探索して補間する。
+     * 区間の係数は TrackCurve と同じ計算でその場で求める。キーが無ければ NaN。
+     */
+    public double getValue(KeyFrameData.ParamType type, int frame) {
+        int count = getKeyCount(type);
+        if (count == 0) {
+            return Double.NaN;
+        }
+
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midFrame = getFrame(type, mid);
+            if (midFrame < frame) {
+                low = mid + 1;
+            } else if (midFrame > frame) {
+                high = mid - 1;
+            } else {
+                return getKeyValue(type, mid);
+            }
+        }
+
+        if (low == 0) {
+            return getKeyValue(type, 0);
+        }
+        if (low == count) {
+            return getKeyValue(type, count - 1);
+        }
+        int segment = low - 1;
+        int before = Math.max(segment - 1, 0);
+        int after = Math.min(segment + 2, count - 1);
+        int f0 = getFrame(type, segment);
+        int f1 = getFrame(type, segment + 1);
+        TrackCurve.computeCoefficients(getInterpolation(type, segment),
+                getFrame(type, before), getKeyValue(type, before), f0, getKeyValue(type, segment),
+                f1, getKeyValue(type, segment + 1), getFrame(type, after), getKeyValue(type, after),
+                coefficients, 0);
+        return TrackCurve.horner(coefficients, 0, f0, f1, frame);
+    }
+
+    /**
+     * 編集できるように KeyFrameData へ全キーとキー駆動かどうかを読み込み、Box のパラメータも戻す。
+     */
+    public void loadInto(KeyFrameData data, Box box) {
+        data.beginBulkEdit();
+        try {
+            data.clear();
+            data.setKinematic(isKinematic());
+            for (KeyFrameData.ParamType type : KeyFrameData.ParamType.values()) {
+                int count = getKeyCount(type);
+                for (int i = 0; i < count; i++) {
+                    data.registerKeyFrame(type, getFrame(type, i), getKeyValue(type, i));
+                    KeyFrameData.Interpolation mode = getInterpolation(type, i);
+                    if (mode != KeyFrameData.Interpolation.LINEAR) {
+                        data.setInterpolation(type, getFrame(type, i), mode);
+                    }
+                }
+                box.setParameter(type, getBoxParameter(type));
+            }
+        } finally {
+            data.endBulkEdit();
+        }
+    }
+}
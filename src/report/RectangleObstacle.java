@@ -0,0 +1,11 @@
+package report;
+
+/**
+ * 軸に平行な長方形の障害物。
+ */
+public class RectangleObstacle extends PolygonObstacle {
+    public RectangleObstacle(double x, double y, double width, double height) {
+        super(new double[] { x, x + width, x + width, x },
+                new double[] { y, y, y + height, y + height });
+    }
+}
@@ -0,0 +1,30 @@
+package report;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * replaySimulationToFrame 1回分の JFR イベント。既定では無効。
+ */
+@Name("report.Replay")
+@Label("Replay")
+@Description("シミュレーションを再生し直して指定フレームの状態を再現した")
+@Category({"BoxKeyFrameAnimation", "Timeline"})
+@Enabled(false)
+class ReplayEvent extends Event {
+    @Label("Start Frame")
+    int startFrame;
+
+    @Label("Target Frame")
+    int targetFrame;
+
+    @Label("Steps Replayed")
+    int stepsReplayed;
+
+    @Label("Body Count")
+    int bodyCount;
+}
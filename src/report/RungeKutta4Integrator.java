@@ -0,0 +1,53 @@
+package report;
+
+/**
+ * 古典的4次ルンゲ=クッタ法。加速度の評価は1ステップ4回。
+ * 減衰は積分後にまとめて掛ける。
+ */
+public class RungeKutta4Integrator implements Integrator {
+    private final double[] q = new double[MAX_DEGREES_OF_FREEDOM];
+    private final double[] v = new double[MAX_DEGREES_OF_FREEDOM];
+    private final double[] tq = new double[MAX_DEGREES_OF_FREEDOM];
+    private final double[] tv = new double[MAX_DEGREES_OF_FREEDOM];
+    private final double[][] kq = new double[4][MAX_DEGREES_OF_FREEDOM];
+    private final double[][] kv = new double[4][MAX_DEGREES_OF_FREEDOM];
+
+    @Override
+    public void integrate(Target target, double h) {
+        int n = target.getDegreesOfFreedom();
+        target.readState(q, v);
+
+        evaluate(target, n, q, v, kq[0], kv[0]);
+        for (int stage = 1; stage < 4; stage++) {
+            double scale = stage == 3 ? h : 0.5 * h;
+            for (int i = 0; i < n; i++) {
+                tq[i] = q[i] + kq[stage - 1][i] * scale;
+                tv[i] = v[i] + kv[stage - 1][i] * scale;
+            }
+            evaluate(target, n, tq, tv, kq[stage], kv[stage]);
+        }
+
+        for (int i = 0; i < n; i++) {
+            q[i] += h / 6.0 * (kq[0][i] + 2 * kq[1][i] + 2 * kq[2][i] + kq[3][i]);
+            v[i] += h / 6.0 * (kv[0][i] + 2 * kv[1][i] + 2 * kv[2][i] + kv[3][i]);
+        }
+        target.applyDamping(v, h);
+
+        target.writeState(q, v);
+    }
+
+    private void evaluate(Target target, int n, double[] q, double[] v, double[] dq, double[] dv) {
+        System.arraycopy(v, 0, dq, 0, n);
+        target.computeAcceleration(q, v, dv);
+    }
+
+    @Override
+    public String getName() {
+        return Kind.RK4.getDisplayName();
+    }
+
+    @Override
+    public Kind getKind() {
+        return Kind.RK4;
+    }
+}
@@ -0,0 +1,162 @@
+package report;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 複数の物体と、物体ごとのキーフレームをまとめたシーン。
+ * 編集は物体ごとの KeyFrameData に対して行い、再生時は SceneTracks にまとめたトラックを
+ * 物体の順に1回なめるだけで全物体にキーフレームを適用する。
+ */
+public class Scene {
+    /**
+     * シーン内の1物体。id はシーンに追加した順の番号。
+     */
+    public static class SceneObject {
+        private final int id;
+        private final String name;
+        private final Body body;
+        private final KeyFrameData keyFrameData;
+
+        SceneObject(int id, String name, Body body, KeyFrameData keyFrameData) {
+            this.id = id;
+            this.name = name;
+            this.body = body;
+            this.keyFrameData = keyFrameData;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Body getBody() {
+            return body;
+        }
+
+        public KeyFrameData getKeyFrameData() {
+            return keyFrameData;
+        }
+    }
+
+    private final World world;
+    private final List<SceneObject> objects = new ArrayList<>();
+    private Body[] bodies = new Body[4];
+    private final SceneTracks tracks = new SceneTracks();
+
+    public Scene(World world) {
+        this.world = world;
+    }
+
+    public World getWorld() {
+        return world;
+    }
+
+    public SceneObject addBox(String name, Box box, KeyFrameData keyFrameData) {
+        world.addBox(box);
+        return add(name, box, keyFrameData);
+    }
+
+    public SceneObject addBall(String name, Ball ball, KeyFrameData keyFrameData) {
+        world.addBall(ball);
+        return add(name, ball, keyFrameData);
+    }
+
+    private SceneObject add(String name, Body body, KeyFrameData keyFrameData) {
+        int id = objects.size();
+        SceneObject object = new SceneObject(id, name, body, keyFrameData);
+        objects.add(object);
+        if (id == bodies.length) {
+            bodies = Arrays.copyOf(bodies, id * 2);
+        }
+        bodies[id] = body;
+        tracks.addObject();
+
+        keyFrameData.addEditListener(new KeyFrameData.EditListener() {
+            @Override
+            public void keyFrameRegistered(KeyFrameData.ParamType type, int frame, double value) {
+                tracks.markDirty(id, type);
+            }
+
+            @Override
+            public void keyFrameDeleted(KeyFrameData.ParamType type, int frame) {
+                tracks.markDirty(id, type);
+            }
+
+            @Override
+            public void keyFramesCleared() {
+                tracks.markObjectDirty(id);
+            }
+        });
+        return object;
+    }
+
+    public int getObjectCount() {
+        return objects.size();
+    }
+
+    public SceneObject getObject(int id) {
+        return objects.get(id);
+    }
+
+    /**
+     * 全物体に frame のキーフレームを KeyFrameData.applyToBody と同じ規則で適用する。
+     * キー駆動の物体には、状態のパラメータの次のフレームの値を移動先として渡す。
+     */
+    public void applyKeyFrames(int frame) {
+        KeyFrameApplyEvent event = new KeyFrameApplyEvent();
+        event.begin();
+        tracks.refresh(objects);
+
+        int applied = 0;
+        int count = objects.size();
+        for (int id = 0; id < count; id++) {
+            Body body = bodies[id];
+            int base = id * SceneTracks.PARAM_COUNT;
+            for (KeyFrameData.ParamType type : KeyFrameData.PHYSICS_PARAMS) {
+                int track = base + type.ordinal();
+                if (tracks.hasKeys(track) && body.hasParameter(type)) {
+                    body.setParameter(type, tracks.value(track, frame));
+                    applied++;
+                }
+            }
+            if (objects.get(id).keyFrameData.isKinematic()) {
+                for (KeyFrameData.ParamType type : KeyFrameData.STATE_PARAMS) {
+                    int track = base + type.ordinal();
+                    if (tracks.hasKeys(track) && body.hasParameter(type)) {
+                        body.setKinematicTarget(type, tracks.value(track, frame + 1));
+                        applied++;
+                    }
+                }
+            }
+        }
+
+        if (event.shouldCommit()) {
+            event.frame = frame;
+            event.parametersApplied = applied;
+            event.commit();
+        }
+    }
+
+    /**
+     * キーフレームが選択されている物体。なければ null。
+     */
+    public SceneObject getSelectedObject() {
+        for (SceneObject object : objects) {
+            if (object.keyFrameData.getSelectedParamType() != null) {
+                return object;
+            }
+        }
+        return null;
+    }
+
+    public void clearSelection() {
+        for (SceneObject object : objects) {
+            object.keyFrameData.clearSelection();
+        }
+    }
+}
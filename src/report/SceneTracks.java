@@ -0,0 +1,101 @@
+package report;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * シーン全体のキーフレームを再生用に詰めて持つクラス。
+ * トラックは (物体番号, ParamType) ごとに1本で、番号は objectId * PARAM_COUNT + ordinal。
+ * 各トラックは物体の KeyFrameData が getValue 用に持つ TrackCurve をそのまま指すので、係数を二重に持たない。
+ * 補間の結果は KeyFrameData.getValue と同じ値になる。
+ */
+class SceneTracks {
+    static final int PARAM_COUNT = KeyFrameData.ParamType.values().length;
+
+    private TrackCurve[] curves = new TrackCurve[0];
+    /** 直前に値を求めた区間の先頭。フレームを順に進めるときは二分探索しなくて済む。 */
+    private int[] cursors = new int[0];
+    private boolean[] dirty = new boolean[0];
+    private boolean anyDirty = false;
+    private int objectCount = 0;
+
+    static int trackIndex(int objectId, KeyFrameData.ParamType type) {
+        return objectId * PARAM_COUNT + type.ordinal();
+    }
+
+    int getObjectCount() {
+        return objectCount;
+    }
+
+    void addObject() {
+        int trackCount = (objectCount + 1) * PARAM_COUNT;
+        if (trackCount > curves.length) {
+            int capacity = Math.max(trackCount, curves.length * 2);
+            curves = Arrays.copyOf(curves, capacity);
+            cursors = Arrays.copyOf(cursors, capacity);
+            dirty = Arrays.copyOf(dirty, capacity);
+        }
+        markObjectDirty(objectCount);
+        objectCount++;
+    }
+
+    void markDirty(int objectId, KeyFrameData.ParamType type) {
+        dirty[trackIndex(objectId, type)] = true;
+        anyDirty = true;
+    }
+
+    void markObjectDirty(int objectId) {
+        Arrays.fill(dirty, objectId * PARAM_COUNT, (objectId + 1) * PARAM_COUNT, true);
+        anyDirty = true;
+    }
+
+    /**
+     * 変更のあったトラックの係数を KeyFrameData に揃えさせ、区間の位置を最初に戻す。
+     */
+    void refresh(List<Scene.SceneObject> objects) {
+        if (!anyDirty) {
+            return;
+        }
+        KeyFrameData.ParamType[] types = KeyFrameData.ParamType.values();
+        for (int track = 0; track < objectCount * PARAM_COUNT; track++) {
+            if (!dirty[track]) {
+                continue;
+            }
+            KeyFrameData data = objects.get(track / PARAM_COUNT).getKeyFrameData();
+            KeyFrameData.ParamType type = types[track % PARAM_COUNT];
+            curves[track] = data.getCurve(type);
+            cursors[track] = 0;
+            dirty[track] = false;
+        }
+        anyDirty = false;
+    }
+
+    boolean hasKeys(int track) {
+        return curves[track] != null && curves[track].size() > 0;
+    }
+
+    /**
+     * トラックの frame での値。キーフレームがないトラックでは呼ばないこと。
+     */
+    double value(int track, int frame) {
+        TrackCurve curve = curves[track];
+        int count = curve.size();
+        if (frame <= curve.frameAt(0)) {
+            return curve.valueAt(0);
+        }
+        if (frame >= curve.frameAt(count - 1)) {
+            return curve.valueAt(count - 1);
+        }
+
+        int cursor = cursors[track];
+        if (cursor >= count - 1 || curve.frameAt(cursor) > frame) {
+            cursor = curve.segmentOf(frame);
+        } else if (curve.frameAt(cursor + 1) <= frame) {
+            // 次の区間までなら1つ進め、それより先へ飛んだら二分探索する。frame は最後のキーより前なので
+            // cursor + 2 は範囲内。
+            cursor = curve.frameAt(cursor + 2) > frame ? cursor + 1 : curve.segmentOf(frame);
+        }
+        cursors[track] = cursor;
+        return curve.evaluate(cursor, frame);
+    }
+}
@@ -0,0 +1,195 @@
+package report;
+
+import java.awt.BasicStroke;
+import java.awt.Graphics2D;
+import java.awt.Stroke;
+import java.util.List;
+
+/**
+ * 厚みのない線分の障害物。内側を持たないので、距離が margin 未満になった頂点を接触として扱う。
+ * 1回のサブステップで頂点が線分をまたいだときは、来た側へ押し戻す(移動前の位置との交差で判定する)。
+ * 端点は Box の辺に刺さる側の判定にも使う。
+ */
+public class SegmentObstacle extends Obstacle {
+    /** 通り抜けを押し戻すときに線から離す量(px)。 */
+    private static final double PUSH_OUT_SLOP = 1e-6;
+
+    private final double x1;
+    private final double y1;
+    private final double x2;
+    private final double y2;
+
+    public SegmentObstacle(double x1, double y1, double x2, double y2) {
+        this.x1 = x1;
+        this.y1 = y1;
+        this.x2 = x2;
+        this.y2 = y2;
+        updateBounds(new double[] { x1, x2 }, new double[] { y1, y2 });
+    }
+
+    @Override
+    public boolean findContact(double px, double py, double margin, double[] out) {
+        return findContact(px, py, px, py, margin, out);
+    }
+
+    @Override
+    public boolean findContact(double prevX, double prevY, double px, double py, double margin, double[] out) {
+        double dx = x2 - x1;
+        double dy = y2 - y1;
+        double lengthSq = dx * dx + dy * dy;
+        double length = Math.sqrt(lengthSq);
+
+        if (length > 0) {
+            // 直線からの符号付き距離。符号が変わり、交点が線分の上にあれば通り抜けている。
+            double prevSide = (dx * (prevY - y1) - dy * (prevX - x1)) / length;
+            double side = (dx * (py - y1) - dy * (px - x1)) / length;
+            if ((prevSide > 0 && side < 0) || (prevSide < 0 && side > 0)) {
+                double u = prevSide / (prevSide - side);
+                double qx = prevX + (px - prevX) * u;
+                double qy = prevY + (py - prevY) * u;
+                double t = ((qx - x1) * dx + (qy - y1) * dy) / lengthSq;
+                if (t >= 0.0 && t <= 1.0) {
+                    double sign = prevSide > 0 ? 1.0 : -1.0;
+                    out[0] = -dy / length * sign;
+                    out[1] = dx / length * sign;
+                    // 線の上で止まると次のサブステップで来た側が分からなくなるので、わずかに手前まで押し戻す。
+                    out[2] = -Math.abs(side) - PUSH_OUT_SLOP;
+                    return true;
+                }
+            }
+        }
+
+        double t = lengthSq > 0 ? ((px - x1) * dx + (py - y1) * dy) / lengthSq : 0.0;
+        t = Math.max(0.0, Math.min(1.0, t));
+
+        double cx = x1 + dx * t;
+        double cy = y1 + dy * t;
+        double ox = px - cx;
+        double oy = py - cy;
+        double distance = Math.sqrt(ox * ox + oy * oy);
+        if (distance >= margin) {
+            return false;
+        }
+
+        if (distance > 1e-9) {
+            out[0] = ox / distance;
+            out[1] = oy / distance;
+        } else {
+            // 線の上にいるときは移動前にいた側へ押す。
+            double prevSide = length > 0 ? dx * (prevY - y1) - dy * (prevX - x1) : 0.0;
+            double sign = prevSide < 0 ? -1.0 : 1.0;
+            out[0] = length > 0 ? -dy / length * sign : 0.0;
+            out[1] = length > 0 ? dx / length * sign : -1.0;
+        }
+        out[2] = distance;
+        return true;
+    }
+
+    @Override
+    public int getEndpointCount() {
+        return 2;
+    }
+
+    @Override
+    public double getEndpointX(int index) {
+        switch (index) {
+            case 0:
+                return x1;
+            case 1:
+                return x2;
+            default:
+                return super.getEndpointX(index);
+        }
+    }
+
+    @Override
+    public double getEndpointY(int index) {
+        switch (index) {
+            case 0:
+                return y1;
+            case 1:
+                return y2;
+            default:
+                return super.getEndpointY(index);
+        }
+    }
+
+    @Override
+    public void draw(Graphics2D g2d) {
+        Stroke prevStroke = g2d.getStroke();
+        g2d.setStroke(new BasicStroke(3));
+        g2d.drawLine((int) x1, (int) y1, (int) x2, (int) y2);
+        g2d.setStroke(prevStroke);
+    }
+
+    /**
+     * 速く動く Box が線分を通り抜けないことを確かめる。線分に落ちる Box の中心が線分の反対側へ
+     * 出ないこと、横からぶつけた端点が Box の内側へ margin より深く入らないことを見る。
+     * 失敗があれば終了コード1で終わる。
+     */
+    public static void main(String[] args) {
+        boolean failed = false;
+
+        // 横の線分 (100,300)-(700,300) に傾いた Box を上から落とす。
+        for (double speed : new double[] { 10, 20, 40, 60, 80 }) {
+            Box box = checkBox(new SegmentObstacle(100, 300, 700, 300), 400, 200, 0, speed, 0.3);
+            int crossed = -1;
+            for (int i = 0; i < 200 && crossed < 0; i++) {
+                box.next();
+                if (box.getX() > 100 && box.getX() < 700 && box.getY() > 300) {
+                    crossed = i;
+                }
+            }
+            failed |= crossed >= 0;
+            System.out.printf("落下   速さ %4.0f  %s%n", speed, crossed < 0 ? "OK" : "NG (" + crossed + " フレーム目で通り抜け)");
+        }
+
+        // 縦の線分 (400,0)-(400,300) の下の端点に、重力なしで Box の右の辺を横からぶつける。
+        for (double speed : new double[] { 5, 10, 20, 40, 60, 80 }) {
+            for (double offsetY : new double[] { 280, 290, 300, 310 }) {
+                for (double angle : new double[] { 0, 0.2 }) {
+                    Box box = checkBox(new SegmentObstacle(400, 0, 400, 300), 300, offsetY, speed, 0, angle);
+                    box.setParameter(KeyFrameData.ParamType.GRAVITY, 0);
+                    double depth = 0;
+                    for (int i = 0; i < 40; i++) {
+                        box.next();
+                        depth = Math.max(depth, depthInside(box, 400, 300));
+                    }
+                    boolean ok = depth <= AnimationConfig.CONTACT_MARGIN;
+                    failed |= !ok;
+                    System.out.printf("端点   速さ %4.0f  y %3.0f  角度 %.1f  %s  最大の刺さり %.3f%n", speed, offsetY,
+                            angle, ok ? "OK" : "NG", depth);
+                }
+            }
+        }
+        if (failed) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * 点 (px, py) が Box の内側にある深さ。外側なら 0。
+     */
+    private static double depthInside(Box box, double px, double py) {
+        double angle = box.getParameter(KeyFrameData.ParamType.ANGLE);
+        double rx = px - box.getX();
+        double ry = py - box.getY();
+        double localX = rx * Math.cos(angle) + ry * Math.sin(angle);
+        double localY = -rx * Math.sin(angle) + ry * Math.cos(angle);
+        double gapX = box.getParameter(KeyFrameData.ParamType.WIDTH) / 2.0 - Math.abs(localX);
+        double gapY = box.getParameter(KeyFrameData.ParamType.HEIGHT) / 2.0 - Math.abs(localY);
+        return Math.max(0.0, Math.min(gapX, gapY));
+    }
+
+    private static Box checkBox(Obstacle obstacle, double x, double y, double vx, double vy, double angle) {
+        HeadlessSimulation simulation = new HeadlessSimulation(AnimationConfig.POSITION_X_MAX,
+                AnimationConfig.POSITION_Y_MAX);
+        Box box = simulation.getBox();
+        box.setObstacles(new ObstacleBvh(List.of(obstacle)));
+        box.setXY(x, y);
+        box.setVxVy(vx, vy);
+        box.setParameter(KeyFrameData.ParamType.ANGLE, angle);
+        box.setParameter(KeyFrameData.ParamType.ANGULAR_VELOCITY, 0);
+        return box;
+    }
+}
@@ -0,0 +1,36 @@
+package report;
+
+/**
+ * 半陰的(シンプレクティック)オイラー法。先に速度を更新し、新しい速度で位置を進める。
+ * コストは陽的オイラー法と同じで、エネルギーのずれが蓄積しにくい。
+ */
+public class SemiImplicitEulerIntegrator implements Integrator {
+    private final double[] q = new double[MAX_DEGREES_OF_FREEDOM];
+    private final double[] v = new double[MAX_DEGREES_OF_FREEDOM];
+    private final double[] a = new double[MAX_DEGREES_OF_FREEDOM];
+
+    @Override
+    public void integrate(Target target, double h) {
+        int n = target.getDegreesOfFreedom();
+        target.readState(q, v);
+        target.computeAcceleration(q, v, a);
+
+        target.applyDamping(v, h);
+        for (int i = 0; i < n; i++) {
+            v[i] += a[i] * h;
+            q[i] += v[i] * h;
+        }
+
+        target.writeState(q, v);
+    }
+
+    @Override
+    public String getName() {
+        return Kind.SEMI_IMPLICIT_EULER.getDisplayName();
+    }
+
+    @Override
+    public Kind getKind() {
+        return Kind.SEMI_IMPLICIT_EULER;
+    }
+}
@@ -0,0 +1,192 @@
+package report;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.swing.SwingUtilities;
+
+/**
+ * AnimationPanel とタイムラインが記録する統計を集め、SimulationStatsMXBean として公開するクラス。
+ * 記録は EDT から、読み出しは JMX のスレッドから行われるので、カウンタは LongAdder にしている。
+ * Swing の部品に触る読み出しと操作は EDT に回す。
+ */
+public class SimulationStats implements SimulationStatsMXBean {
+    public static final String OBJECT_NAME = "report:type=SimulationStats";
+
+    private final AnimationPanel animationPanel;
+    private final LongAdder framesSimulated = new LongAdder();
+    private final LongAdder replayCount = new LongAdder();
+    private final LongAdder replaySteps = new LongAdder();
+    private final LongAdder seekHits = new LongAdder();
+    private final LongAdder seekMisses = new LongAdder();
+    private final LongAdder droppedRepaints = new LongAdder();
+    private int pendingRepaints = 0;
+
+    private long rateSampleTime = System.nanoTime();
+    private long rateSampleFrames = 0;
+
+    public SimulationStats(AnimationPanel animationPanel) {
+        this.animationPanel = animationPanel;
+    }
+
+    /**
+     * プラットフォームの MBeanServer に登録する。失敗しても動作には影響しないのでログだけ出す。
+     */
+    public void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public void recordFrameSimulated() {
+        framesSimulated.increment();
+    }
+
+    /**
+     * replaySimulationToFrame 1回分。startFrame が 0 より大きければシークキャッシュが当たった。
+     */
+    public void recordReplay(int startFrame, int targetFrame, boolean cacheHit) {
+        int steps = targetFrame - startFrame;
+        replayCount.increment();
+        replaySteps.add(steps);
+        framesSimulated.add(steps);
+        if (cacheHit) {
+            seekHits.increment();
+        } else {
+            seekMisses.increment();
+        }
+    }
+
+    /**
+     * repaint を要求したときに呼ぶ。EDT からだけ呼ぶこと。
+     */
+    public void recordRepaintRequested() {
+        pendingRepaints++;
+    }
+
+    /**
+     * 描画したときに呼ぶ。前回の描画以降に2回以上要求があれば、その分をまとめられたとみなす。
+     */
+    public void recordPainted() {
+        if (pendingRepaints > 1) {
+            droppedRepaints.add(pendingRepaints - 1);
+        }
+        pendingRepaints = 0;
+    }
+
+    @Override
+    public long getFramesSimulated() {
+        return framesSimulated.sum();
+    }
+
+    @Override
+    public synchronized double getStepsPerSecond() {
+        long now = System.nanoTime();
+        long frames = framesSimulated.sum();
+        double seconds = (now - rateSampleTime) / 1e9;
+        double rate = seconds > 0 ? (frames - rateSampleFrames) / seconds : 0;
+        rateSampleTime = now;
+        rateSampleFrames = frames;
+        return rate;
+    }
+
+    @Override
+    public long getReplayCount() {
+        return replayCount.sum();
+    }
+
+    @Override
+    public double getAverageReplayLength() {
+        long count = replayCount.sum();
+        return count > 0 ? (double) replaySteps.sum() / count : 0;
+    }
+
+    @Override
+    public double getSeekCacheHitRate() {
+        long hits = seekHits.sum();
+        long total = hits + seekMisses.sum();
+        return total > 0 ? (double) hits / total : 0;
+    }
+
+    @Override
+    public long getDroppedRepaints() {
+        return droppedRepaints.sum();
+    }
+
+    @Override
+    public Map<String, Integer> getKeyFrameCounts() {
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        runOnEdt(() -> {
+            KeyFrameTimeline timeline = animationPanel.getTimeline();
+            if (timeline == null) {
+                return;
+            }
+            KeyFrameData keyFrameData = timeline.getKeyFrameData();
+            for (KeyFrameData.ParamType type : KeyFrameData.ParamType.values()) {
+                counts.put(type.name(), keyFrameData.getKeyFrames(type).size());
+            }
+        });
+        return counts;
+    }
+
+    @Override
+    public int getFrameIntervalMs() {
+        return animationPanel.getFrameInterval();
+    }
+
+    @Override
+    public int getMaxFrame() {
+        return animationPanel.getMaxFrame();
+    }
+
+    @Override
+    public void changeFrameInterval(int milliseconds) {
+        if (milliseconds <= 0) {
+            throw new IllegalArgumentException("フレーム間隔は1ミリ秒以上にしてください");
+        }
+        SwingUtilities.invokeLater(() -> animationPanel.setFrameInterval(milliseconds));
+    }
+
+    @Override
+    public void changeMaxFrame(int maxFrame) {
+        if (maxFrame <= 0) {
+            throw new IllegalArgumentException("最大フレームは1以上にしてください");
+        }
+        SwingUtilities.invokeLater(() -> animationPanel.setMaxFrame(maxFrame));
+    }
+
+    @Override
+    public void resetStats() {
+        framesSimulated.reset();
+        replayCount.reset();
+        replaySteps.reset();
+        seekHits.reset();
+        seekMisses.reset();
+        droppedRepaints.reset();
+        synchronized (this) {
+            rateSampleTime = System.nanoTime();
+            rateSampleFrames = 0;
+        }
+    }
+
+    private static void runOnEdt(Runnable task) {
+        if (SwingUtilities.isEventDispatchThread()) {
+            task.run();
+            return;
+        }
+        try {
+            SwingUtilities.invokeAndWait(task);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (InvocationTargetException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package report;
+
+import java.util.Map;
+
+/**
+ * JMX で公開するシミュレーションの統計と操作。
+ * jconsole などから report:type=SimulationStats として見える。
+ */
+public interface SimulationStatsMXBean {
+    long getFramesSimulated();
+
+    /**
+     * 前回この値を読んでから今までの、1秒あたりの World.step() 回数。
+     */
+    double getStepsPerSecond();
+
+    long getReplayCount();
+
+    double getAverageReplayLength();
+
+    /**
+     * シーク時に途中の状態から再生を続けられた割合(0〜1)。
+     */
+    double getSeekCacheHitRate();
+
+    /**
+     * repaint を要求したのに描画されずにまとめられたフレームの数。
+     */
+    long getDroppedRepaints();
+
+    Map<String, Integer> getKeyFrameCounts();
+
+    int getFrameIntervalMs();
+
+    int getMaxFrame();
+
+    void changeFrameInterval(int milliseconds);
+
+    void changeMaxFrame(int maxFrame);
+
+    void resetStats();
+}
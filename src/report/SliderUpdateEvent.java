@@ -0,0 +1,26 @@
+package report;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * パラメータスライダーをまとめて Box の値に合わせたときの JFR イベント。既定では無効。
+ */
+@Name("report.SliderUpdate")
+@Label("Slider Update")
+@Description("パラメータスライダーを Box の現在値に合わせた")
+@Category({"BoxKeyFrameAnimation", "Timeline"})
+@Enabled(false)
+@StackTrace(false)
+class SliderUpdateEvent extends Event {
+    @Label("Frame")
+    int frame;
+
+    @Label("Slider Count")
+    int sliderCount;
+}
@@ -0,0 +1,102 @@
+package report;
+
+import java.util.Arrays;
+
+/**
+ * シミュレーション状態のチェックサム。
+ * ParamType 順の14個の値と接触数・静止フラグを 64 ビットのハッシュにまとめる。
+ * World 全体のチェックサムは、全 Box(ウォームスタートのキャッシュを含む)と全 Ball を順に畳み込む。
+ * tolerance が 0 ならビット単位で比べ、正なら tolerance で丸めてから比べる。
+ */
+final class StateChecksum {
+    private static final long SEED = 0xCBF29CE484222325L;
+    private static final long MULTIPLIER = 0x9E3779B97F4A7C15L;
+    /** values() は呼ぶたびに配列を作るので、毎フレームの計算ではこれを使う。 */
+    private static final KeyFrameData.ParamType[] PARAM_TYPES = KeyFrameData.ParamType.values();
+
+    private StateChecksum() {
+    }
+
+    static long mix(long hash, long value) {
+        hash = (hash ^ value) * MULTIPLIER;
+        return hash ^ (hash >>> 29);
+    }
+
+    static long bits(double value, double tolerance) {
+        if (tolerance > 0) {
+            return Math.round(value / tolerance);
+        }
+        return Double.doubleToLongBits(value);
+    }
+
+    /**
+     * 保存しておいた状態と Box の現在の状態で、チェックサムに入る値のうち最初に違うものの名前。
+     * 同じなら null。
+     */
+    static String firstDifferentField(Box.BoxState expected, Box actual) {
+        for (KeyFrameData.ParamType type : PARAM_TYPES) {
+            if (bits(expected.getParameter(type), 0) != bits(actual.getParameter(type), 0)) {
+                return type.name();
+            }
+        }
+        if (expected.contactCount != actual.getLastContactCount()) {
+            return "contactCount";
+        }
+        if (expected.resting != actual.isResting()) {
+            return "resting";
+        }
+        if (!Arrays.equals(expected.contactImpulses, actual.getContactSolver().exportCache())) {
+            return "contactCache";
+        }
+        return null;
+    }
+
+    /**
+     * 保存しておいた World の状態と現在の状態で、最初に違う物体と値の名前。同じなら null。
+     */
+    static String firstDifferentField(World.State expected, World actual) {
+        for (int i = 0; i < actual.getBoxCount(); i++) {
+            String field = firstDifferentField(expected.getBoxState(i), actual.getBox(i));
+            if (field != null) {
+                return "box " + i + " " + field;
+            }
+        }
+        for (int i = 0; i < actual.getBallCount(); i++) {
+            Ball ball = actual.getBall(i);
+            for (KeyFrameData.ParamType type : PARAM_TYPES) {
+                if (ball.hasParameter(type)
+                        && bits(expected.getBallState(i).getParameter(type), 0) != bits(ball.getParameter(type), 0)) {
+                    return "ball " + i + " " + type.name();
+                }
+            }
+        }
+        return null;
+    }
+
+    static long of(Box box, double tolerance) {
+        long hash = SEED;
+        for (KeyFrameData.ParamType type : PARAM_TYPES) {
+            hash = mix(hash, bits(box.getParameter(type), tolerance));
+        }
+        hash = mix(hash, box.getLastContactCount());
+        return mix(hash, box.isResting() ? 1 : 0);
+    }
+
+    static long of(World world, double tolerance) {
+        long hash = SEED;
+        for (int i = 0; i < world.getBoxCount(); i++) {
+            Box box = world.getBox(i);
+            hash = mix(hash, of(box, tolerance));
+            hash = box.getContactSolver().mixCache(hash);
+        }
+        for (int i = 0; i < world.getBallCount(); i++) {
+            Ball ball = world.getBall(i);
+            for (KeyFrameData.ParamType type : PARAM_TYPES) {
+                if (ball.hasParameter(type)) {
+                    hash = mix(hash, bits(ball.getParameter(type), tolerance));
+                }
+            }
+        }
+        return hash;
+    }
+}
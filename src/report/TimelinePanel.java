@@ -3,29 +3,41 @@ package report;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.TreeMap;
 
 /**
  * タイムラインを描画するパネル。
+ * シーンの物体ごとにグループ行を置き、その下に ParamType ごとのトラックを並べる。
+ * グループ行をクリックするとトラックを折りたたむ。
  * クリック位置からフレーム・トラックを割り出し、KeyFrameDataへの登録や選択を行う。
+ * キーを右クリックすると、そのキーから次のキーまでの補間方法を選べる。
+ * Ctrl+ホイールで拡大縮小でき、1ピクセルに複数フレームが入るときはキーフレームを
+ * KeyFramePyramid でピクセル単位にまとめて描くので、100万フレームでも描画量は画面の幅で決まる。
  */
 public class TimelinePanel extends JPanel {
-    private final KeyFrameData keyFrameData;
+    private final Scene scene;
     private int currentFrame = 0;
     private int maxFrame = AnimationConfig.MAX_FRAME;
     private JScrollPane parentScrollPane;
 
-    private static final int FRAME_WIDTH = AnimationConfig.TIMELINE_FRAME_WIDTH;
+    /** 行ごとの物体番号と ParamType の ordinal(グループ行は -1)。 */
+    private int[] rowObjects = new int[0];
+    private int[] rowTypes = new int[0];
+    private int rowCount = 0;
+    private boolean[] collapsed = new boolean[0];
+    private double pixelsPerFrame = AnimationConfig.TIMELINE_FRAME_WIDTH;
+
     private static final int ROW_HEIGHT = AnimationConfig.TIMELINE_ROW_HEIGHT;
     private static final int LABEL_WIDTH = AnimationConfig.TIMELINE_LABEL_WIDTH;
     private static final int KEYFRAME_SIZE = AnimationConfig.TIMELINE_KEYFRAME_SIZE;
+    private static final int HEADER_HEIGHT = 30;
 
-    public TimelinePanel(KeyFrameData keyFrameData) {
-        this.keyFrameData = keyFrameData;
-        int panelWidth = LABEL_WIDTH + maxFrame * FRAME_WIDTH + 50;
-        setPreferredSize(new Dimension(panelWidth, ROW_HEIGHT * KeyFrameData.ParamType.values().length + 40));
+    public TimelinePanel(Scene scene) {
+        this.scene = scene;
         setBackground(UIStyles.TIMELINE_BG);
+        rebuildRows();
 
         setFocusable(true);
 
@@ -40,14 +52,120 @@ public class TimelinePanel extends JPanel {
                 requestFocusInWindow();
             }
         });
+
+        addMouseWheelListener(e -> {
+            if (e.isControlDown()) {
+                double factor = Math.pow(AnimationConfig.TIMELINE_ZOOM_STEP, -e.getPreciseWheelRotation());
+                zoomAround(pixelsPerFrame * factor, e.getX());
+            } else if (parentScrollPane != null) {
+                parentScrollPane.dispatchEvent(SwingUtilities.convertMouseEvent(this, e, parentScrollPane));
+            }
+        });
+    }
+
+    public double getPixelsPerFrame() {
+        return pixelsPerFrame;
+    }
+
+    public void setPixelsPerFrame(double value) {
+        int anchorX = LABEL_WIDTH;
+        if (parentScrollPane != null) {
+            Rectangle view = parentScrollPane.getViewport().getViewRect();
+            anchorX = view.x + view.width / 2;
+        }
+        zoomAround(value, anchorX);
+    }
+
+    /**
+     * anchorX の位置にあるフレームが画面上で動かないように拡大率を変える。
+     */
+    private void zoomAround(double value, int anchorX) {
+        double clamped = Math.max(AnimationConfig.TIMELINE_MIN_PIXELS_PER_FRAME,
+                Math.min(AnimationConfig.TIMELINE_FRAME_WIDTH, value));
+        if (clamped == pixelsPerFrame) {
+            return;
+        }
+        double anchorFrame = (anchorX - LABEL_WIDTH) / pixelsPerFrame;
+        pixelsPerFrame = clamped;
+        updatePreferredSize();
+        revalidate();
+
+        if (parentScrollPane != null) {
+            Rectangle view = parentScrollPane.getViewport().getViewRect();
+            int offset = anchorX - view.x;
+            int newAnchorX = LABEL_WIDTH + (int) Math.round(anchorFrame * pixelsPerFrame);
+            Dimension size = getPreferredSize();
+            int newX = Math.max(0, Math.min(newAnchorX - offset, size.width - view.width));
+            parentScrollPane.getViewport().setViewSize(size);
+            parentScrollPane.getViewport().setViewPosition(new Point(newX, view.y));
+        }
+        repaint();
+    }
+
+    private int frameToX(int frame) {
+        return LABEL_WIDTH + (int) Math.round(frame * pixelsPerFrame);
+    }
+
+    private int xToFrame(int x) {
+        return (int) Math.round((x - LABEL_WIDTH) / pixelsPerFrame);
+    }
+
+    /**
+     * 物体の追加や折りたたみのあとに行の並びを作り直す。
+     */
+    public void rebuildRows() {
+        int objectCount = scene.getObjectCount();
+        if (collapsed.length < objectCount) {
+            collapsed = Arrays.copyOf(collapsed, objectCount);
+        }
+
+        int capacity = objectCount * (KeyFrameData.ParamType.values().length + 1);
+        if (rowObjects.length < capacity) {
+            rowObjects = new int[capacity];
+            rowTypes = new int[capacity];
+        }
+        rowCount = 0;
+        for (int id = 0; id < objectCount; id++) {
+            rowObjects[rowCount] = id;
+            rowTypes[rowCount] = -1;
+            rowCount++;
+            if (!collapsed[id]) {
+                Body body = scene.getObject(id).getBody();
+                for (KeyFrameData.ParamType type : KeyFrameData.ParamType.values()) {
+                    // Ball のように持たないパラメータは行を出さない。
+                    if (!body.hasParameter(type)) {
+                        continue;
+                    }
+                    rowObjects[rowCount] = id;
+                    rowTypes[rowCount] = type.ordinal();
+                    rowCount++;
+                }
+            }
+        }
+
+        updatePreferredSize();
+        revalidate();
+        repaint();
+    }
+
+    public void setCollapsed(int objectId, boolean value) {
+        if (objectId < collapsed.length) {
+            collapsed[objectId] = value;
+            rebuildRows();
+        }
+    }
+
+    private void updatePreferredSize() {
+        setPreferredSize(new Dimension(LABEL_WIDTH + (int) Math.ceil(maxFrame * pixelsPerFrame) + 50,
+                ROW_HEIGHT * rowCount + HEADER_HEIGHT + 10));
     }
 
     private void handleMouseClick(MouseEvent e) {
         int mouseX = e.getX();
         int mouseY = e.getY();
 
-        if (mouseY < 30) {
-            int clickedFrame = (mouseX - LABEL_WIDTH + FRAME_WIDTH / 2) / FRAME_WIDTH;
+        if (mouseY < HEADER_HEIGHT) {
+            int clickedFrame = xToFrame(mouseX);
             if (clickedFrame >= 0 && clickedFrame <= maxFrame) {
                 currentFrame = clickedFrame;
                 firePropertyChange("currentFrame", -1, currentFrame);
@@ -56,20 +174,68 @@ public class TimelinePanel extends JPanel {
             return;
         }
 
-        int rowIndex = (mouseY - 30) / ROW_HEIGHT;
-        if (rowIndex >= 0 && rowIndex < KeyFrameData.ParamType.values().length) {
-            KeyFrameData.ParamType type = KeyFrameData.ParamType.values()[rowIndex];
-            int clickedFrame = (mouseX - LABEL_WIDTH + FRAME_WIDTH / 2) / FRAME_WIDTH;
+        int rowIndex = (mouseY - HEADER_HEIGHT) / ROW_HEIGHT;
+        if (rowIndex < 0 || rowIndex >= rowCount) {
+            return;
+        }
+        int objectId = rowObjects[rowIndex];
+        if (rowTypes[rowIndex] < 0) {
+            setCollapsed(objectId, !collapsed[objectId]);
+            return;
+        }
 
-            if (clickedFrame >= 0 && clickedFrame <= maxFrame) {
-                if (keyFrameData.hasKeyFrame(type, clickedFrame)) {
-                    keyFrameData.selectKeyFrame(type, clickedFrame);
-                } else {
-                    keyFrameData.clearSelection();
+        KeyFrameData.ParamType type = KeyFrameData.ParamType.values()[rowTypes[rowIndex]];
+        KeyFrameData keyFrameData = scene.getObject(objectId).getKeyFrameData();
+        int clickedFrame = xToFrame(mouseX);
+
+        if (clickedFrame >= 0 && clickedFrame <= maxFrame) {
+            scene.clearSelection();
+            Integer nearest = findNearestKeyFrame(keyFrameData.getKeyFrames(type), mouseX);
+            if (nearest != null) {
+                keyFrameData.selectKeyFrame(type, nearest);
+                if (SwingUtilities.isRightMouseButton(e)) {
+                    showInterpolationMenu(keyFrameData, type, nearest, mouseX, e.getY());
                 }
-                repaint();
             }
+            repaint();
+        }
+    }
+
+    /**
+     * 右クリックしたキーから次のキーまでの補間方法を選ぶメニュー。
+     */
+    private void showInterpolationMenu(KeyFrameData keyFrameData, KeyFrameData.ParamType type, int frame,
+            int x, int y) {
+        JPopupMenu menu = new JPopupMenu();
+        KeyFrameData.Interpolation current = keyFrameData.getInterpolation(type, frame);
+        for (KeyFrameData.Interpolation mode : KeyFrameData.Interpolation.values()) {
+            JRadioButtonMenuItem item = new JRadioButtonMenuItem(mode.getDisplayName(), mode == current);
+            item.addActionListener(e -> {
+                keyFrameData.setInterpolation(type, frame, mode);
+                repaint();
+            });
+            menu.add(item);
         }
+        menu.show(this, x, y);
+    }
+
+    /**
+     * クリック位置から菱形の半分の幅以内にある一番近いキーフレーム。縮小表示でも選べるようにピクセルで判定する。
+     */
+    private Integer findNearestKeyFrame(TreeMap<Integer, Double> frames, int mouseX) {
+        int frame = xToFrame(mouseX);
+        Integer below = frames.floorKey(frame);
+        Integer above = frames.ceilingKey(frame);
+        Integer nearest = null;
+        int best = KEYFRAME_SIZE / 2 + 1;
+        if (below != null && Math.abs(frameToX(below) - mouseX) < best) {
+            nearest = below;
+            best = Math.abs(frameToX(below) - mouseX);
+        }
+        if (above != null && Math.abs(frameToX(above) - mouseX) < best) {
+            nearest = above;
+        }
+        return nearest;
     }
 
     @Override
@@ -78,97 +244,197 @@ public class TimelinePanel extends JPanel {
         Graphics2D g2d = (Graphics2D) g;
         g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
 
-        drawHeader(g2d);
-        drawTracks(g2d);
-        drawKeyFrames(g2d);
+        // 見えている行だけを描く。物体が多くても描画量は画面の高さで決まる。
+        Rectangle clip = g2d.getClipBounds();
+        if (clip == null) {
+            clip = new Rectangle(0, 0, getWidth(), getHeight());
+        }
+        int firstRow = Math.max(0, (clip.y - HEADER_HEIGHT) / ROW_HEIGHT);
+        int lastRow = Math.min(rowCount - 1, (clip.y + clip.height - HEADER_HEIGHT) / ROW_HEIGHT);
+        // 横方向も同様に、見えているフレームの範囲だけを描く。
+        int firstFrame = Math.max(0, xToFrame(clip.x) - 1);
+        int lastFrame = Math.min(maxFrame, xToFrame(clip.x + clip.width) + 1);
+
+        drawHeader(g2d, firstFrame, lastFrame);
+        for (int row = firstRow; row <= lastRow; row++) {
+            if (rowTypes[row] < 0) {
+                drawGroupRow(g2d, row, firstFrame, lastFrame);
+            } else {
+                drawTrack(g2d, row, firstFrame, lastFrame);
+                drawKeyFrames(g2d, row, firstFrame, lastFrame);
+            }
+        }
         drawCurrentFrameLine(g2d);
     }
 
-    private void drawHeader(Graphics2D g2d) {
+    /**
+     * ラベルの間隔が TIMELINE_LABEL_SPACING ピクセル以上になる 1・2・5×10^n のフレーム数(5以上)。
+     */
+    private int labelStep() {
+        double minFrames = AnimationConfig.TIMELINE_LABEL_SPACING / pixelsPerFrame;
+        long step = 5;
+        long magnitude = 1;
+        while (step < minFrames) {
+            if (step == magnitude) {
+                step = 2 * magnitude;
+            } else if (step == 2 * magnitude) {
+                step = 5 * magnitude;
+            } else {
+                magnitude *= 10;
+                step = magnitude;
+            }
+        }
+        return (int) Math.min(step, Integer.MAX_VALUE);
+    }
+
+    private void drawHeader(Graphics2D g2d, int firstFrame, int lastFrame) {
         g2d.setColor(UIStyles.TIMELINE_LABEL_BG);
-        g2d.fillRect(0, 0, getWidth(), 30);
+        g2d.fillRect(0, 0, getWidth(), HEADER_HEIGHT);
 
         g2d.setColor(UIStyles.TEXT_ON_DARK);
         g2d.setFont(UIStyles.FONT_REGULAR);
 
-        for (int i = 0; i <= maxFrame; i += 5) {
+        int step = labelStep();
+        for (long i = firstFrame - firstFrame % step; i <= lastFrame; i += step) {
             if (i != currentFrame) {
-                int x = LABEL_WIDTH + i * FRAME_WIDTH;
+                int x = frameToX((int) i);
                 g2d.drawString(String.valueOf(i), x - 5, 18);
             }
         }
     }
 
-    private void drawTracks(Graphics2D g2d) {
-        KeyFrameData.ParamType[] types = KeyFrameData.ParamType.values();
+    /**
+     * 物体のグループ行。折りたたんでいるときは全トラックのキーフレーム位置を小さな印でまとめて示す。
+     */
+    private void drawGroupRow(Graphics2D g2d, int row, int firstFrame, int lastFrame) {
+        int y = HEADER_HEIGHT + row * ROW_HEIGHT;
+        int objectId = rowObjects[row];
+        Scene.SceneObject object = scene.getObject(objectId);
 
-        for (int i = 0; i < types.length; i++) {
-            int y = 30 + i * ROW_HEIGHT;
+        g2d.setColor(UIStyles.TIMELINE_GROUP_BG);
+        g2d.fillRect(0, y, getWidth(), ROW_HEIGHT);
 
-            if (i % 2 == 0) {
-                g2d.setColor(UIStyles.TIMELINE_TRACK_EVEN);
-            } else {
-                g2d.setColor(UIStyles.TIMELINE_TRACK_ODD);
+        g2d.setColor(UIStyles.TEXT_ON_DARK);
+        g2d.setFont(UIStyles.FONT_BOLD);
+        g2d.drawString((collapsed[objectId] ? "▶ " : "▼ ") + object.getName(), 8, y + 17);
+
+        g2d.setColor(UIStyles.TIMELINE_GRID);
+        g2d.drawLine(0, y, getWidth(), y);
+
+        if (collapsed[objectId]) {
+            g2d.setColor(UIStyles.KEYFRAME_COLOR);
+            KeyFrameData keyFrameData = object.getKeyFrameData();
+            for (KeyFrameData.ParamType type : KeyFrameData.ParamType.values()) {
+                drawKeyFrameTicks(g2d, keyFrameData.getPyramid(type), y + ROW_HEIGHT / 2 - 3, 6,
+                        firstFrame, lastFrame);
             }
-            g2d.fillRect(0, y, getWidth(), ROW_HEIGHT);
+        }
+    }
 
-            g2d.setColor(UIStyles.TIMELINE_LABEL_BG);
-            g2d.fillRect(0, y, LABEL_WIDTH, ROW_HEIGHT);
+    private void drawTrack(Graphics2D g2d, int row, int firstFrame, int lastFrame) {
+        int y = HEADER_HEIGHT + row * ROW_HEIGHT;
+        KeyFrameData.ParamType type = KeyFrameData.ParamType.values()[rowTypes[row]];
 
-            g2d.setColor(UIStyles.TEXT_ON_DARK);
-            g2d.setFont(UIStyles.FONT_REGULAR);
-            g2d.drawString(types[i].getDisplayName(), 8, y + 22);
+        if (rowTypes[row] % 2 == 0) {
+            g2d.setColor(UIStyles.TIMELINE_TRACK_EVEN);
+        } else {
+            g2d.setColor(UIStyles.TIMELINE_TRACK_ODD);
+        }
+        g2d.fillRect(0, y, getWidth(), ROW_HEIGHT);
 
-            g2d.setColor(UIStyles.TIMELINE_GRID);
-            g2d.drawLine(0, y, getWidth(), y);
-            g2d.drawLine(LABEL_WIDTH, y, LABEL_WIDTH, y + ROW_HEIGHT);
+        g2d.setColor(UIStyles.TIMELINE_LABEL_BG);
+        g2d.fillRect(0, y, LABEL_WIDTH, ROW_HEIGHT);
 
-            for (int f = 0; f <= maxFrame; f++) {
-                int x = LABEL_WIDTH + f * FRAME_WIDTH;
-                if (f % 5 == 0) {
-                    g2d.setColor(new Color(255, 165, 0));
-                } else {
-                    g2d.setColor(UIStyles.TIMELINE_GRID);
-                }
-                g2d.drawLine(x, y, x, y + ROW_HEIGHT);
+        g2d.setColor(UIStyles.TEXT_ON_DARK);
+        g2d.setFont(UIStyles.FONT_REGULAR);
+        g2d.drawString(type.getDisplayName(), 16, y + 22);
+
+        g2d.setColor(UIStyles.TIMELINE_GRID);
+        g2d.drawLine(0, y, getWidth(), y);
+        g2d.drawLine(LABEL_WIDTH, y, LABEL_WIDTH, y + ROW_HEIGHT);
+
+        // 1フレームごとの線は十分拡大しているときだけ引き、それ以外はラベルの間隔で引く。
+        int labelStep = labelStep();
+        int step = pixelsPerFrame >= KEYFRAME_SIZE / 2.0 ? 1 : labelStep;
+        for (long f = firstFrame - firstFrame % step; f <= lastFrame; f += step) {
+            int x = frameToX((int) f);
+            if (f % labelStep == 0) {
+                g2d.setColor(new Color(255, 165, 0));
+            } else {
+                g2d.setColor(UIStyles.TIMELINE_GRID);
             }
+            g2d.drawLine(x, y, x, y + ROW_HEIGHT);
         }
     }
 
-    private void drawKeyFrames(Graphics2D g2d) {
-        KeyFrameData.ParamType[] types = KeyFrameData.ParamType.values();
+    private void drawKeyFrames(Graphics2D g2d, int row, int firstFrame, int lastFrame) {
+        KeyFrameData.ParamType type = KeyFrameData.ParamType.values()[rowTypes[row]];
+        KeyFrameData keyFrameData = scene.getObject(rowObjects[row]).getKeyFrameData();
+        int y = HEADER_HEIGHT + row * ROW_HEIGHT + ROW_HEIGHT / 2;
+
+        if (pixelsPerFrame < KEYFRAME_SIZE) {
+            // 菱形が重なる縮小表示では、ピクセルごとにまとめた縦線で描く。
+            g2d.setColor(UIStyles.KEYFRAME_COLOR);
+            drawKeyFrameTicks(g2d, keyFrameData.getPyramid(type), y - KEYFRAME_SIZE / 2, KEYFRAME_SIZE,
+                    firstFrame, lastFrame);
+            if (keyFrameData.getSelectedParamType() == type) {
+                int selected = keyFrameData.getSelectedFrame();
+                if (selected >= firstFrame && selected <= lastFrame) {
+                    g2d.setColor(UIStyles.KEYFRAME_SELECTED);
+                    g2d.fillRect(frameToX(selected) - 1, y - KEYFRAME_SIZE / 2, 3, KEYFRAME_SIZE);
+                }
+            }
+            return;
+        }
 
-        for (int i = 0; i < types.length; i++) {
-            KeyFrameData.ParamType type = types[i];
-            int y = 30 + i * ROW_HEIGHT + ROW_HEIGHT / 2;
+        TreeMap<Integer, Double> frames = keyFrameData.getKeyFrames(type);
+        for (Map.Entry<Integer, Double> entry : frames.subMap(firstFrame, true, lastFrame, true).entrySet()) {
+            int frame = entry.getKey();
+            int x = frameToX(frame);
 
-            TreeMap<Integer, Double> frames = keyFrameData.getKeyFrames(type);
-            for (Map.Entry<Integer, Double> entry : frames.entrySet()) {
-                int frame = entry.getKey();
-                int x = LABEL_WIDTH + frame * FRAME_WIDTH;
+            if (keyFrameData.isSelected(type, frame)) {
+                g2d.setColor(UIStyles.KEYFRAME_SELECTED);
+            } else {
+                g2d.setColor(UIStyles.KEYFRAME_COLOR);
+            }
 
-                if (keyFrameData.isSelected(type, frame)) {
-                    g2d.setColor(UIStyles.KEYFRAME_SELECTED);
-                } else {
-                    g2d.setColor(UIStyles.KEYFRAME_COLOR);
-                }
+            int[] xPoints = { x, x + KEYFRAME_SIZE / 2, x, x - KEYFRAME_SIZE / 2 };
+            int[] yPoints = { y - KEYFRAME_SIZE / 2, y, y + KEYFRAME_SIZE / 2, y };
+            g2d.fillPolygon(xPoints, yPoints, 4);
 
-                int[] xPoints = { x, x + KEYFRAME_SIZE / 2, x, x - KEYFRAME_SIZE / 2 };
-                int[] yPoints = { y - KEYFRAME_SIZE / 2, y, y + KEYFRAME_SIZE / 2, y };
-                g2d.fillPolygon(xPoints, yPoints, 4);
+            g2d.setColor(Color.BLACK);
+            g2d.drawPolygon(xPoints, yPoints, 4);
+        }
+    }
 
-                g2d.setColor(Color.BLACK);
-                g2d.drawPolygon(xPoints, yPoints, 4);
+    /**
+     * 見えている範囲のキーフレームを、ピラミッドの1ピクセル以下の幅の段からたどって
+     * 1ピクセルに1本ずつの縦線で描く。
+     */
+    private void drawKeyFrameTicks(Graphics2D g2d, KeyFramePyramid pyramid, int top, int height,
+            int firstFrame, int lastFrame) {
+        int level = pyramid.levelFor(1.0 / pixelsPerFrame);
+        int lastBucket = lastFrame >> level;
+        int lastX = Integer.MIN_VALUE;
+        for (int i = pyramid.lowerBound(level, firstFrame >> level); i < pyramid.size(level); i++) {
+            int bucket = pyramid.bucketAt(level, i);
+            if (bucket > lastBucket) {
+                break;
+            }
+            int x = frameToX(bucket << level);
+            if (x > lastX) {
+                g2d.fillRect(x - 1, top, 3, height);
+                lastX = x + 2;
             }
         }
     }
 
     private void drawCurrentFrameLine(Graphics2D g2d) {
-        int x = LABEL_WIDTH + currentFrame * FRAME_WIDTH;
+        int x = frameToX(currentFrame);
 
         g2d.setColor(UIStyles.TIMELINE_CURRENT);
         g2d.setStroke(new BasicStroke(2));
-        g2d.drawLine(x, 30, x, getHeight());
+        g2d.drawLine(x, HEADER_HEIGHT, x, getHeight());
 
         int[] xPoints = { x - 5, x + 5, x };
         int[] yPoints = { 22, 22, 30 };
@@ -187,7 +453,7 @@ public class TimelinePanel extends JPanel {
             this.currentFrame = frame;
 
             if (parentScrollPane != null) {
-                int frameX = LABEL_WIDTH + frame * FRAME_WIDTH;
+                int frameX = frameToX(frame);
                 Rectangle visibleRect = parentScrollPane.getViewport().getViewRect();
                 int viewportWidth = visibleRect.width;
 
@@ -214,8 +480,7 @@ public class TimelinePanel extends JPanel {
 
     public void setMaxFrame(int maxFrame) {
         this.maxFrame = maxFrame;
-        setPreferredSize(new Dimension(LABEL_WIDTH + maxFrame * FRAME_WIDTH + 50,
-                ROW_HEIGHT * KeyFrameData.ParamType.values().length + 40));
+        updatePreferredSize();
         revalidate();
         repaint();
     }
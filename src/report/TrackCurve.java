@@ -0,0 +1,244 @@
+package report;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 1本のトラックのキーフレームを、区間ごとの3次多項式の係数に直して持つクラス。
+ * 区間 i (frames[i] から frames[i + 1]) の値は t = (frame - frames[i]) / (frames[i + 1] - frames[i]) として
+ * ((a * t + b) * t + c) * t + d で、係数は区間の先頭のキーの Interpolation で決まる。
+ * 係数はキーを1つ変えるたびに put / remove でその前後の区間だけ作り直すので、値を求めるのは二分探索と
+ * Horner 法だけで済み、オブジェクトを作らない。
+ * LINEAR の区間は a = b = 0 になり、以前の線形補間 v0 + (v1 - v0) * t とビット単位で同じ値を返す。
+ */
+class TrackCurve {
+    private int[] frames = new int[0];
+    private double[] values = new double[0];
+    private KeyFrameData.Interpolation[] modes = new KeyFrameData.Interpolation[0];
+    /** 区間ごとに a, b, c, d の4つ。 */
+    private double[] coefficients = new double[0];
+    private int count = 0;
+
+    /**
+     * キーと補間方法から係数をすべて作り直す。modes に無いキーは LINEAR。
+     */
+    void set(TreeMap<Integer, Double> keys, TreeMap<Integer, KeyFrameData.Interpolation> modes) {
+        ensureCapacity(keys.size());
+        count = keys.size();
+        int i = 0;
+        for (Map.Entry<Integer, Double> entry : keys.entrySet()) {
+            frames[i] = entry.getKey();
+            values[i] = entry.getValue();
+            this.modes[i] = modes.getOrDefault(entry.getKey(), KeyFrameData.Interpolation.LINEAR);
+            i++;
+        }
+        recompute(0, count - 2);
+    }
+
+    /**
+     * frame のキーを登録するか、値と補間方法を変える。Catmull-Rom は前後2つのキーを見るので、
+     * 作り直すのはこのキーを含む区間 index - 2 から index + 1 だけ。
+     */
+    void put(int frame, double value, KeyFrameData.Interpolation mode) {
+        int index = Arrays.binarySearch(frames, 0, count, frame);
+        if (index < 0) {
+            index = -index - 1;
+            ensureCapacity(count + 1);
+            System.arraycopy(frames, index, frames, index + 1, count - index);
+            System.arraycopy(values, index, values, index + 1, count - index);
+            System.arraycopy(modes, index, modes, index + 1, count - index);
+            if (index < count - 1) {
+                System.arraycopy(coefficients, index * 4, coefficients, (index + 1) * 4, (count - 1 - index) * 4);
+            }
+            count++;
+            frames[index] = frame;
+        }
+        values[index] = value;
+        modes[index] = mode;
+        recompute(index - 2, index + 1);
+    }
+
+    /**
+     * frame のキーを消す。隣り合うことになった前後のキーを含む区間 index - 2 から index だけ作り直す。
+     */
+    void remove(int frame) {
+        int index = Arrays.binarySearch(frames, 0, count, frame);
+        if (index < 0) {
+            return;
+        }
+        System.arraycopy(frames, index + 1, frames, index, count - index - 1);
+        System.arraycopy(values, index + 1, values, index, count - index - 1);
+        System.arraycopy(modes, index + 1, modes, index, count - index - 1);
+        if (index < count - 2) {
+            System.arraycopy(coefficients, (index + 1) * 4, coefficients, index * 4, (count - 2 - index) * 4);
+        }
+        count--;
+        modes[count] = null;
+        recompute(index - 2, index);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (frames.length >= capacity) {
+            return;
+        }
+        int grown = Math.max(capacity, Math.max(frames.length * 2, 4));
+        frames = Arrays.copyOf(frames, grown);
+        values = Arrays.copyOf(values, grown);
+        modes = Arrays.copyOf(modes, grown);
+        coefficients = Arrays.copyOf(coefficients, grown * 4);
+    }
+
+    /**
+     * 区間 from から to の係数を作り直す。範囲の外は切り詰める。
+     */
+    private void recompute(int from, int to) {
+        int last = Math.min(to, count - 2);
+        for (int segment = Math.max(from, 0); segment <= last; segment++) {
+            int prev = Math.max(segment - 1, 0);
+            int next = Math.min(segment + 2, count - 1);
+            computeCoefficients(modes[segment], frames[prev], values[prev], frames[segment], values[segment],
+                    frames[segment + 1], values[segment + 1], frames[next], values[next],
+                    coefficients, segment * 4);
+        }
+    }
+
+    /**
+     * 区間 (f0, v0)-(f1, v1) の係数を out[offset] から4つ書く。
+     * 前後のキーが無いときは fPrev == f0、fNext == f1 を渡す。
+     */
+    static void computeCoefficients(KeyFrameData.Interpolation mode, int fPrev, double vPrev,
+            int f0, double v0, int f1, double v1, int fNext, double vNext, double[] out, int offset) {
+        double delta = v1 - v0;
+        double a;
+        double b;
+        double c;
+        switch (mode) {
+            case STEP:
+                a = 0;
+                b = 0;
+                c = 0;
+                break;
+            case CATMULL_ROM: {
+                double m0 = startTangent(fPrev, vPrev, f0, v0, f1, v1);
+                double m1 = endTangent(f0, v0, f1, v1, fNext, vNext);
+                a = -2 * delta + m0 + m1;
+                b = 3 * delta - 2 * m0 - m1;
+                c = m0;
+                break;
+            }
+            case EASE:
+                // 制御点を v0, v0, v1, v1 に置いた3次ベジェ。両端で傾きが0になる。
+                a = -2 * delta;
+                b = 3 * delta;
+                c = 0;
+                break;
+            case LINEAR:
+            default:
+                a = 0;
+                b = 0;
+                c = delta;
+                break;
+        }
+        out[offset] = a;
+        out[offset + 1] = b;
+        out[offset + 2] = c;
+        out[offset + 3] = v0;
+    }
+
+    /**
+     * computeCoefficients と horner を係数の配列なしで続けて行う。係数を持たない PersistentTrack の参照に使う。
+     */
+    static double segmentValue(KeyFrameData.Interpolation mode, int fPrev, double vPrev,
+            int f0, double v0, int f1, double v1, int fNext, double vNext, int frame) {
+        double delta = v1 - v0;
+        double t = (double) (frame - f0) / (f1 - f0);
+        switch (mode) {
+            case STEP:
+                return horner(0, 0, 0, v0, t);
+            case CATMULL_ROM: {
+                double m0 = startTangent(fPrev, vPrev, f0, v0, f1, v1);
+                double m1 = endTangent(f0, v0, f1, v1, fNext, vNext);
+                return horner(-2 * delta + m0 + m1, 3 * delta - 2 * m0 - m1, m0, v0, t);
+            }
+            case EASE:
+                return horner(-2 * delta, 3 * delta, 0, v0, t);
+            case LINEAR:
+            default:
+                return horner(0, 0, delta, v0, t);
+        }
+    }
+
+    /**
+     * Catmull-Rom の区間の始点の傾きを、区間の長さに合わせた Hermite 曲線の単位で返す。
+     */
+    private static double startTangent(int fPrev, double vPrev, int f0, double v0, int f1, double v1) {
+        // 前後のキーとの傾き(1フレームあたり)を区間の長さに合わせる。
+        double length = f1 - f0;
+        double m0 = fPrev == f0 ? (v1 - v0) / length : (v1 - vPrev) / (f1 - fPrev);
+        return m0 * length;
+    }
+
+    private static double endTangent(int f0, double v0, int f1, double v1, int fNext, double vNext) {
+        double length = f1 - f0;
+        double m1 = fNext == f1 ? (v1 - v0) / length : (vNext - v0) / (fNext - f0);
+        return m1 * length;
+    }
+
+    static double horner(double[] coefficients, int offset, int f0, int f1, int frame) {
+        double t = (double) (frame - f0) / (f1 - f0);
+        return horner(coefficients[offset], coefficients[offset + 1], coefficients[offset + 2],
+                coefficients[offset + 3], t);
+    }
+
+    private static double horner(double a, double b, double c, double d, double t) {
+        if (a == 0 && b == 0) {
+            // 1次以下の区間。-0.0 も含めて以前の線形補間と同じ値にするため、0 の項を足さない。
+            return c * t + d;
+        }
+        return ((a * t + b) * t + c) * t + d;
+    }
+
+    int size() {
+        return count;
+    }
+
+    int frameAt(int index) {
+        return frames[index];
+    }
+
+    double valueAt(int index) {
+        return values[index];
+    }
+
+    /**
+     * frame を含む区間の番号(frame 以下の最後のキーの位置)。最初と最後のキーの間のフレームで呼ぶこと。
+     */
+    int segmentOf(int frame) {
+        int found = Arrays.binarySearch(frames, 0, count, frame);
+        return found >= 0 ? found : -found - 2;
+    }
+
+    /**
+     * 区間 segment の frame での値。キーのフレームではキーの値そのものになる。
+     */
+    double evaluate(int segment, int frame) {
+        if (frames[segment] == frame) {
+            return values[segment];
+        }
+        return horner(coefficients, segment * 4, frames[segment], frames[segment + 1], frame);
+    }
+
+    /**
+     * frame での値。最初のキーより前は最初の値、最後のキーより後は最後の値。キーが無いときは呼ばないこと。
+     */
+    double value(int frame) {
+        if (frame <= frames[0]) {
+            return values[0];
+        }
+        if (frame >= frames[count - 1]) {
+            return values[count - 1];
+        }
+        return evaluate(segmentOf(frame), frame);
+    }
+}
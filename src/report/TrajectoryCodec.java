@@ -0,0 +1,88 @@
+package report;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 差分圧縮した記録形式(.bkt)の共通定義。
+ *
+ * <pre>
+ * ヘッダ  : magic(int) version(int) bodyCount(int) keyFrameInterval(int) quantum(double × 14)
+ * フレーム: keyFrameInterval ごとにキーフレーム、それ以外は差分フレーム
+ * 索引    : frameCount(int) keyFrameCount(int) offset(long × keyFrameCount)
+ * 末尾    : indexOffset(long) magic(int)
+ * </pre>
+ *
+ * 値は ParamType 順の14個を quantum で割って丸めた整数で持つ。
+ * キーフレームは全物体の整数値をそのまま、差分フレームは前フレームとの差を書く。
+ * 差分フレームは「変化しなかった物体数(varint)・変化したパラメータのビットマスク(varint)・
+ * 差(zig-zag varint) × ビット数」の繰り返しで、読み飛ばした物体数が bodyCount に達したら終わる。
+ * 止まっている物体は1バイトも使わないので、全物体が静止したフレームは数バイトで済む。
+ * 整数はすべて量子化後の値どうしで差を取るので、読み書きで誤差が積み重ならない。
+ */
+final class TrajectoryCodec {
+    static final int MAGIC = 0x5254424B; // "KBTR"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = Integer.BYTES * 4 + KeyFrameData.ParamType.values().length * Double.BYTES;
+    static final int TRAILER_BYTES = Long.BYTES + Integer.BYTES;
+
+    static final KeyFrameData.ParamType[] FIELDS = KeyFrameData.ParamType.values();
+    static final int FIELD_COUNT = FIELDS.length;
+
+    /** 1物体の差分の最大バイト数(読み飛ばし数・マスク・差 × 14)。 */
+    static final int MAX_BODY_BYTES = 5 + 3 + FIELD_COUNT * 10;
+
+    /** 生の double × 14 で持った場合の1物体あたりのバイト数。圧縮率の基準にする。 */
+    static final int RAW_BODY_BYTES = FIELD_COUNT * Double.BYTES;
+
+    private TrajectoryCodec() {
+    }
+
+    /**
+     * 量子化の刻み幅。2の累乗にしてあるので割り算と掛け算で誤差が出ない。
+     */
+    static double quantum(KeyFrameData.ParamType type) {
+        switch (type) {
+            case X:
+            case Y:
+            case WIDTH:
+            case HEIGHT:
+                return 1.0 / (1 << 10);
+            case VX:
+            case VY:
+                return 1.0 / (1 << 12);
+            case ANGLE:
+            case ANGULAR_VELOCITY:
+            default:
+                return 1.0 / (1 << 20);
+        }
+    }
+
+    static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static void putVarLong(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    static long getVarLong(ByteBuffer buffer) {
+        long value = 0;
+        int shift = 0;
+        while (true) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+            shift += 7;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package report;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * シミュレーションを進めながら各フレームの姿勢を TrajectorySink に流すエクスポーター。
+ * 軌跡をメモリに溜めないので、フレーム数によらずメモリ使用量は一定。
+ *
+ * 使い方: java -cp bin report.TrajectoryExporter 出力(.csv|.bin|.bkt) [フレーム数] [プロジェクトファイル]
+ */
+public class TrajectoryExporter {
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    /**
+     * 0フレーム目の状態を含めて frames + 1 行を書く。
+     */
+    public static void export(HeadlessSimulation simulation, int frames, TrajectorySink sink) throws IOException {
+        sink.write(simulation.getFrame(), simulation.getBox());
+        for (int i = 0; i < frames; i++) {
+            simulation.step();
+            sink.write(simulation.getFrame(), simulation.getBox());
+        }
+    }
+
+    public static TrajectorySink openSink(Path output) throws IOException {
+        FileChannel channel = FileChannel.open(output, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        if (output.toString().endsWith(".csv")) {
+            return new CsvTrajectorySink(channel, BUFFER_SIZE);
+        }
+        if (output.toString().endsWith(".bkt")) {
+            return new DeltaTrajectoryWriter(channel, 1, AnimationConfig.RECORDING_KEYFRAME_INTERVAL, BUFFER_SIZE);
+        }
+        return new BinaryTrajectorySink(channel, BUFFER_SIZE);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("使い方: TrajectoryExporter 出力(.csv|.bin|.bkt) [フレーム数] [プロジェクトファイル]");
+            System.exit(1);
+        }
+
+        Path output = Paths.get(args[0]);
+        int frames = args.length > 1 ? Integer.parseInt(args[1]) : AnimationConfig.MAX_FRAME;
+        HeadlessSimulation simulation = args.length > 2
+                ? HeadlessSimulation.fromProject(Paths.get(args[2]))
+                : new HeadlessSimulation(AnimationConfig.POSITION_X_MAX, AnimationConfig.POSITION_Y_MAX);
+
+        long start = System.nanoTime();
+        try (TrajectorySink sink = openSink(output)) {
+            export(simulation, frames, sink);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%d フレームを %s に書き出しました (%.2f 秒, %.0f フレーム/秒)%n",
+                frames, output, seconds, frames / seconds);
+    }
+}
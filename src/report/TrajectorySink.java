@@ -0,0 +1,11 @@
+package report;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * 1フレームごとの Box の姿勢と速度を書き出す先。
+ */
+public interface TrajectorySink extends Closeable {
+    void write(int frame, Box box) throws IOException;
+}
@@ -24,9 +24,23 @@ public class UIStyles {
     public static final Color TIMELINE_TRACK_ODD = new Color(47, 49, 54);
     public static final Color TIMELINE_LABEL_BG = new Color(32, 34, 37);
     public static final Color TIMELINE_GRID = new Color(60, 63, 68);
+    public static final Color TIMELINE_GROUP_BG = new Color(38, 40, 44);
     public static final Color TIMELINE_CURRENT = new Color(52, 152, 219);
     public static final Color KEYFRAME_COLOR = new Color(241, 196, 15);
     public static final Color KEYFRAME_SELECTED = new Color(231, 76, 60);
+    public static final Color CURVE_INTERPOLATED = new Color(46, 204, 113);
+    public static final Color CURVE_SIMULATED = new Color(230, 126, 34);
+
+    public static final Color OBSTACLE_COLOR = new Color(127, 140, 141);
+    public static final Color METRICS_OVERLAY_BG = new Color(32, 34, 37, 200);
+    public static final Color ONION_PAST = new Color(41, 128, 185, 40);
+    public static final Color ONION_FUTURE = new Color(230, 126, 34, 40);
+    public static final Color MOTION_TRAIL = new Color(127, 140, 141, 160);
+
+    public static final Color[] OBJECT_COLORS = {
+            Color.BLUE, new Color(192, 57, 43), new Color(39, 174, 96), new Color(142, 68, 173),
+            new Color(211, 84, 0), new Color(22, 160, 133)
+    };
 
     public static final Font FONT_REGULAR = new Font("Dialog", Font.PLAIN, 12);
     public static final Font FONT_BOLD = new Font("Dialog", Font.BOLD, 12);
@@ -0,0 +1,40 @@
+package report;
+
+/**
+ * 速度ベルレ法。位置を2次まで進め、新旧の加速度の平均で速度を更新する。
+ * 加速度の評価は1ステップ2回。
+ */
+public class VelocityVerletIntegrator implements Integrator {
+    private final double[] q = new double[MAX_DEGREES_OF_FREEDOM];
+    private final double[] v = new double[MAX_DEGREES_OF_FREEDOM];
+    private final double[] a = new double[MAX_DEGREES_OF_FREEDOM];
+    private final double[] nextA = new double[MAX_DEGREES_OF_FREEDOM];
+
+    @Override
+    public void integrate(Target target, double h) {
+        int n = target.getDegreesOfFreedom();
+        target.readState(q, v);
+        target.computeAcceleration(q, v, a);
+
+        for (int i = 0; i < n; i++) {
+            q[i] += v[i] * h + 0.5 * a[i] * h * h;
+        }
+        target.computeAcceleration(q, v, nextA);
+        for (int i = 0; i < n; i++) {
+            v[i] += 0.5 * (a[i] + nextA[i]) * h;
+        }
+        target.applyDamping(v, h);
+
+        target.writeState(q, v);
+    }
+
+    @Override
+    public String getName() {
+        return Kind.VELOCITY_VERLET.getDisplayName();
+    }
+
+    @Override
+    public Kind getKind() {
+        return Kind.VELOCITY_VERLET;
+    }
+}
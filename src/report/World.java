@@ -0,0 +1,154 @@
+package report;
+
+import java.awt.Graphics;
+import java.util.Arrays;
+
+import javax.swing.JPanel;
+
+/**
+ * シーン内の物体を種類ごとの配列に分けて持ち、まとめて1フレーム進めるクラス。
+ * 種類ごとのループでは呼び出し先が1つに決まるので、JIT が next() をインライン化しやすい。
+ */
+public class World {
+    private Box[] boxes = new Box[4];
+    private int boxCount = 0;
+    private Ball[] balls = new Ball[4];
+    private int ballCount = 0;
+
+    /**
+     * 全物体の状態の写し。saveState を呼んだときと同じ物体の並びにだけ restoreState できる。
+     */
+    public static class State {
+        private final Box.BoxState[] boxStates;
+        private final Ball.BallState[] ballStates;
+
+        State(World world) {
+            boxStates = new Box.BoxState[world.boxCount];
+            for (int i = 0; i < world.boxCount; i++) {
+                boxStates[i] = world.boxes[i].saveState();
+            }
+            ballStates = new Ball.BallState[world.ballCount];
+            for (int i = 0; i < world.ballCount; i++) {
+                ballStates[i] = world.balls[i].saveState();
+            }
+        }
+
+        public int getBodyCount() {
+            return boxStates.length + ballStates.length;
+        }
+
+        Box.BoxState getBoxState(int index) {
+            return boxStates[index];
+        }
+
+        Ball.BallState getBallState(int index) {
+            return ballStates[index];
+        }
+    }
+
+    public void addBox(Box box) {
+        if (boxCount == boxes.length) {
+            boxes = Arrays.copyOf(boxes, boxes.length * 2);
+        }
+        boxes[boxCount++] = box;
+    }
+
+    public void addBall(Ball ball) {
+        if (ballCount == balls.length) {
+            balls = Arrays.copyOf(balls, balls.length * 2);
+        }
+        balls[ballCount++] = ball;
+    }
+
+    public int getBoxCount() {
+        return boxCount;
+    }
+
+    public Box getBox(int index) {
+        return boxes[index];
+    }
+
+    public int getBallCount() {
+        return ballCount;
+    }
+
+    public Ball getBall(int index) {
+        return balls[index];
+    }
+
+    public int getBodyCount() {
+        return boxCount + ballCount;
+    }
+
+    /**
+     * 全物体を1フレーム進める。
+     */
+    public void step() {
+        PhysicsStepEvent event = new PhysicsStepEvent();
+        event.begin();
+        Box.stepAll(boxes, boxCount);
+        Ball.stepAll(balls, ballCount);
+        if (event.shouldCommit()) {
+            event.bodyCount = getBodyCount();
+            for (int i = 0; i < boxCount; i++) {
+                event.subSteps += boxes[i].getLastSubStepCount();
+                event.contacts += boxes[i].getLastContactCount();
+                event.solverIterations += boxes[i].getContactSolver().getLastIterations();
+            }
+            event.commit();
+        }
+    }
+
+    public State saveState() {
+        return new State(this);
+    }
+
+    public void restoreState(State state) {
+        if (state.boxStates.length != boxCount || state.ballStates.length != ballCount) {
+            throw new IllegalArgumentException("物体数が保存時と違います: " + getBodyCount());
+        }
+        for (int i = 0; i < boxCount; i++) {
+            boxes[i].restoreState(state.boxStates[i]);
+        }
+        for (int i = 0; i < ballCount; i++) {
+            balls[i].restoreState(state.ballStates[i]);
+        }
+    }
+
+    /**
+     * 描画用に、同じ並びと色の物体を新しく作った World。restoreState で状態を移してから draw する。
+     * 元の World とは物体を共有しないので、別のスレッドで描いてよい。
+     */
+    World copyForDrawing(JPanel panel) {
+        World copy = new World();
+        for (int i = 0; i < boxCount; i++) {
+            Box box = new Box(panel);
+            box.setColor(boxes[i].getColor());
+            copy.addBox(box);
+        }
+        for (int i = 0; i < ballCount; i++) {
+            Ball ball = new Ball(panel);
+            ball.setColor(balls[i].getColor());
+            copy.addBall(ball);
+        }
+        return copy;
+    }
+
+    public void goHome() {
+        for (int i = 0; i < boxCount; i++) {
+            boxes[i].goHome();
+        }
+        for (int i = 0; i < ballCount; i++) {
+            balls[i].goHome();
+        }
+    }
+
+    public void draw(Graphics graphics) {
+        for (int i = 0; i < boxCount; i++) {
+            boxes[i].draw(graphics);
+        }
+        for (int i = 0; i < ballCount; i++) {
+            balls[i].draw(graphics);
+        }
+    }
+}